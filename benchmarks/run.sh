@@ -0,0 +1,17 @@
+#!/bin/bash
+# Builds the store and its JMH benchmarks, runs them, and writes the results as JSON to
+# benchmarks/results/<commit>.json. Extra arguments are passed to JMH, e.g.
+#   bash benchmarks/run.sh KeyValueStoreBenchmark.mixed -t 4 -p distribution=zipfian
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -B -q install
+mvn -B -q -f benchmarks/pom.xml package
+
+COMMIT=$(git rev-parse --short HEAD 2>/dev/null || echo unknown)
+if [ -n "$(git status --porcelain 2>/dev/null)" ]; then
+  COMMIT="$COMMIT-dirty"
+fi
+mkdir -p benchmarks/results
+java -jar benchmarks/target/benchmarks.jar -rf json -rff "benchmarks/results/$COMMIT.json" "$@"
+echo "Results written to benchmarks/results/$COMMIT.json"
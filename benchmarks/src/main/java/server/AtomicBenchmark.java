@@ -0,0 +1,86 @@
+package server;
+
+import common.LoggerInterface;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contention on atomic commands. Run with {@code -t <threads>}: {@code incrementHotKey} has
+ * every thread increment one counter, {@code incrementSpread} spreads the increments over
+ * {@code keyCount} counters, and {@code getThenPut} is the racy read-then-write a client had
+ * to do before INCR existed, minus its extra round trip, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AtomicBenchmark {
+  @Param({"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  public String store;
+
+  @Param({"10000"})
+  public int keyCount;
+
+  private LoggerInterface logger;
+  private KeyValueStore kvStore;
+  private String[] keyNames;
+
+  /**
+   * Per-thread random source, so threads do not contend on key selection.
+   */
+  @State(Scope.Thread)
+  public static class ThreadRandom {
+    final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ServerConfig config = new ServerConfig().set("store", store).set("log-level", "ERROR")
+        .set("log-console", "false");
+    logger = config.createLogger("AtomicBenchmark.log");
+    kvStore = new ExpiringKeyValueStore(KeyValueStore.create(config), 10, logger);
+    keyNames = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "counter" + i;
+      kvStore.put(keyNames[i], "0");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    kvStore.close();
+    logger.close();
+  }
+
+  @Benchmark
+  public String incrementHotKey() {
+    return AtomicCommands.increment(kvStore, keyNames[0], null, false);
+  }
+
+  @Benchmark
+  public String incrementSpread(ThreadRandom thread) {
+    return AtomicCommands.increment(kvStore, keyNames[thread.random.nextInt(keyCount)], null, false);
+  }
+
+  @Benchmark
+  public String getThenPut() {
+    String key = keyNames[0];
+    return kvStore.put(key, Long.toString(Long.parseLong(kvStore.get(key)) + 1));
+  }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hit ratio and throughput of the eviction policies of {@link BoundedKeyValueStore}, used
+ * as a cache-aside cache: each operation gets a key and puts it on a miss. Keys are
+ * Zipfian with skew {@code theta}; {@code scanPercent} of the operations instead walk the
+ * keyspace in order, one-hit wonders that a frequency-aware policy should not admit. The
+ * budget holds {@code budgetPercent} of the keys. {@code eviction=none} is the unbounded
+ * store, whose misses are only the first use of each key.
+ *
+ * <p>The {@code hits} and {@code misses} counters are reported as rates next to the score;
+ * the hit ratio is hits / (hits + misses), which each iteration also prints. The store
+ * starts empty and fills during warmup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BoundedStoreBenchmark {
+  @Param({"none", "lru", "tinylfu"})
+  public String eviction;
+
+  @Param({"0.99", "0.80"})
+  public double theta;
+
+  @Param({"0", "20"})
+  public int scanPercent;
+
+  @Param({"1000000"})
+  public int keyCount;
+
+  @Param({"100"})
+  public int valueSize;
+
+  @Param({"5"})
+  public int budgetPercent;
+
+  private KeyValueStore kvStore;
+  private KeyDistribution keys;
+  private String[] keyNames;
+  private String value;
+  private final LongAdder iterationHits = new LongAdder();
+  private final LongAdder iterationMisses = new LongAdder();
+
+  /**
+   * Per-thread random source and scan position, and the counters JMH reports.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Lookups {
+    final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+    int scanNext = random.nextInt(Integer.MAX_VALUE);
+    public long hits;
+    public long misses;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      hits = 0;
+      misses = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keys = new KeyDistribution("zipfian", keyCount, theta);
+    keyNames = new String[keyCount];
+    long keyChars = 0;
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "key" + i;
+      keyChars += keyNames[i].length();
+    }
+    value = "v".repeat(valueSize);
+    kvStore = KeyValueStore.create(new ServerConfig());
+    if (!eviction.equals("none")) {
+      // The store's own estimate of the whole keyspace, scaled to the budget
+      long allBytes = keyChars
+          + (long) keyCount * (BoundedKeyValueStore.ENTRY_OVERHEAD + valueSize);
+      long budget = allBytes / 100 * budgetPercent;
+      kvStore = BoundedKeyValueStore.create(kvStore, new ServerConfig()
+          .set("max-memory", Long.toString(budget)).set("eviction", eviction));
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void resetRatio() {
+    iterationHits.reset();
+    iterationMisses.reset();
+  }
+
+  @TearDown(Level.Iteration)
+  public void printRatio() {
+    long hits = iterationHits.sum();
+    long lookups = hits + iterationMisses.sum();
+    System.out.printf("hit ratio %.1f%% of %d lookups%n",
+        lookups == 0 ? 0.0 : 100.0 * hits / lookups, lookups);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    kvStore.close();
+  }
+
+  @Benchmark
+  public String cacheAside(Lookups thread) {
+    String key = thread.random.nextInt(100) < scanPercent
+        ? keyNames[Math.floorMod(thread.scanNext++, keyCount)]
+        : keyNames[keys.next(thread.random)];
+    String cached = kvStore.get(key);
+    if (cached != null) {
+      thread.hits++;
+      iterationHits.increment();
+      return cached;
+    }
+    thread.misses++;
+    iterationMisses.increment();
+    kvStore.put(key, value);
+    return value;
+  }
+}
@@ -0,0 +1,119 @@
+package server;
+
+import client.ClientOptions;
+import client.KeyValueClient;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback throughput of one {@link KeyValueClient} with many concurrent callers. Each
+ * invocation issues {@code callers} GETs at once and waits for all of them, so that many
+ * requests are in flight over {@code connections} TCP connections or one UDP socket.
+ * Results are in requests per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+  private static final int KEY_COUNT = 10000;
+  private static final int MAX_CALLERS = 4096;
+
+  @Param({"TCP", "NIO-TCP", "UDP"})
+  public String protocol;
+
+  @Param({"4"})
+  public int connections;
+
+  private KeyValueStore store;
+  private ServerInterface server;
+  private KeyValueClient client;
+  private final SplittableRandom random = new SplittableRandom(42);
+  private final String[] keys = new String[KEY_COUNT];
+  @SuppressWarnings("unchecked")
+  private final CompletableFuture<String>[] responses = new CompletableFuture[MAX_CALLERS];
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    ServerConfig config = new ServerConfig().set("log-level", "ERROR").set("log-console", "false");
+    store = KeyValueStore.create(config);
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = "key" + i;
+      store.put(keys[i], "value-" + i);
+    }
+    boolean udp = protocol.equals("UDP");
+    int port = udp ? ServerBenchmark.freeUdpPort() : ServerBenchmark.freeTcpPort();
+    server = udp ? new UDPServer(port, store, config)
+        : protocol.equals("NIO-TCP") ? new NioTCPServer(port, store, config)
+        : new TCPServer(port, store, config);
+    Thread serverThread = new Thread(server::execute, "benchmark-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    ClientOptions options = new ClientOptions().setConnections(connections).setMaxPending(MAX_CALLERS);
+    if (udp) {
+      client = KeyValueClient.connectUdp("127.0.0.1", port, options);
+    } else {
+      ServerBenchmark.awaitTcpServer(port);
+      client = KeyValueClient.connectTcp("127.0.0.1", port, options);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.close();
+    server.shutdown();
+    store.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1)
+  public String callers1() {
+    return client.get(keys[random.nextInt(KEY_COUNT)]).join();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(64)
+  public Object callers64() {
+    return burst(64);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1024)
+  public Object callers1024() {
+    return burst(1024);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MAX_CALLERS)
+  public Object callers4096() {
+    return burst(MAX_CALLERS);
+  }
+
+  private Object burst(int callers) {
+    for (int i = 0; i < callers; i++) {
+      responses[i] = client.get(keys[random.nextInt(KEY_COUNT)]);
+    }
+    for (int i = 0; i < callers; i++) {
+      responses[i].join();
+    }
+    return responses[callers - 1];
+  }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
+import common.LoggerInterface;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request parsing, execution and response formatting without any networking: the text
+ * protocol through {@link CommandEngine}, from request bytes to response bytes, and the
+ * binary protocol through frame decoding, {@link BinaryRequestHandler} and frame encoding. {@code metrics=false} runs the same
+ * requests with {@link ServerMetrics} recording turned off, to measure its cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+  @Param({"GET key42", "GET missing", "PUT key42 value-42", "PUT key42 value-42 EX 600",
+      "DELETE missing", "MGET key1 key2 key3 key4 key5 key6 key7 key8 key9 key10"})
+  public String command;
+
+  @Param({"true", "false"})
+  public boolean metrics;
+
+  private KeyValueStore store;
+  private LoggerInterface logger;
+  private CommandEngine engine;
+  private byte[] textRequest;
+  private final ByteBuffer textOutput = ByteBuffer.allocate(UDPServer.MAX_PACKET_SIZE);
+  private BinaryRequestHandler binaryHandler;
+  private ByteBuffer binaryRequest;
+  private final ByteBuffer binaryOutput = ByteBuffer.allocate(UDPServer.MAX_PACKET_SIZE);
+  private final Frame requestFrame = new Frame();
+  private final Frame responseFrame = new Frame();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ServerConfig config = new ServerConfig().set("log-level", "ERROR").set("log-console", "false")
+        .set("metrics", String.valueOf(metrics));
+    logger = config.createLogger("CommandBenchmark.log");
+    store = new ExpiringKeyValueStore(new ConcurrentKeyValueStore(), 10, logger);
+    for (int i = 0; i < 100; i++) {
+      store.put("key" + i, "value-" + i);
+    }
+    ServerMetrics serverMetrics = new ServerMetrics(store, config, logger);
+    engine = new CommandEngine(store, logger, serverMetrics, false);
+    textRequest = command.getBytes(StandardCharsets.UTF_8);
+    binaryHandler = new BinaryRequestHandler(store, logger, serverMetrics);
+
+    // The binary protocol has PUT, GET and DELETE only; other commands benchmark a GET
+    String[] tokens = command.split(" ", 3);
+    byte opcode = tokens[0].equals("PUT") ? BinaryProtocol.OP_PUT
+        : tokens[0].equals("DELETE") ? BinaryProtocol.OP_DELETE : BinaryProtocol.OP_GET;
+    Frame frame = new Frame().reset(opcode, 1).setKey(tokens[1].getBytes(StandardCharsets.UTF_8));
+    if (opcode == BinaryProtocol.OP_PUT) {
+      frame.setValue(tokens[2].getBytes(StandardCharsets.UTF_8));
+    }
+    binaryRequest = ByteBuffer.allocate(UDPServer.MAX_PACKET_SIZE);
+    frame.writeRequest(binaryRequest);
+    binaryRequest.flip();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    store.close();
+    logger.close();
+  }
+
+  @Benchmark
+  public ByteBuffer text() {
+    textOutput.clear();
+    return engine.execute(textRequest, 0, textRequest.length, textOutput, "benchmark");
+  }
+
+  @Benchmark
+  public ByteBuffer binary() throws ProtocolException {
+    requestFrame.readRequest(binaryRequest.duplicate());
+    binaryHandler.handleRequest(requestFrame, responseFrame, "benchmark");
+    binaryOutput.clear();
+    responseFrame.writeResponse(binaryOutput);
+    return binaryOutput;
+  }
+}
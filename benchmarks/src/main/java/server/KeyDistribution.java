@@ -0,0 +1,88 @@
+package server;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks key indexes for benchmarks, either uniformly or from a Zipfian distribution.
+ *
+ * <p>The Zipfian generator is the one from Gray et al., "Quickly Generating Billion-Record
+ * Synthetic Databases", as used by YCSB. Its ranks are scrambled with a multiplicative hash
+ * so the hot keys are spread over the store instead of being its first few entries.
+ */
+final class KeyDistribution {
+  /** Skew of the Zipfian distribution; YCSB's default. */
+  static final double ZIPF_THETA = 0.99;
+
+  private final int keyCount;
+  private final boolean zipfian;
+  private final double alpha;
+  private final double zetaN;
+  private final double eta;
+  private final double halfPowTheta;
+
+  /**
+   * Creates a distribution over [0, keyCount), with YCSB's skew if Zipfian.
+   *
+   * @param name "uniform" or "zipfian".
+   * @param keyCount The number of keys.
+   */
+  KeyDistribution(String name, int keyCount) {
+    this(name, keyCount, ZIPF_THETA);
+  }
+
+  /**
+   * Creates a distribution over [0, keyCount).
+   *
+   * @param name "uniform" or "zipfian".
+   * @param keyCount The number of keys.
+   * @param theta The skew of the Zipfian distribution, in (0, 1); higher is more skewed.
+   */
+  KeyDistribution(String name, int keyCount, double theta) {
+    this.keyCount = keyCount;
+    switch (name) {
+      case "uniform":
+        this.zipfian = false;
+        break;
+      case "zipfian":
+        this.zipfian = true;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown key distribution: " + name);
+    }
+    this.zetaN = zeta(keyCount, theta);
+    this.alpha = 1 / (1 - theta);
+    this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    this.halfPowTheta = 1 + Math.pow(0.5, theta);
+  }
+
+  /**
+   * Returns the next key index.
+   *
+   * @param random The calling thread's random source.
+   * @return A key index in [0, keyCount).
+   */
+  int next(SplittableRandom random) {
+    if (!zipfian) {
+      return random.nextInt(keyCount);
+    }
+    double u = random.nextDouble();
+    double uz = u * zetaN;
+    long rank;
+    if (uz < 1) {
+      rank = 0;
+    } else if (uz < halfPowTheta) {
+      rank = 1;
+    } else {
+      rank = (long) (keyCount * Math.pow(eta * u - eta + 1, alpha));
+    }
+    return (int) Long.remainderUnsigned(rank * 0x9E3779B97F4A7C15L, keyCount);
+  }
+
+  private static double zeta(long n, double theta) {
+    double sum = 0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+}
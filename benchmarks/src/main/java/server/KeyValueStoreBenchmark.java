@@ -0,0 +1,110 @@
+package server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Store operations against a pre-populated store. Run with {@code -t <threads>} to measure
+ * contention; {@code mixed} issues gets, puts and deletes in the proportions given by
+ * {@code readPercent} and {@code deletePercent}. {@code orderedIndex=true} wraps the engine
+ * in {@link OrderedKeyValueStore}, to measure what keeping keys sorted costs writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyValueStoreBenchmark {
+  @Param({"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  public String store;
+
+  @Param({"false", "true"})
+  public boolean orderedIndex;
+
+  @Param({"uniform", "zipfian"})
+  public String distribution;
+
+  @Param({"100000"})
+  public int keyCount;
+
+  @Param({"100"})
+  public int valueSize;
+
+  @Param({"90"})
+  public int readPercent;
+
+  @Param({"5"})
+  public int deletePercent;
+
+  private KeyValueStore kvStore;
+  private KeyDistribution keys;
+  private String[] keyNames;
+  private String value;
+
+  /**
+   * Per-thread random source, so threads do not contend on key selection.
+   */
+  @State(Scope.Thread)
+  public static class ThreadRandom {
+    final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    kvStore = KeyValueStore.create(new ServerConfig().set("store", store));
+    if (orderedIndex) {
+      kvStore = new OrderedKeyValueStore(kvStore);
+    }
+    keys = new KeyDistribution(distribution, keyCount);
+    keyNames = new String[keyCount];
+    value = "v".repeat(valueSize);
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "key" + i;
+      kvStore.put(keyNames[i], value);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    kvStore.close();
+  }
+
+  @Benchmark
+  public String get(ThreadRandom thread) {
+    return kvStore.get(keyNames[keys.next(thread.random)]);
+  }
+
+  @Benchmark
+  public void put(ThreadRandom thread) {
+    kvStore.put(keyNames[keys.next(thread.random)], value);
+  }
+
+  @Benchmark
+  public String mixed(ThreadRandom thread) {
+    String key = keyNames[keys.next(thread.random)];
+    int op = thread.random.nextInt(100);
+    if (op < readPercent) {
+      return kvStore.get(key);
+    }
+    if (op < readPercent + deletePercent) {
+      return kvStore.delete(key);
+    }
+    kvStore.put(key, value);
+    return null;
+  }
+}
@@ -0,0 +1,192 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end request/response throughput over loopback. Each benchmark thread is one
+ * client with one request in flight, so {@code -t} sets the number of concurrent clients.
+ * {@code readPercent} of requests are GETs; the rest are PUTs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+  private static final int KEY_COUNT = 10000;
+  private static final long STARTUP_TIMEOUT_MS = 10000;
+  // A lost datagram is resent after this long instead of stalling the thread
+  private static final int UDP_TIMEOUT_MS = 1000;
+
+  @Param({"TCP", "NIO-TCP", "UDP"})
+  public String protocol;
+
+  @Param({"90"})
+  public int readPercent;
+
+  private int port;
+  private KeyValueStore store;
+  private ServerInterface server;
+
+  @Setup(Level.Trial)
+  public void startServer() throws Exception {
+    ServerConfig config = new ServerConfig().set("log-level", "ERROR").set("log-console", "false");
+    store = KeyValueStore.create(config);
+    for (int i = 0; i < KEY_COUNT; i++) {
+      store.put("key" + i, "value-" + i);
+    }
+    boolean udp = protocol.equals("UDP");
+    port = udp ? freeUdpPort() : freeTcpPort();
+    switch (protocol) {
+      case "TCP":
+        server = new TCPServer(port, store, config);
+        break;
+      case "NIO-TCP":
+        server = new NioTCPServer(port, store, config);
+        break;
+      case "UDP":
+        server = new UDPServer(port, store, config);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown protocol: " + protocol);
+    }
+    Thread serverThread = new Thread(server::execute, "benchmark-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    if (!udp) {
+      awaitTcpServer(port);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void stopServer() {
+    server.shutdown();
+    store.close();
+  }
+
+  /**
+   * One client connection and its request mix.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+    private final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+    private final DatagramPacket response =
+        new DatagramPacket(new byte[UDPServer.MAX_PACKET_SIZE], UDPServer.MAX_PACKET_SIZE);
+    private String[] gets;
+    private String[] puts;
+    private Socket socket;
+    private OutputStream out;
+    private BufferedReader in;
+    private DatagramSocket datagramSocket;
+
+    @Setup(Level.Trial)
+    public void connect(ServerBenchmark benchmark) throws IOException {
+      gets = new String[KEY_COUNT];
+      puts = new String[KEY_COUNT];
+      for (int i = 0; i < KEY_COUNT; i++) {
+        gets[i] = "GET key" + i;
+        puts[i] = "PUT key" + i + " value-" + i;
+      }
+      InetSocketAddress address = new InetSocketAddress("127.0.0.1", benchmark.port);
+      if (benchmark.protocol.equals("UDP")) {
+        datagramSocket = new DatagramSocket();
+        datagramSocket.connect(address);
+        datagramSocket.setSoTimeout(UDP_TIMEOUT_MS);
+      } else {
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+      if (socket != null) {
+        socket.close();
+      }
+      if (datagramSocket != null) {
+        datagramSocket.close();
+      }
+    }
+
+    String nextRequest(int readPercent) {
+      int key = random.nextInt(KEY_COUNT);
+      return random.nextInt(100) < readPercent ? gets[key] : puts[key];
+    }
+  }
+
+  @Benchmark
+  public Object roundTrip(Client client) throws IOException {
+    String request = client.nextRequest(readPercent);
+    if (client.datagramSocket != null) {
+      byte[] data = request.getBytes(StandardCharsets.UTF_8);
+      while (true) {
+        client.datagramSocket.send(new DatagramPacket(data, data.length));
+        try {
+          client.datagramSocket.receive(client.response);
+          return client.response;
+        } catch (SocketTimeoutException e) {
+          // Lost on loopback under load; ask again
+        }
+      }
+    }
+    client.out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+    client.out.flush();
+    return client.in.readLine();
+  }
+
+  static int freeTcpPort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  static int freeUdpPort() throws IOException {
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  static void awaitTcpServer(int port) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+    while (true) {
+      try (Socket probe = new Socket("127.0.0.1", port)) {
+        return;
+      } catch (IOException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new UncheckedIOException("Server did not start on port " + port, e);
+        }
+        Thread.sleep(50);
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package server;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Memory per stored pair. Each invocation fills an empty store with {@code keyCount}
+ * distinct pairs, and the {@code bytesPerEntry} counter reports the heap and direct memory
+ * in use afterwards, over a full collection and less what was in use before the store was
+ * created, divided by the pair count. Keys and values are decoded from bytes for each put,
+ * as the server does, so heap engines are charged for the Strings they keep. The score is
+ * the fill time. Pair it with {@code KeyValueStoreBenchmark.get} to weigh footprint against
+ * read speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class StoreMemoryBenchmark {
+  @Param({"concurrent", "synchronized", "offheap", "compact"})
+  public String store;
+
+  @Param({"1000000"})
+  public int keyCount;
+
+  @Param({"10", "100"})
+  public int valueSize;
+
+  private byte[][] keyBytes;
+  private byte[][] valueBytes;
+  private KeyValueStore kvStore;
+  private long baselineBytes;
+
+  /**
+   * The memory counter JMH reports next to the fill time.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public double bytesPerEntry;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keyBytes = new byte[keyCount][];
+    valueBytes = new byte[keyCount][];
+    String padding = "v".repeat(valueSize);
+    for (int i = 0; i < keyCount; i++) {
+      keyBytes[i] = ("key" + i).getBytes(StandardCharsets.UTF_8);
+      String number = Integer.toString(i);
+      valueBytes[i] = (number + padding.substring(Math.min(number.length(), valueSize)))
+          .getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void createStore() {
+    baselineBytes = usedBytes();
+    kvStore = KeyValueStore.create(new ServerConfig().set("store", store));
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeStore() {
+    kvStore.close();
+    kvStore = null;
+  }
+
+  @Benchmark
+  public void fill(Footprint footprint) {
+    for (int i = 0; i < keyCount; i++) {
+      kvStore.put(new String(keyBytes[i], StandardCharsets.UTF_8),
+          new String(valueBytes[i], StandardCharsets.UTF_8));
+    }
+    footprint.bytesPerEntry = (double) (usedBytes() - baselineBytes) / keyCount;
+  }
+
+  /**
+   * Returns the heap in use after a full collection plus the direct buffers allocated.
+   */
+  private static long usedBytes() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long used = 0;
+    // A second collection picks up what finalization and reference processing freed
+    for (int i = 0; i < 2; i++) {
+      System.gc();
+      used = memory.getHeapMemoryUsage().getUsed();
+    }
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        used += pool.getMemoryUsed();
+      }
+    }
+    return used;
+  }
+}
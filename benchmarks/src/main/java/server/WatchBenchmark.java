@@ -0,0 +1,106 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write-path cost of WATCH. {@code put} writes random keys through a
+ * {@link WatchableKeyValueStore} with {@code watchers} open watches. With {@code match}
+ * "none" every watch is on a key that is never written, which measures the lookup that
+ * each write pays; with "prefix" the watches are split over 100 prefixes that together
+ * match every key, so each write queues events, drained by one virtual thread per watch
+ * as the server would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatchBenchmark {
+  private static final int PREFIXES = 100;
+
+  @Param({"0", "100", "10000"})
+  public int watchers;
+
+  @Param({"none", "prefix"})
+  public String match;
+
+  @Param({"100000"})
+  public int keyCount;
+
+  private WatchableKeyValueStore kvStore;
+  private String[] keyNames;
+  private final List<WatchableKeyValueStore.Watch> watches = new ArrayList<>();
+  private final List<Thread> drainers = new ArrayList<>();
+
+  /**
+   * Per-thread random source, so threads do not contend on key selection.
+   */
+  @State(Scope.Thread)
+  public static class ThreadRandom {
+    final SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    kvStore = new WatchableKeyValueStore(KeyValueStore.create(new ServerConfig()));
+    keyNames = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = (i % PREFIXES) + ":key" + i;
+      kvStore.put(keyNames[i], "value");
+    }
+    for (int i = 0; i < watchers; i++) {
+      if (match.equals("none")) {
+        watches.add(kvStore.watch(List.of("unwritten" + i), List.of(),
+            WatchableKeyValueStore.DEFAULT_MAX_PENDING_KEYS, () -> { }));
+        continue;
+      }
+      WatchableKeyValueStore.Watch watch = kvStore.watch(List.of(), List.of((i % PREFIXES) + ":"),
+          Integer.MAX_VALUE, () -> { });
+      watches.add(watch);
+      drainers.add(Thread.startVirtualThread(() -> {
+        try {
+          Map<String, String> events;
+          while ((events = watch.take()) != null) {
+            events.clear();
+          }
+        } catch (InterruptedException e) {
+          // Done
+        }
+      }));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    watches.forEach(WatchableKeyValueStore.Watch::close);
+    for (Thread drainer : drainers) {
+      drainer.join();
+    }
+    kvStore.close();
+  }
+
+  @Benchmark
+  public String put(ThreadRandom thread) {
+    // A fresh value each time, since writes that leave a value unchanged are not reported
+    return kvStore.put(keyNames[thread.random.nextInt(keyCount)], Integer.toString(thread.random.nextInt()));
+  }
+}
@@ -9,27 +9,28 @@ public class ClientApp {
   /**
    * Main method that initializes the client based on user input.
    *
-   * @param args Command-line arguments: <ServerIP> <Port#> <TCP/UDP>
+   * @param args Command-line arguments: <ServerIP> <Port#> <TCP/UDP> [TEXT/BINARY]
    */
   public static void main(String[] args) {
-    if (args.length != 3) {
-      System.err.println("Usage: java ClientApp <ServerIP> <Port#> <TCP/UDP>");
+    if (args.length != 3 && args.length != 4) {
+      System.err.println("Usage: java ClientApp <ServerIP> <Port#> <TCP/UDP> [TEXT/BINARY]");
       System.exit(1);
     }
 
     String serverAddress = args[0];
     int port = Integer.parseInt(args[1]);
     String protocol = args[2].toUpperCase();
+    boolean binary = args.length == 4 && args[3].equalsIgnoreCase("BINARY");
 
     ClientInterface client;
 
     // Switch between TCP and UDP based on user input
     switch (protocol) {
       case "UDP":
-        client = new UDPClient(serverAddress, port);
+        client = new UDPClient(serverAddress, port, binary);
         break;
       case "TCP":
-        client = new TCPClient(serverAddress, port);
+        client = new TCPClient(serverAddress, port, binary);
         break;
       default:
         System.err.println("Invalid protocol. Please enter either 'TCP' or 'UDP'.");
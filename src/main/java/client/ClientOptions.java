@@ -0,0 +1,168 @@
+package client;
+
+/**
+ * Settings for a {@link KeyValueClient}. Setters return the options, so they can be
+ * chained: {@code new ClientOptions().setConnections(8).setMaxPending(50000)}.
+ */
+public class ClientOptions {
+  /** Default number of TCP connections. */
+  public static final int DEFAULT_CONNECTIONS = 4;
+  /** Default limit on requests sent or queued but not yet answered. */
+  public static final int DEFAULT_MAX_PENDING = 10000;
+  /** Default time a request may take, including retransmissions, before it fails. */
+  public static final long DEFAULT_REQUEST_TIMEOUT_MS = 5000;
+  /** Default interval between health checks of the TCP connections. */
+  public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MS = 1000;
+  /** Default UDP id window, the UDP server's default number of cached responses per client. */
+  public static final int DEFAULT_UDP_WINDOW = 256;
+
+  private int connections = DEFAULT_CONNECTIONS;
+  private int maxPending = DEFAULT_MAX_PENDING;
+  private long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MS;
+  private long healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MS;
+  private int udpWindow = DEFAULT_UDP_WINDOW;
+  private boolean binary;
+
+  /**
+   * Sets the number of TCP connections requests are spread over. UDP uses one socket.
+   *
+   * @param connections The number of connections, at least 1.
+   * @return These options.
+   */
+  public ClientOptions setConnections(int connections) {
+    if (connections <= 0) {
+      throw new IllegalArgumentException("connections must be positive: " + connections);
+    }
+    this.connections = connections;
+    return this;
+  }
+
+  /**
+   * Sets how many requests may be outstanding at once. Callers beyond the limit wait for
+   * an earlier request to finish, for at most the request timeout.
+   *
+   * @param maxPending The limit, at least 1.
+   * @return These options.
+   */
+  public ClientOptions setMaxPending(int maxPending) {
+    if (maxPending <= 0) {
+      throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+    }
+    this.maxPending = maxPending;
+    return this;
+  }
+
+  /**
+   * Sets how long a request may wait for its response before it fails with a
+   * {@link java.util.concurrent.TimeoutException}.
+   *
+   * @param requestTimeoutMillis The timeout in milliseconds, at least 1.
+   * @return These options.
+   */
+  public ClientOptions setRequestTimeoutMillis(long requestTimeoutMillis) {
+    if (requestTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("requestTimeoutMillis must be positive: " + requestTimeoutMillis);
+    }
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Sets how often TCP connections are checked for stalls and broken connections are
+   * reopened.
+   *
+   * @param healthCheckIntervalMillis The interval in milliseconds, at least 1.
+   * @return These options.
+   */
+  public ClientOptions setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+    if (healthCheckIntervalMillis <= 0) {
+      throw new IllegalArgumentException(
+          "healthCheckIntervalMillis must be positive: " + healthCheckIntervalMillis);
+    }
+    this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    return this;
+  }
+
+  /**
+   * Sets how far apart, in ids, the outstanding requests of a UDP client may be. The UDP
+   * server recognizes a retransmission only while the request is among the client's last
+   * {@code --udp-cache-entries} ids, so the window must not be larger than that, or a
+   * retransmitted write may be applied twice. A smaller window also limits the requests
+   * in flight.
+   *
+   * @param udpWindow The window, at least 1.
+   * @return These options.
+   */
+  public ClientOptions setUdpWindow(int udpWindow) {
+    if (udpWindow <= 0) {
+      throw new IllegalArgumentException("udpWindow must be positive: " + udpWindow);
+    }
+    this.udpWindow = udpWindow;
+    return this;
+  }
+
+  /**
+   * Selects the binary protocol, which supports PUT, GET and DELETE only.
+   *
+   * @param binary True for the binary protocol, false for text.
+   * @return These options.
+   */
+  public ClientOptions setBinary(boolean binary) {
+    this.binary = binary;
+    return this;
+  }
+
+  /**
+   * Returns the number of TCP connections.
+   *
+   * @return The number of connections.
+   */
+  public int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Returns the limit on outstanding requests.
+   *
+   * @return The limit.
+   */
+  public int getMaxPending() {
+    return maxPending;
+  }
+
+  /**
+   * Returns the request timeout.
+   *
+   * @return The timeout in milliseconds.
+   */
+  public long getRequestTimeoutMillis() {
+    return requestTimeoutMillis;
+  }
+
+  /**
+   * Returns the health check interval.
+   *
+   * @return The interval in milliseconds.
+   */
+  public long getHealthCheckIntervalMillis() {
+    return healthCheckIntervalMillis;
+  }
+
+  /**
+   * Returns the UDP id window.
+   *
+   * @return The window.
+   */
+  public int getUdpWindow() {
+    return udpWindow;
+  }
+
+  /**
+   * Returns whether the binary protocol is used.
+   *
+   * @return True for the binary protocol.
+   */
+  public boolean isBinary() {
+    return binary;
+  }
+}
@@ -1,8 +1,16 @@
 package client;
 
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Utility class for handling client-related operations.
@@ -19,4 +27,86 @@ public class ClientUtils {
     BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
     return reader.readLine();
   }
+
+  /**
+   * Encodes a text command (PUT, GET or DELETE) as a binary request frame. Keys and
+   * values are sent as their UTF-8 bytes.
+   *
+   * @param command The text command, e.g. "PUT apple 100".
+   * @param requestId The id to tag the request with.
+   * @param frame The frame to fill in.
+   * @return False if the command has no binary equivalent or is malformed.
+   */
+  public static boolean toBinaryRequest(String command, int requestId, Frame frame) {
+    String[] tokens = command.trim().split("\\s+", 3);
+    switch (tokens[0].toUpperCase()) {
+      case "PUT":
+        if (tokens.length != 3) return false;
+        frame.reset(BinaryProtocol.OP_PUT, requestId)
+            .setKey(tokens[1].getBytes(StandardCharsets.UTF_8))
+            .setValue(tokens[2].getBytes(StandardCharsets.UTF_8));
+        return true;
+      case "GET":
+        if (tokens.length != 2) return false;
+        frame.reset(BinaryProtocol.OP_GET, requestId).setKey(tokens[1].getBytes(StandardCharsets.UTF_8));
+        return true;
+      case "DELETE":
+        if (tokens.length != 2) return false;
+        frame.reset(BinaryProtocol.OP_DELETE, requestId).setKey(tokens[1].getBytes(StandardCharsets.UTF_8));
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Renders a binary response in the same words the text protocol uses.
+   *
+   * @param opcode The opcode of the request being answered.
+   * @param response The response frame.
+   * @return The response as text.
+   */
+  public static String describeBinaryResponse(byte opcode, Frame response) {
+    String value = new String(response.valueBytes(), StandardCharsets.UTF_8);
+    if (response.getType() == BinaryProtocol.STATUS_ERROR) {
+      return "ERROR: " + value;
+    }
+    boolean found = response.getType() == BinaryProtocol.STATUS_OK;
+    switch (opcode) {
+      case BinaryProtocol.OP_PUT:
+        return "PUT_SUCCESS";
+      case BinaryProtocol.OP_GET:
+        return found ? "GET_SUCCESS: " + value : "GET_FAILURE: Key not found";
+      case BinaryProtocol.OP_DELETE:
+        return found ? "DELETE_SUCCESS" : "DELETE_FAILURE: Key not found";
+      default:
+        return "ERROR: Unknown opcode " + opcode;
+    }
+  }
+
+  /**
+   * Waits for a response from a {@link KeyValueClient}.
+   *
+   * @param response The pending response.
+   * @return The response text.
+   * @throws SocketTimeoutException If the request timed out.
+   * @throws IOException If the request failed.
+   */
+  public static String await(CompletableFuture<String> response) throws IOException {
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a response");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TimeoutException) {
+        throw new SocketTimeoutException("No response in time");
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause.getMessage(), cause);
+    }
+  }
 }
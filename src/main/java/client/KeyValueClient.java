@@ -0,0 +1,241 @@
+package client;
+
+import common.BinaryProtocol.Frame;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Asynchronous client for the key-value server, for use from other programs. Any number of
+ * threads may issue requests at once; each returns a {@link CompletableFuture} right away,
+ * and many requests are in flight over a few connections at the same time.
+ *
+ * <p>Over TCP, requests are spread over a pool of connections and written in batches;
+ * the server answers each connection in order. Over UDP, requests are tagged with ids, so
+ * responses are matched however they arrive, and lost datagrams are retransmitted. At most
+ * {@link ClientOptions#getMaxPending()} requests are outstanding: further callers wait
+ * for a slot, which keeps a fast producer from queueing without bound.
+ *
+ * <p>A future completes exceptionally with a {@link java.util.concurrent.TimeoutException}
+ * if no response arrives within the request timeout, with an {@link IOException} if its
+ * connection fails, and with a {@link RejectedExecutionException} if no slot frees up in
+ * time. Requests are not retried on another connection, since a PUT or DELETE may already
+ * have been applied. Dependent actions registered without an executor run on the client's
+ * I/O thread, so slow or blocking work, including requests sent while the client may be at
+ * its limit, belongs in the {@code ...Async} variants.
+ */
+public abstract class KeyValueClient implements AutoCloseable {
+  final ClientOptions options;
+  final ScheduledExecutorService scheduler;
+  private final Semaphore pending;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  KeyValueClient(ClientOptions options) {
+    this.options = options;
+    this.pending = new Semaphore(options.getMaxPending());
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "kv-client-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Connects to a TCP or NIO-TCP server.
+   *
+   * @param host The server's address.
+   * @param port The server's port.
+   * @param options The client settings.
+   * @return The connected client.
+   * @throws IOException If the connections cannot be opened.
+   */
+  public static KeyValueClient connectTcp(String host, int port, ClientOptions options)
+      throws IOException {
+    return new TCPKeyValueClient(host, port, options);
+  }
+
+  /**
+   * Opens a client for a UDP server.
+   *
+   * @param host The server's address.
+   * @param port The server's port.
+   * @param options The client settings.
+   * @return The client.
+   * @throws IOException If the socket cannot be opened.
+   */
+  public static KeyValueClient connectUdp(String host, int port, ClientOptions options)
+      throws IOException {
+    return new UDPKeyValueClient(host, port, options);
+  }
+
+  /**
+   * Sends any text command and completes with the server's response, including error
+   * responses.
+   *
+   * @param command The command, e.g. "MGET apple kiwi".
+   * @return A future for the response text.
+   * @throws IllegalArgumentException If the command contains a line break, or has no
+   *     binary equivalent when the binary protocol is used.
+   */
+  public CompletableFuture<String> execute(String command) {
+    Frame frame = null;
+    if (options.isBinary()) {
+      frame = new Frame();
+      if (!ClientUtils.toBinaryRequest(command, 0, frame)) {
+        throw new IllegalArgumentException("Not supported by the binary protocol: " + command);
+      }
+    } else if (command.indexOf('\n') >= 0 || command.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("Commands cannot contain line breaks");
+    }
+    if (closed.get()) {
+      return CompletableFuture.failedFuture(new IOException("Client is closed"));
+    }
+    try {
+      if (!pending.tryAcquire(options.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+        return CompletableFuture.failedFuture(
+            new RejectedExecutionException("Too many outstanding requests"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
+    }
+
+    Request request = new Request(command, frame);
+    // The caller's stage completes after the slot is freed, so a callback that sends the
+    // next request never waits for its own slot
+    CompletableFuture<String> result = request.future
+        .orTimeout(options.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete((response, error) -> pending.release());
+    send(request);
+    return result;
+  }
+
+  /**
+   * Reads a key.
+   *
+   * @param key The key, without whitespace.
+   * @return A future for the value, or null if the key does not exist.
+   */
+  public CompletableFuture<String> get(String key) {
+    checkKey(key);
+    return execute("GET " + key).thenApply(response -> {
+      if (response.startsWith("GET_SUCCESS: ")) {
+        return response.substring("GET_SUCCESS: ".length());
+      }
+      expect(response, "GET_FAILURE");
+      return null;
+    });
+  }
+
+  /**
+   * Stores a value. Over the text protocol, values lose leading and trailing whitespace,
+   * and a value ending in {@code EX <seconds>} sets an expiry.
+   *
+   * @param key The key, without whitespace.
+   * @param value The value, without line breaks.
+   * @return A future for the server's response, {@code PUT_SUCCESS}.
+   */
+  public CompletableFuture<String> put(String key, String value) {
+    checkKey(key);
+    if (value.isEmpty() || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("Values must be non-empty and without line breaks");
+    }
+    return execute("PUT " + key + " " + value).thenApply(response -> expect(response, "PUT"));
+  }
+
+  /**
+   * Deletes a key.
+   *
+   * @param key The key, without whitespace.
+   * @return A future for the server's response, {@code DELETE_SUCCESS} or
+   *     {@code DELETE_FAILURE: Key not found}.
+   */
+  public CompletableFuture<String> delete(String key) {
+    checkKey(key);
+    return execute("DELETE " + key).thenApply(response -> expect(response, "DELETE"));
+  }
+
+  /**
+   * Closes the client. Requests still outstanding fail with an {@link IOException}.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    scheduler.shutdownNow();
+    closeTransport();
+  }
+
+  /**
+   * Returns whether {@link #close} was called.
+   *
+   * @return True once the client is closed.
+   */
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Hands a request to the transport, which completes its future.
+   *
+   * @param request The request.
+   */
+  abstract void send(Request request);
+
+  /**
+   * Closes the transport and fails its outstanding requests.
+   */
+  abstract void closeTransport();
+
+  private static void checkKey(String key) {
+    if (key.isEmpty() || key.chars().anyMatch(Character::isWhitespace)) {
+      throw new IllegalArgumentException("Keys must be non-empty and without whitespace: " + key);
+    }
+  }
+
+  /**
+   * Passes through a response of the expected command and fails on error responses.
+   *
+   * @return The response.
+   * @throws CompletionException If the server reported an error.
+   */
+  private static String expect(String response, String prefix) {
+    if (!response.startsWith(prefix)) {
+      throw new CompletionException(new IOException("Server error: " + response));
+    }
+    return response;
+  }
+
+  /**
+   * One request and the state the transport keeps for it.
+   */
+  static final class Request {
+    final String command;
+    // The binary request, or null for the text protocol
+    final Frame frame;
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    // Set by the transport
+    volatile long sentNanos;
+    volatile int attempt;
+
+    Request(String command, Frame frame) {
+      this.command = command;
+      this.frame = frame;
+    }
+
+    void complete(String response) {
+      future.complete(response);
+    }
+
+    void fail(Throwable error) {
+      future.completeExceptionally(error);
+    }
+  }
+}
@@ -0,0 +1,407 @@
+package client;
+
+import common.LatencyHistogram;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for capacity planning. Requests are sent on a fixed schedule,
+ * spread evenly over many connections, whether or not earlier requests have been answered.
+ * Each latency is measured from the time the request was scheduled to be sent, not from
+ * when it was actually sent, so a stalled server shows up as latency instead of quietly
+ * lowering the request rate (coordinated omission).
+ *
+ * <p>Usage: {@code java client.LoadGenerator <ServerIP> <Port#> <TCP/UDP> [--option=value ...]}
+ * with the options:
+ * <ul>
+ *   <li>{@code --rate} (default 1000): requests per second, across all connections.</li>
+ *   <li>{@code --connections} (default 16): TCP connections or UDP sockets.</li>
+ *   <li>{@code --duration-s} (default 30) and {@code --warmup-s} (default 5): how long to
+ *       send, and how much of the start to leave out of the results.</li>
+ *   <li>{@code --keys} (default 100000): keys are chosen uniformly from this many.</li>
+ *   <li>{@code --value-size} (default 100): PUT value length, fixed ({@code 100}) or
+ *       uniform over a range ({@code 16-512}).</li>
+ *   <li>{@code --mix} (default 90:9:1): GET:PUT:DELETE proportions.</li>
+ *   <li>{@code --timeout-ms} (default 5000): how long to wait for the last responses.</li>
+ * </ul>
+ */
+public class LoadGenerator {
+  private static final int UDP_WINDOW = 1 << 16;
+  private static final long UNANSWERED = Long.MIN_VALUE;
+
+  private final String host;
+  private final int port;
+  private final boolean udp;
+  private final long rate;
+  private final int connections;
+  private final long durationNanos;
+  private final long warmupNanos;
+  private final long timeoutNanos;
+  private final int keyCount;
+  private final int minValueSize;
+  private final int maxValueSize;
+  private final int getPercent;
+  private final int putPercent;
+  private final String valueChars;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private long warmupEndNanos;
+
+  /**
+   * Constructs a load generator.
+   *
+   * @param host The server's address.
+   * @param port The server's port.
+   * @param udp True for UDP, false for TCP.
+   * @param options The --name=value options, by name.
+   */
+  public LoadGenerator(String host, int port, boolean udp, Map<String, String> options) {
+    this.host = host;
+    this.port = port;
+    this.udp = udp;
+    this.rate = Long.parseLong(options.getOrDefault("rate", "1000"));
+    this.connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+    this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration-s", "30")));
+    this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup-s", "5")));
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("timeout-ms", "5000")));
+    this.keyCount = Integer.parseInt(options.getOrDefault("keys", "100000"));
+
+    String[] sizes = options.getOrDefault("value-size", "100").split("-");
+    this.minValueSize = Integer.parseInt(sizes[0]);
+    this.maxValueSize = Integer.parseInt(sizes[sizes.length - 1]);
+    String[] mix = options.getOrDefault("mix", "90:9:1").split(":");
+    if (mix.length != 3) {
+      throw new IllegalArgumentException("mix must be GET:PUT:DELETE, e.g. 90:9:1");
+    }
+    int gets = Integer.parseInt(mix[0]);
+    int puts = Integer.parseInt(mix[1]);
+    int total = gets + puts + Integer.parseInt(mix[2]);
+    if (rate <= 0 || connections <= 0 || keyCount <= 0 || total <= 0
+        || minValueSize <= 0 || maxValueSize < minValueSize || warmupNanos >= durationNanos) {
+      throw new IllegalArgumentException("Invalid load generator options: " + options);
+    }
+    // Percentages of a roll in [0, 100)
+    this.getPercent = gets * 100 / total;
+    this.putPercent = (gets + puts) * 100 / total;
+    this.valueChars = "v".repeat(maxValueSize);
+  }
+
+  /**
+   * Runs the load generator.
+   *
+   * @param args Command-line arguments: <ServerIP> <Port#> <TCP/UDP> [--option=value ...]
+   */
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.err.println("Usage: java client.LoadGenerator <ServerIP> <Port#> <TCP/UDP> [--option=value ...]");
+      System.exit(1);
+    }
+    Map<String, String> options = new HashMap<>();
+    for (int i = 3; i < args.length; i++) {
+      int separator = args[i].indexOf('=');
+      if (!args[i].startsWith("--") || separator < 3) {
+        System.err.println("Invalid option: " + args[i]);
+        System.exit(1);
+      }
+      options.put(args[i].substring(2, separator).toLowerCase(), args[i].substring(separator + 1));
+    }
+
+    String protocol = args[2].toUpperCase();
+    if (!protocol.equals("TCP") && !protocol.equals("UDP")) {
+      System.err.println("Invalid protocol. Please enter either 'TCP' or 'UDP'.");
+      System.exit(1);
+    }
+    LoadGenerator generator =
+        new LoadGenerator(args[0], Integer.parseInt(args[1]), protocol.equals("UDP"), options);
+    try {
+      generator.run();
+    } catch (IOException | InterruptedException e) {
+      System.err.println("Load generator failed: " + e.getMessage());
+      System.exit(1);
+    }
+    generator.report(System.out);
+  }
+
+  /**
+   * Sends the configured load and waits for the responses.
+   *
+   * @throws IOException If a connection cannot be opened.
+   * @throws InterruptedException If interrupted while waiting for the connections.
+   */
+  public void run() throws IOException, InterruptedException {
+    long intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) * connections / rate);
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+    warmupEndNanos = start + warmupNanos;
+
+    List<Connection> open = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      // Stagger the connections so their requests interleave instead of arriving in bursts
+      long first = start + intervalNanos * i / connections;
+      open.add(udp ? new UdpConnection(first, intervalNanos) : new TcpConnection(first, intervalNanos));
+    }
+    List<Thread> threads = new ArrayList<>();
+    for (Connection connection : open) {
+      threads.add(Thread.ofPlatform().daemon().name("load-sender").start(connection::send));
+      threads.add(Thread.ofPlatform().daemon().name("load-receiver").start(connection::receive));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  /**
+   * Prints the achieved throughput and the latency percentiles, excluding the warm-up.
+   *
+   * @param out The stream to print to.
+   */
+  public void report(PrintStream out) {
+    double measuredSeconds = (durationNanos - warmupNanos) / 1e9;
+    long lost = sent.sum() - completed.sum();
+    out.printf("Target rate:  %d req/s over %d %s connections%n", rate, connections, udp ? "UDP" : "TCP");
+    out.printf("Requests:     %d sent, %d answered, %d errors, %d unanswered%n",
+        sent.sum(), completed.sum(), errors.sum(), lost);
+    out.printf("Throughput:   %.1f req/s answered after warm-up%n", latencies.count() / measuredSeconds);
+    out.printf("Latency (ms): p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  mean %.3f%n",
+        millis(latencies.percentile(50)), millis(latencies.percentile(90)),
+        millis(latencies.percentile(99)), millis(latencies.percentile(99.9)),
+        millis(latencies.max()), latencies.mean() / 1e6);
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * Builds the next request of the configured mix.
+   *
+   * @param random The connection's random source.
+   * @return The text command.
+   */
+  private String nextRequest(SplittableRandom random) {
+    String key = "key" + random.nextInt(keyCount);
+    int roll = random.nextInt(100);
+    if (roll < getPercent) {
+      return "GET " + key;
+    }
+    if (roll < putPercent) {
+      int size = minValueSize + random.nextInt(maxValueSize - minValueSize + 1);
+      return "PUT " + key + " " + valueChars.substring(0, size);
+    }
+    return "DELETE " + key;
+  }
+
+  /**
+   * Records a response to a request scheduled for the given time.
+   *
+   * @param scheduledNanos When the request was scheduled to be sent.
+   * @param response The response text.
+   */
+  private void recordResponse(long scheduledNanos, String response) {
+    long now = System.nanoTime();
+    completed.increment();
+    if (response.startsWith("ERROR")) {
+      errors.increment();
+    }
+    if (scheduledNanos - warmupEndNanos >= 0) {
+      latencies.record(now - scheduledNanos);
+    }
+  }
+
+  /**
+   * One connection's sender and receiver. The sender keeps to the schedule, falling behind
+   * only when the socket blocks; the receiver matches responses to schedule times.
+   */
+  private abstract class Connection {
+    final SplittableRandom random = new SplittableRandom();
+    final long firstNanos;
+    final long intervalNanos;
+    final AtomicLong answered = new AtomicLong();
+
+    Connection(long firstNanos, long intervalNanos) {
+      this.firstNanos = firstNanos;
+      this.intervalNanos = intervalNanos;
+    }
+
+    void send() {
+      long end = firstNanos + durationNanos;
+      long count = 0;
+      try {
+        for (long scheduled = firstNanos; scheduled - end < 0; scheduled += intervalNanos) {
+          long wait;
+          while ((wait = scheduled - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+          }
+          sendRequest(scheduled, nextRequest(random));
+          sent.increment();
+          count++;
+        }
+      } catch (IOException e) {
+        System.err.println("Send failed: " + e.getMessage());
+      }
+      // Give the receiver until the timeout to collect the last responses
+      long deadline = System.nanoTime() + timeoutNanos;
+      while (answered.get() < count && System.nanoTime() - deadline < 0) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      close();
+    }
+
+    abstract void sendRequest(long scheduledNanos, String request) throws IOException;
+
+    void receive() {
+      while (receiveOne()) {
+        // Next response
+      }
+    }
+
+    /**
+     * Reads and records one response.
+     *
+     * @return False once the connection is closed.
+     */
+    abstract boolean receiveOne();
+
+    abstract void close();
+  }
+
+  /**
+   * A TCP connection. Responses arrive in request order, so schedule times are queued.
+   */
+  private final class TcpConnection extends Connection {
+    private final Socket socket;
+    private final OutputStream out;
+    private final BufferedReader in;
+    private final ConcurrentLinkedQueue<Long> scheduled = new ConcurrentLinkedQueue<>();
+
+    TcpConnection(long firstNanos, long intervalNanos) throws IOException {
+      super(firstNanos, intervalNanos);
+      socket = new Socket(host, port);
+      socket.setTcpNoDelay(true);
+      out = socket.getOutputStream();
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    void sendRequest(long scheduledNanos, String request) throws IOException {
+      scheduled.add(scheduledNanos);
+      out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+
+    @Override
+    boolean receiveOne() {
+      try {
+        String response = in.readLine();
+        if (response == null) {
+          return false;
+        }
+        recordResponse(scheduled.remove(), response);
+        answered.incrementAndGet();
+        return true;
+      } catch (IOException e) {
+        // Closed by the sender after the timeout; the rest are unanswered
+        return false;
+      }
+    }
+
+    @Override
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Already closed
+      }
+    }
+  }
+
+  /**
+   * A UDP socket. Requests are tagged {@code #<id>} so responses, which may be lost or
+   * reordered, are matched by id; lost requests are not retried, only counted.
+   */
+  private final class UdpConnection extends Connection {
+    private final DatagramChannel channel;
+    private final AtomicLongArray scheduled = new AtomicLongArray(UDP_WINDOW);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(65507);
+    private final ByteBuffer input = ByteBuffer.allocateDirect(65507);
+    private final byte[] responseBytes = new byte[65507];
+    private long nextId;
+
+    UdpConnection(long firstNanos, long intervalNanos) throws IOException {
+      super(firstNanos, intervalNanos);
+      channel = DatagramChannel.open();
+      channel.connect(new InetSocketAddress(host, port));
+      for (int i = 0; i < UDP_WINDOW; i++) {
+        scheduled.set(i, UNANSWERED);
+      }
+    }
+
+    @Override
+    void sendRequest(long scheduledNanos, String request) throws IOException {
+      long id = nextId++;
+      scheduled.set((int) (id & (UDP_WINDOW - 1)), scheduledNanos);
+      output.clear();
+      output.put(("#" + id + " " + request).getBytes(StandardCharsets.UTF_8)).flip();
+      channel.write(output);
+    }
+
+    @Override
+    boolean receiveOne() {
+      try {
+        input.clear();
+        channel.read(input);
+      } catch (IOException e) {
+        // Closed by the sender after the timeout; the rest are unanswered
+        return false;
+      }
+      input.flip();
+      int length = input.remaining();
+      input.get(responseBytes, 0, length);
+      int space = 1;
+      long id = 0;
+      while (space < length && responseBytes[space] != ' ') {
+        id = id * 10 + (responseBytes[space++] - '0');
+      }
+      if (length == 0 || responseBytes[0] != '#' || space == 1) {
+        return true;
+      }
+      // getAndSet ignores duplicates of an already answered request
+      long scheduledNanos = scheduled.getAndSet((int) (id & (UDP_WINDOW - 1)), UNANSWERED);
+      if (scheduledNanos != UNANSWERED) {
+        recordResponse(scheduledNanos,
+            new String(responseBytes, space + 1, length - space - 1, StandardCharsets.UTF_8));
+        answered.incrementAndGet();
+      }
+      return true;
+    }
+
+    @Override
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Already closed
+      }
+    }
+  }
+}
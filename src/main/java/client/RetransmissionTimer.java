@@ -0,0 +1,55 @@
+package client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how long to wait for a UDP response before sending the request again.
+ *
+ * <p>The base timeout follows the TCP estimator (RFC 6298): a smoothed round-trip time
+ * plus four times its mean deviation, clamped to [{@link #MIN_TIMEOUT_MS},
+ * {@link #MAX_TIMEOUT_MS}]. Each retransmission of the same request doubles the timeout,
+ * and every timeout is jittered by +/-25% so clients that lost packets together do not
+ * retry together. Only requests answered on their first transmission are sampled (Karn's
+ * rule), because a retried request's response cannot be matched to one transmission.
+ */
+final class RetransmissionTimer {
+  /** Timeout before the first round-trip sample. */
+  static final long INITIAL_TIMEOUT_MS = 200;
+  static final long MIN_TIMEOUT_MS = 10;
+  static final long MAX_TIMEOUT_MS = 2000;
+
+  private double smoothedRttMillis = -1;
+  private double rttDeviationMillis;
+  private long timeoutMillis = INITIAL_TIMEOUT_MS;
+
+  /**
+   * Returns how long to wait for a response to the given transmission.
+   *
+   * @param attempt 0 for the first transmission, 1 for the first retransmission, and so on.
+   * @return The timeout in milliseconds, at least 1.
+   */
+  long timeoutMillis(int attempt) {
+    long backoff = timeoutMillis << Math.min(attempt, 16);
+    double jitter = 0.75 + ThreadLocalRandom.current().nextDouble() * 0.5;
+    return Math.max(1, Math.round(Math.min(backoff, MAX_TIMEOUT_MS) * jitter));
+  }
+
+  /**
+   * Records the round-trip time of a request answered on its first transmission.
+   *
+   * @param rttNanos The time from sending the request to receiving its response.
+   */
+  void recordSample(long rttNanos) {
+    double rtt = rttNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    if (smoothedRttMillis < 0) {
+      smoothedRttMillis = rtt;
+      rttDeviationMillis = rtt / 2;
+    } else {
+      rttDeviationMillis = 0.75 * rttDeviationMillis + 0.25 * Math.abs(smoothedRttMillis - rtt);
+      smoothedRttMillis = 0.875 * smoothedRttMillis + 0.125 * rtt;
+    }
+    long timeout = (long) Math.ceil(smoothedRttMillis + 4 * rttDeviationMillis);
+    timeoutMillis = Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+  }
+}
@@ -2,17 +2,23 @@ package client;
 
 import common.Logger;
 import java.io.*;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * TCP client that connects to a server, performs key-value operations, and logs interactions.
+ * Speaks either the text protocol or, for PUT/GET/DELETE, the binary protocol. Requests go
+ * through a {@link KeyValueClient} with a single connection.
  */
 public class TCPClient implements ClientInterface {
   private final String serverAddress;
   private final int port;
+  private final boolean binary;
   private final Logger logger;
-  private Socket socket;
+  private KeyValueClient client;
 
   /**
    * Constructs a TCP client with the given server address and port.
@@ -21,8 +27,20 @@ public class TCPClient implements ClientInterface {
    * @param port The server's port number.
    */
   public TCPClient(String serverAddress, int port) {
+    this(serverAddress, port, false);
+  }
+
+  /**
+   * Constructs a TCP client with the given server address, port and protocol.
+   *
+   * @param serverAddress The server's IP address.
+   * @param port The server's port number.
+   * @param binary True to use the binary protocol instead of text.
+   */
+  public TCPClient(String serverAddress, int port, boolean binary) {
     this.serverAddress = serverAddress;
     this.port = port;
+    this.binary = binary;
     this.logger = new Logger("TCPClientLog.log");
   }
 
@@ -32,21 +50,16 @@ public class TCPClient implements ClientInterface {
   @Override
   public void execute() {
     try {
-      socket = new Socket(serverAddress, port);
-      socket.setSoTimeout(5000); // Set timeout of 5 seconds
-
-      logger.log("INFO", "Connected to TCP server at " + serverAddress + ":" + port);
+      connect();
       System.out.println("Connected to TCP server.");
 
-      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
       BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
 
       // Pre-populate key-value store
-      prePopulate(out, in);
+      prePopulate();
 
       // Execute the 15 required commands
-      performFifteenOperations(out, in);
+      performFifteenOperations();
 
       String request;
       while (true) {
@@ -56,7 +69,7 @@ public class TCPClient implements ClientInterface {
           break;
         }
 
-        sendAndReceive(request, out, in);
+        sendAndReceive(request);
       }
 
     } catch (IOException e) {
@@ -66,22 +79,68 @@ public class TCPClient implements ClientInterface {
     }
   }
 
+  /**
+   * Opens the connection to the server.
+   *
+   * @throws IOException If the connection cannot be established.
+   */
+  public void connect() throws IOException {
+    // One connection keeps the interactive session's requests in order; 5 second timeout
+    client = KeyValueClient.connectTcp(serverAddress, port,
+        new ClientOptions().setConnections(1).setBinary(binary));
+    logger.log("INFO", "Connected to TCP server at " + serverAddress + ":" + port);
+  }
+
+  /**
+   * Sends requests without waiting for each response, keeping up to windowSize of them
+   * in flight.
+   *
+   * @param requests The commands to send, in order.
+   * @param windowSize The maximum number of requests awaiting a response.
+   * @return The responses, in request order.
+   * @throws IOException If a request fails or times out.
+   * @throws IllegalArgumentException If a command has no binary equivalent in binary mode.
+   */
+  public List<String> sendPipelined(List<String> requests, int windowSize) throws IOException {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+    }
+    List<CompletableFuture<String>> pending = new ArrayList<>(requests.size());
+    List<String> responses = new ArrayList<>(requests.size());
+    for (String request : requests) {
+      if (pending.size() - responses.size() == windowSize) {
+        responses.add(ClientUtils.await(pending.get(responses.size())));
+      }
+      pending.add(client.execute(request));
+    }
+    while (responses.size() < pending.size()) {
+      responses.add(ClientUtils.await(pending.get(responses.size())));
+    }
+    return responses;
+  }
+
   /**
    * Pre-populates the key-value store with predefined data.
    *
-   * @param out PrintWriter for sending commands to the server.
-   * @param in BufferedReader for receiving responses from the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void prePopulate(PrintWriter out, BufferedReader in) throws IOException {
+  private void prePopulate() throws IOException {
     String[] prePopulatedData = {
         "PUT apple 100", "PUT banana 200", "PUT cherry 300",
         "PUT mango 400", "PUT orange 500"
     };
 
     System.out.println("Pre-populating key-value store...");
-    for (String command : prePopulatedData) {
-      sendAndReceive(command, out, in);
+    List<String> commands = Arrays.asList(prePopulatedData);
+    try {
+      List<String> responses = sendPipelined(commands, commands.size());
+      for (int i = 0; i < commands.size(); i++) {
+        System.out.println("Response: " + responses.get(i));
+        logger.log("INFO", "Sent request: " + commands.get(i) + " | Received response: " + responses.get(i));
+      }
+    } catch (SocketTimeoutException e) {
+      logger.log("WARNING", "Server response timed out during pre-population");
+      System.out.println("No response from server. Moving to next command.");
     }
     System.out.println("Pre-population completed.");
   }
@@ -89,11 +148,9 @@ public class TCPClient implements ClientInterface {
   /**
    * Executes 15 operations (5 PUTs, 5 GETs, 5 DELETEs) on the key-value store.
    *
-   * @param out PrintWriter for sending commands to the server.
-   * @param in BufferedReader for receiving responses from the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void performFifteenOperations(PrintWriter out, BufferedReader in) throws IOException {
+  private void performFifteenOperations() throws IOException {
     String[] putCommands = {
         "PUT kiwi 600", "PUT grape 700", "PUT watermelon 800",
         "PUT strawberry 900", "PUT blueberry 1000"
@@ -110,19 +167,19 @@ public class TCPClient implements ClientInterface {
     // Execute 5 PUTs
     System.out.println("Performing 5 additional PUT commands...");
     for (String command : putCommands) {
-      sendAndReceive(command, out, in);
+      sendAndReceive(command);
     }
 
     // Execute 5 GETs
     System.out.println("Performing 5 GET commands...");
     for (String command : getCommands) {
-      sendAndReceive(command, out, in);
+      sendAndReceive(command);
     }
 
     // Execute 5 DELETEs
     System.out.println("Performing 5 DELETE commands...");
     for (String command : deleteCommands) {
-      sendAndReceive(command, out, in);
+      sendAndReceive(command);
     }
   }
 
@@ -130,18 +187,18 @@ public class TCPClient implements ClientInterface {
    * Helper method to send a request to the server and receive a response.
    *
    * @param request The command to send to the server.
-   * @param out PrintWriter for sending commands to the server.
-   * @param in BufferedReader for receiving responses from the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void sendAndReceive(String request, PrintWriter out, BufferedReader in) throws IOException {
-    out.println(request);
+  private void sendAndReceive(String request) throws IOException {
+    CompletableFuture<String> pending;
     try {
-      String response = in.readLine();
-      if (response == null) {
-        logger.log("ERROR", "Server closed the connection.");
-        return;
-      }
+      pending = client.execute(request);
+    } catch (IllegalArgumentException e) {
+      System.out.println("Response: ERROR: Command not supported by the binary protocol");
+      return;
+    }
+    try {
+      String response = ClientUtils.await(pending);
       System.out.println("Response: " + response);
       logger.log("INFO", "Sent request: " + request + " | Received response: " + response);
     } catch (SocketTimeoutException e) {
@@ -155,14 +212,10 @@ public class TCPClient implements ClientInterface {
    */
   @Override
   public void shutdown() {
-    try {
-      if (socket != null && !socket.isClosed()) {
-        socket.close();
-      }
-      logger.close();
-    } catch (IOException e) {
-      logger.log("ERROR", "Error closing client socket: " + e.getMessage());
+    if (client != null) {
+      client.close();
     }
+    logger.close();
     System.out.println("TCP Client closed.");
   }
 }
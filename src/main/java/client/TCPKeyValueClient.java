@@ -0,0 +1,303 @@
+package client;
+
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link KeyValueClient} over a pool of TCP connections. Requests are assigned to the
+ * connections in turn. Each connection has a writer thread, which sends everything queued
+ * for it in one flush, and a reader thread, which completes requests in the order they
+ * were written, as the server answers them.
+ *
+ * <p>A health check runs every {@link ClientOptions#getHealthCheckIntervalMillis()}. It
+ * closes a connection whose oldest request has gone unanswered for the request timeout,
+ * since everything behind it is stuck too, and reopens closed connections, backing off
+ * from {@link #MIN_RECONNECT_DELAY_MS} to {@link #MAX_RECONNECT_DELAY_MS} while the
+ * server is unreachable. Requests are sent on the open connections meanwhile.
+ */
+final class TCPKeyValueClient extends KeyValueClient {
+  static final long MIN_RECONNECT_DELAY_MS = 100;
+  static final long MAX_RECONNECT_DELAY_MS = 5000;
+  private static final int BUFFER_SIZE = 8192;
+
+  private final InetSocketAddress address;
+  private final Connection[] connections;
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * Opens the connections.
+   *
+   * @param host The server's address.
+   * @param port The server's port.
+   * @param options The client settings.
+   * @throws IOException If a connection cannot be opened.
+   */
+  TCPKeyValueClient(String host, int port, ClientOptions options) throws IOException {
+    super(options);
+    this.address = new InetSocketAddress(host, port);
+    this.connections = new Connection[options.getConnections()];
+    try {
+      for (int i = 0; i < connections.length; i++) {
+        connections[i] = new Connection(i);
+        connections[i].open();
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    long interval = options.getHealthCheckIntervalMillis();
+    scheduler.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  void send(Request request) {
+    int start = nextConnection.getAndIncrement();
+    for (int i = 0; i < connections.length; i++) {
+      if (connections[Math.floorMod(start + i, connections.length)].offer(request)) {
+        return;
+      }
+    }
+    request.fail(new IOException("Not connected to " + address));
+  }
+
+  @Override
+  void closeTransport() {
+    for (Connection connection : connections) {
+      if (connection != null) {
+        connection.close(new IOException("Client is closed"));
+      }
+    }
+  }
+
+  private void checkHealth() {
+    long now = System.nanoTime();
+    for (Connection connection : connections) {
+      connection.check(now);
+    }
+  }
+
+  /**
+   * One pooled connection, reopened by the health check after it fails.
+   */
+  private final class Connection {
+    private final int index;
+    private volatile Session session;
+    private long reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+    private long nextAttemptNanos = System.nanoTime();
+
+    Connection(int index) {
+      this.index = index;
+    }
+
+    void open() throws IOException {
+      session = new Session(index);
+    }
+
+    /**
+     * Queues a request on the open session.
+     *
+     * @return False if the connection is down.
+     */
+    boolean offer(Request request) {
+      Session current = session;
+      return current != null && current.offer(request);
+    }
+
+    void close(IOException cause) {
+      Session current = session;
+      if (current != null) {
+        current.close(cause);
+      }
+    }
+
+    /**
+     * Closes a stalled session or reopens a closed one. Runs on the scheduler thread only.
+     */
+    void check(long now) {
+      Session current = session;
+      if (current != null && !current.closed.get()) {
+        Request oldest = current.inFlight.peek();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(options.getRequestTimeoutMillis());
+        if (oldest != null && now - oldest.sentNanos > timeout) {
+          current.close(new IOException("No response from " + address + " for "
+              + options.getRequestTimeoutMillis() + " ms"));
+        }
+        return;
+      }
+      if (isClosed() || now - nextAttemptNanos < 0) {
+        return;
+      }
+      try {
+        open();
+        reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+      } catch (IOException e) {
+        session = null;
+        nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(reconnectDelayMillis);
+        reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MS);
+      }
+    }
+  }
+
+  /**
+   * One socket with its writer and reader threads. Requests are moved from the outgoing
+   * queue to the in-flight queue as they are written, so the in-flight queue is in the
+   * order the server answers.
+   */
+  private final class Session {
+    private final Socket socket;
+    private final BlockingQueue<Request> outgoing = new LinkedBlockingQueue<>();
+    private final Queue<Request> inFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final Thread writer;
+
+    Session(int index) throws IOException {
+      socket = new Socket();
+      try {
+        socket.connect(address, (int) Math.min(Integer.MAX_VALUE, options.getRequestTimeoutMillis()));
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+      } catch (IOException e) {
+        socket.close();
+        throw e;
+      }
+      writer = Thread.ofPlatform().daemon().name("kv-client-writer-" + index).start(this::write);
+      Thread.ofPlatform().daemon().name("kv-client-reader-" + index).start(this::read);
+    }
+
+    /**
+     * Queues a request for the writer.
+     *
+     * @return False if the session is closed and the request was not taken.
+     */
+    boolean offer(Request request) {
+      if (closed.get()) {
+        return false;
+      }
+      outgoing.add(request);
+      // close() may have drained the queue before the add; take the request back if so
+      return !closed.get() || !outgoing.remove(request);
+    }
+
+    private void write() {
+      try {
+        DataOutputStream binaryOut = null;
+        Writer textOut = null;
+        BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        if (options.isBinary()) {
+          binaryOut = new DataOutputStream(out);
+          binaryOut.writeByte(BinaryProtocol.MAGIC);
+        } else {
+          textOut = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+        while (!closed.get()) {
+          Request request = outgoing.take();
+          do {
+            // Requests that timed out while queued are not sent
+            if (request.future.isDone()) {
+              continue;
+            }
+            request.sentNanos = System.nanoTime();
+            inFlight.add(request);
+            if (binaryOut != null) {
+              request.frame.writeRequest(binaryOut);
+            } else {
+              textOut.write(request.command);
+              textOut.write('\n');
+            }
+          } while ((request = outgoing.poll()) != null);
+          if (binaryOut != null) {
+            binaryOut.flush();
+          } else {
+            textOut.flush();
+          }
+        }
+      } catch (IOException e) {
+        close(e);
+      } catch (InterruptedException e) {
+        // Closed
+      } finally {
+        // A request taken just as the session closed would otherwise be left waiting
+        failQueued(new IOException("Connection to " + address + " closed"));
+      }
+    }
+
+    private void read() {
+      try {
+        if (options.isBinary()) {
+          DataInputStream in = new DataInputStream(
+              new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+          Frame response = new Frame();
+          while (true) {
+            response.readResponse(in);
+            Request request = nextInFlight();
+            request.complete(ClientUtils.describeBinaryResponse(request.frame.getType(), response));
+          }
+        }
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+        String line;
+        while ((line = in.readLine()) != null) {
+          nextInFlight().complete(line);
+        }
+        close(new EOFException("Server closed the connection"));
+      } catch (IOException e) {
+        close(e);
+      }
+    }
+
+    private Request nextInFlight() throws IOException {
+      Request request = inFlight.poll();
+      if (request == null) {
+        throw new IOException("Response without a request");
+      }
+      return request;
+    }
+
+    /**
+     * Closes the socket and fails every request queued or in flight on it.
+     */
+    void close(IOException cause) {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Already closed
+      }
+      writer.interrupt();
+      failQueued(new IOException("Connection to " + address + " failed", cause));
+    }
+
+    private void failQueued(IOException error) {
+      Request request;
+      while ((request = inFlight.poll()) != null) {
+        request.fail(error);
+      }
+      while ((request = outgoing.poll()) != null) {
+        request.fail(error);
+      }
+    }
+  }
+}
@@ -2,17 +2,27 @@ package client;
 
 import common.Logger;
 import java.io.IOException;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * UDP client that connects to a server, performs key-value operations, and logs interactions.
+ * Speaks either the text protocol or, for PUT/GET/DELETE, the binary protocol.
+ *
+ * <p>Text requests are tagged {@code #<id> <command>} and answered {@code #<id> <response>};
+ * binary frames carry the id in their header. Lost requests or responses are retransmitted
+ * with the same id after a timeout adapted to the measured round-trip time. Requests go
+ * through a {@link KeyValueClient}.
  */
 public class UDPClient implements ClientInterface {
+  /** How long a request is retransmitted before it is given up. */
+  public static final long REQUEST_TIMEOUT_MS = ClientOptions.DEFAULT_REQUEST_TIMEOUT_MS;
+
   private final String serverAddress;
   private final int port;
+  private final boolean binary;
   private final Logger logger;
-  private DatagramSocket socket;
+  private UDPKeyValueClient client;
 
   /**
    * Constructs a UDP client with the given server address and port.
@@ -21,8 +31,20 @@ public class UDPClient implements ClientInterface {
    * @param port The server's port number.
    */
   public UDPClient(String serverAddress, int port) {
+    this(serverAddress, port, false);
+  }
+
+  /**
+   * Constructs a UDP client with the given server address, port and protocol.
+   *
+   * @param serverAddress The server's IP address.
+   * @param port The server's port number.
+   * @param binary True to use the binary protocol instead of text.
+   */
+  public UDPClient(String serverAddress, int port, boolean binary) {
     this.serverAddress = serverAddress;
     this.port = port;
+    this.binary = binary;
     this.logger = new Logger("UDPClientLog.log");
   }
 
@@ -32,18 +54,14 @@ public class UDPClient implements ClientInterface {
   @Override
   public void execute() {
     try {
-      socket = new DatagramSocket();
-      socket.setSoTimeout(5000); // Set timeout of 5 seconds
-      InetAddress address = InetAddress.getByName(serverAddress);
-
+      connect();
       System.out.println("Connected to UDP server.");
-      logger.log("INFO", "Connected to UDP server at " + serverAddress + ":" + port);
 
       // Pre-populate key-value store
-      prePopulate(socket, address);
+      prePopulate();
 
       // Execute the 15 required commands
-      performFifteenOperations(socket, address);
+      performFifteenOperations();
 
       while (true) {
         System.out.print("Enter command (PUT/GET/DELETE or 'quit' to exit): ");
@@ -52,7 +70,7 @@ public class UDPClient implements ClientInterface {
           break;
         }
 
-        sendAndReceive(request, socket, address);
+        sendAndReceive(request);
       }
 
     } catch (IOException e) {
@@ -62,14 +80,23 @@ public class UDPClient implements ClientInterface {
     }
   }
 
+  /**
+   * Opens the client socket and resolves the server address.
+   *
+   * @throws IOException If the socket cannot be opened or the address resolved.
+   */
+  public void connect() throws IOException {
+    client = new UDPKeyValueClient(serverAddress, port,
+        new ClientOptions().setBinary(binary).setRequestTimeoutMillis(REQUEST_TIMEOUT_MS));
+    logger.log("INFO", "Connected to UDP server at " + serverAddress + ":" + port);
+  }
+
   /**
    * Pre-populates the key-value store with predefined data.
    *
-   * @param socket DatagramSocket used for communication.
-   * @param address InetAddress of the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void prePopulate(DatagramSocket socket, InetAddress address) throws IOException {
+  private void prePopulate() throws IOException {
     String[] prePopulatedData = {
         "PUT lion 101", "PUT tiger 202", "PUT elephant 303",
         "PUT giraffe 404", "PUT zebra 505"
@@ -77,7 +104,7 @@ public class UDPClient implements ClientInterface {
 
     System.out.println("Pre-populating key-value store...");
     for (String command : prePopulatedData) {
-      sendAndReceive(command, socket, address);
+      sendAndReceive(command);
     }
     System.out.println("Pre-population completed.");
   }
@@ -85,11 +112,9 @@ public class UDPClient implements ClientInterface {
   /**
    * Executes 15 operations (5 PUTs, 5 GETs, 5 DELETEs) on the key-value store.
    *
-   * @param socket DatagramSocket used for communication.
-   * @param address InetAddress of the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void performFifteenOperations(DatagramSocket socket, InetAddress address) throws IOException {
+  private void performFifteenOperations() throws IOException {
     String[] putCommands = {
         "PUT kangaroo 606", "PUT panda 707", "PUT cheetah 808",
         "PUT dolphin 909", "PUT penguin 1010"
@@ -106,55 +131,83 @@ public class UDPClient implements ClientInterface {
     // Execute 5 PUTs
     System.out.println("Performing 5 additional PUT commands...");
     for (String command : putCommands) {
-      sendAndReceive(command, socket, address);
+      sendAndReceive(command);
     }
 
     // Execute 5 GETs
     System.out.println("Performing 5 GET commands...");
     for (String command : getCommands) {
-      sendAndReceive(command, socket, address);
+      sendAndReceive(command);
     }
 
     // Execute 5 DELETEs
     System.out.println("Performing 5 DELETE commands...");
     for (String command : deleteCommands) {
-      sendAndReceive(command, socket, address);
+      sendAndReceive(command);
     }
   }
 
   /**
-   * Sends a request to the server and receives a response using UDP.
+   * Sends a request to the server and logs the response.
    *
    * @param request The command to send to the server.
-   * @param socket DatagramSocket used for communication.
-   * @param address InetAddress of the server.
    * @throws IOException If an I/O error occurs.
    */
-  private void sendAndReceive(String request, DatagramSocket socket, InetAddress address) throws IOException {
-    byte[] buffer = request.getBytes(StandardCharsets.UTF_8);
-    DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, port);
-    socket.send(packet);
-
-    buffer = new byte[1024];
-    DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
+  private void sendAndReceive(String request) throws IOException {
+    String response;
     try {
-      socket.receive(responsePacket);
-
-      String response = new String(responsePacket.getData(), 0, responsePacket.getLength());
-      logger.log("INFO", "Sent request: " + request + " | Received response: " + response);
-    } catch (SocketTimeoutException e) {
+      response = send(request);
+    } catch (IllegalArgumentException e) {
+      System.out.println("Response: ERROR: Command not supported by the binary protocol");
+      return;
+    }
+    if (response == null) {
       logger.log("WARNING", "Server response timed out for request: " + request);
       System.out.println("No response from server. Moving to next command.");
+      return;
+    }
+    if (binary) {
+      System.out.println("Response: " + response);
+    }
+    logger.log("INFO", "Sent request: " + request + " | Received response: " + response);
+  }
+
+  /**
+   * Sends a request and waits for its response, retransmitting it until a response arrives
+   * or {@link #REQUEST_TIMEOUT_MS} passes. Every request carries an id, so the server
+   * answers retransmissions of a PUT or DELETE it already applied from its response cache,
+   * and late responses to earlier requests are recognized and skipped.
+   *
+   * @param request The command to send.
+   * @return The response, or null if none arrived in time.
+   * @throws IOException If an I/O error occurs.
+   * @throws IllegalArgumentException If the command has no binary equivalent in binary mode.
+   */
+  public String send(String request) throws IOException {
+    CompletableFuture<String> response = client.execute(request);
+    try {
+      return ClientUtils.await(response);
+    } catch (SocketTimeoutException e) {
+      return null;
     }
   }
 
+  /**
+   * Returns the number of requests sent again because no response arrived in time.
+   *
+   * @return The retransmission count.
+   */
+  public long retransmissions() {
+    return client.retransmissions();
+  }
+
   /**
    * Shuts down the client and closes the connection to the server.
    */
   @Override
   public void shutdown() {
-    if (socket != null && !socket.isClosed()) {
-      socket.close();
+    if (client != null) {
+      client.close();
     }
     logger.close();
     System.out.println("UDP Client closed.");
@@ -0,0 +1,275 @@
+package client;
+
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link KeyValueClient} over one UDP socket. Every request is tagged with an id, as
+ * {@code #<id> <command>} or in the binary frame header, and outstanding requests are kept
+ * by id; a receiver thread completes them as responses arrive, in any order. A request
+ * without a response is sent again after a {@link RetransmissionTimer} timeout, on the
+ * scheduler thread, until the request timeout. The server answers retransmitted requests
+ * from its response cache, which holds a response for each of a client's last
+ * {@code --udp-cache-entries} ids. Ids are handed out in order, and a new id waits until
+ * the request {@link ClientOptions#getUdpWindow()} ids before it has finished, so every
+ * outstanding id is within the window of the newest one. As long as the window is no
+ * larger than the server's cache, a retransmitted PUT or DELETE is not applied twice.
+ *
+ * <p>Untagged error responses, which the server sends for requests it cannot read an id
+ * from, cannot be matched to a request; those requests time out.
+ */
+final class UDPKeyValueClient extends KeyValueClient {
+  private static final int MAX_DATAGRAM_SIZE = 65507;
+  // Absorbs bursts of responses to many outstanding requests, as on the server
+  private static final int RECEIVE_BUFFER_SIZE = 4 << 20;
+
+  private final DatagramChannel channel;
+  private final Map<Long, Request> outstanding = new ConcurrentHashMap<>();
+  // Shared by all requests; guarded by itself
+  private final RetransmissionTimer timer = new RetransmissionTimer();
+  private final ReentrantLock windowLock = new ReentrantLock();
+  private final Condition slotFreed = windowLock.newCondition();
+  // Guarded by windowLock: whether the request with each id modulo the window is
+  // outstanding, and the next id. A random start keeps a restarted client on a reused
+  // port clear of its old cached ids
+  private final boolean[] busySlots;
+  private long nextRequestId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+  private final LongAdder retransmissions = new LongAdder();
+
+  /**
+   * Opens the socket and starts the receiver thread.
+   *
+   * @param host The server's address.
+   * @param port The server's port.
+   * @param options The client settings.
+   * @throws IOException If the socket cannot be opened.
+   */
+  UDPKeyValueClient(String host, int port, ClientOptions options) throws IOException {
+    super(options);
+    busySlots = new boolean[options.getUdpWindow()];
+    try {
+      channel = DatagramChannel.open();
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+      channel.connect(new InetSocketAddress(host, port));
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    Thread.ofPlatform().daemon().name("kv-client-receiver").start(this::receive);
+  }
+
+  /**
+   * Returns the number of requests sent again because no response arrived in time.
+   *
+   * @return The retransmission count.
+   */
+  long retransmissions() {
+    return retransmissions.sum();
+  }
+
+  @Override
+  void send(Request request) {
+    long id;
+    try {
+      id = claimId(request.frame != null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      request.fail(e);
+      return;
+    }
+    if (id < 0) {
+      request.fail(new RejectedExecutionException("Too many outstanding requests"));
+      return;
+    }
+    int slot = (int) (id % busySlots.length);
+    request.future.whenComplete((response, error) -> releaseSlot(slot));
+    ByteBuffer datagram;
+    if (request.frame != null) {
+      ClientUtils.toBinaryRequest(request.command, (int) id, request.frame);
+      // Magic byte, opcode, id and the two lengths
+      datagram = ByteBuffer.allocate(14 + request.frame.getKeyLength()
+          + request.frame.getValueLength());
+      datagram.put(BinaryProtocol.MAGIC);
+      request.frame.writeRequest(datagram);
+      datagram.flip();
+      id &= 0xffffffffL;
+    } else {
+      datagram = ByteBuffer.wrap(("#" + id + " " + request.command).getBytes(StandardCharsets.UTF_8));
+    }
+    long key = id;
+    outstanding.put(key, request);
+    request.future.whenComplete((response, error) -> outstanding.remove(key, request));
+    transmit(request, datagram, 0);
+  }
+
+  /**
+   * Takes the next id, first waiting, for at most the request timeout, until the request
+   * a window's length of ids before it has finished. Ids are taken strictly in order.
+   *
+   * @param binary True to skip ids whose low 32 bits are 0, which asks the server not to
+   *     cache the response of a binary request.
+   * @return The id, or -1 if its slot did not free up in time.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  private long claimId(boolean binary) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getRequestTimeoutMillis());
+    windowLock.lock();
+    try {
+      while (true) {
+        long id = nextRequestId;
+        if (binary && (int) id == 0) {
+          nextRequestId = id + 1;
+          continue;
+        }
+        int slot = (int) (id % busySlots.length);
+        if (!busySlots[slot]) {
+          busySlots[slot] = true;
+          nextRequestId = id + 1;
+          return id;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return -1;
+        }
+        slotFreed.awaitNanos(remaining);
+      }
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  private void releaseSlot(int slot) {
+    windowLock.lock();
+    try {
+      busySlots[slot] = false;
+      // Waiters all want the slot of the next id, which need not be this one
+      slotFreed.signalAll();
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  /**
+   * Sends a request and schedules its retransmission.
+   *
+   * @param attempt 0 for the first transmission.
+   */
+  private void transmit(Request request, ByteBuffer datagram, int attempt) {
+    if (request.future.isDone()) {
+      return;
+    }
+    if (attempt > 0) {
+      retransmissions.increment();
+    }
+    request.attempt = attempt;
+    request.sentNanos = System.nanoTime();
+    try {
+      channel.write(datagram.duplicate());
+    } catch (ClosedChannelException e) {
+      request.fail(new IOException("Client is closed", e));
+      return;
+    } catch (IOException e) {
+      // Treated as a lost datagram
+    }
+    long timeout;
+    synchronized (timer) {
+      timeout = timer.timeoutMillis(attempt);
+    }
+    try {
+      scheduler.schedule(() -> transmit(request, datagram, attempt + 1), timeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      request.fail(new IOException("Client is closed", e));
+    }
+  }
+
+  private void receive() {
+    ByteBuffer input = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    Frame frame = new Frame();
+    while (true) {
+      input.clear();
+      try {
+        channel.read(input);
+      } catch (PortUnreachableException e) {
+        // Nothing listening yet; requests are retransmitted until they time out
+        continue;
+      } catch (IOException e) {
+        return;
+      }
+      input.flip();
+      long receivedNanos = System.nanoTime();
+      if (options.isBinary()) {
+        try {
+          frame.readResponse(input);
+        } catch (ProtocolException e) {
+          continue;
+        }
+        Request request = outstanding.remove(frame.getRequestId() & 0xffffffffL);
+        if (request != null) {
+          sample(request, receivedNanos);
+          request.complete(ClientUtils.describeBinaryResponse(request.frame.getType(), frame));
+        }
+        continue;
+      }
+      byte[] data = input.array();
+      int length = input.limit();
+      int space = 1;
+      long id = 0;
+      while (space < length && data[space] != ' ' && space <= 19) {
+        id = id * 10 + (data[space++] - '0');
+      }
+      if (length == 0 || data[0] != '#' || space == 1 || space == length || data[space] != ' ') {
+        continue;
+      }
+      // Late duplicates of an answered request find nothing
+      Request request = outstanding.remove(id);
+      if (request != null) {
+        sample(request, receivedNanos);
+        request.complete(new String(data, space + 1, length - space - 1, StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  /**
+   * Feeds the round-trip time of a request answered on its first transmission to the
+   * timer, following Karn's rule.
+   */
+  private void sample(Request request, long receivedNanos) {
+    if (request.attempt == 0) {
+      synchronized (timer) {
+        timer.recordSample(receivedNanos - request.sentNanos);
+      }
+    }
+  }
+
+  @Override
+  void closeTransport() {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // Already closed
+    }
+    IOException error = new IOException("Client is closed");
+    for (Request request : outstanding.values()) {
+      request.fail(error);
+    }
+  }
+}
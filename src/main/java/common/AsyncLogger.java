@@ -0,0 +1,236 @@
+package common;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs to a file and the console from a background thread. Callers only enqueue a record
+ * into a bounded ring buffer; the writer thread formats records in batches, writes each
+ * batch with one buffered write and one flush, and prints it to the console in one call.
+ */
+public class AsyncLogger implements LoggerInterface {
+  /** What log() does when the buffer is full. */
+  public enum OverflowPolicy {
+    /** Discard the record and count it; the count is logged once space frees up. */
+    DROP,
+    /** Wait for the writer thread to make room. */
+    BLOCK
+  }
+
+  private static final DateTimeFormatter SECOND_FORMAT =
+      DateTimeFormatter.ofPattern("MM-dd-yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+  private static final int MAX_BATCH = 1024;
+  private static final long CLOSE_TIMEOUT_MS = 5000;
+
+  private final BlockingQueue<Record> buffer;
+  private final OverflowPolicy overflowPolicy;
+  private final int minimumSeverity;
+  private final boolean console;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writerThread;
+  private Writer fileWriter;
+  private volatile boolean closed;
+
+  // Writer-thread state: the formatted "MM-dd-yyyy HH:mm:ss" of the last second seen
+  private long cachedSecond = Long.MIN_VALUE;
+  private String cachedSecondText;
+
+  /**
+   * A log call captured on the caller's thread and formatted later.
+   */
+  private static final class Record {
+    private final long timeMillis;
+    private final String level;
+    private final String message;
+
+    Record(long timeMillis, String level, String message) {
+      this.timeMillis = timeMillis;
+      this.level = level;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Constructs an asynchronous logger that appends to the log file.
+   *
+   * @param logFileName The name of the log file.
+   * @param minimumLevel The lowest level written (e.g., INFO, WARNING, ERROR).
+   * @param capacity The number of records the buffer holds.
+   * @param overflowPolicy What to do when the buffer is full.
+   * @param console True to also print records to the console.
+   */
+  public AsyncLogger(String logFileName, String minimumLevel, int capacity,
+      OverflowPolicy overflowPolicy, boolean console) {
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+    this.overflowPolicy = overflowPolicy;
+    this.minimumSeverity = severity(minimumLevel);
+    this.console = console;
+    try {
+      this.fileWriter = new BufferedWriter(new FileWriter(logFileName, true), 64 * 1024);
+    } catch (IOException e) {
+      System.err.println("Logger Initialization Failed: " + e.getMessage());
+    }
+    this.writerThread = new Thread(this::drain, "async-logger");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  @Override
+  public boolean isLoggable(String level) {
+    return severity(level) >= minimumSeverity;
+  }
+
+  /**
+   * Queues a message for the writer thread. Never performs I/O on the caller's thread.
+   *
+   * @param level The log level (e.g., INFO, ERROR).
+   * @param message The message to be logged.
+   */
+  @Override
+  public void log(String level, String message) {
+    if (closed || !isLoggable(level)) {
+      return;
+    }
+    Record record = new Record(System.currentTimeMillis(), level, message);
+    if (overflowPolicy == OverflowPolicy.BLOCK) {
+      try {
+        buffer.put(record);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (!buffer.offer(record)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stops accepting records and waits for the writer thread to write everything queued and
+   * close the log file. If it has not finished within five seconds, it is interrupted,
+   * drops the records still queued once its current batch is written, and closes the file
+   * itself.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writerThread.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writerThread.isAlive()) {
+      writerThread.interrupt();
+    }
+  }
+
+  /**
+   * Writer-thread loop: waits for records, then writes everything available as one batch.
+   * Closes the log file on exit, so the file is never closed while a batch is being written.
+   */
+  private void drain() {
+    List<Record> batch = new ArrayList<>(MAX_BATCH);
+    StringBuilder text = new StringBuilder(MAX_BATCH * 96);
+    try {
+      while (true) {
+        Record first;
+        try {
+          first = buffer.poll(100, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // close() gave up waiting for the queue to drain
+          return;
+        }
+        if (first == null) {
+          if (closed && buffer.isEmpty()) {
+            return;
+          }
+          continue;
+        }
+
+        batch.add(first);
+        buffer.drainTo(batch, MAX_BATCH - 1);
+        long droppedCount = dropped.getAndSet(0);
+        if (droppedCount > 0) {
+          batch.add(new Record(first.timeMillis, "WARNING", droppedCount + " log records dropped"));
+        }
+        for (Record record : batch) {
+          format(record, text);
+        }
+        write(text);
+        batch.clear();
+        text.setLength(0);
+      }
+    } finally {
+      closeFile();
+    }
+  }
+
+  private void closeFile() {
+    try {
+      if (fileWriter != null) {
+        fileWriter.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to close logger: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends a record in the same layout as {@link Logger}.
+   */
+  private void format(Record record, StringBuilder text) {
+    long second = record.timeMillis / 1000;
+    if (second != cachedSecond) {
+      cachedSecond = second;
+      cachedSecondText = SECOND_FORMAT.format(Instant.ofEpochSecond(second));
+    }
+    int millis = (int) (record.timeMillis % 1000);
+    text.append(cachedSecondText).append('.');
+    if (millis < 100) text.append('0');
+    if (millis < 10) text.append('0');
+    text.append(millis).append(" [").append(record.level).append("] - ")
+        .append(record.message).append(System.lineSeparator());
+  }
+
+  private void write(StringBuilder text) {
+    try {
+      if (fileWriter != null) {
+        fileWriter.append(text);
+        fileWriter.flush();
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to log message: " + e.getMessage());
+    }
+    if (console) {
+      System.out.print(text);
+    }
+  }
+
+  /**
+   * Orders the levels used in this project; unknown levels rank with INFO.
+   */
+  private static int severity(String level) {
+    switch (level.toUpperCase()) {
+      case "DEBUG":
+        return 0;
+      case "WARNING":
+        return 2;
+      case "ERROR":
+        return 3;
+      default:
+        return 1;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+package common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact length-prefixed binary protocol, offered alongside the text protocol.
+ *
+ * <p>A TCP client selects it by sending {@link #MAGIC} as the first byte of the connection;
+ * a UDP client starts every datagram with it. Frames are big-endian:
+ * <pre>
+ *   request:  opcode(1) requestId(4) keyLength(4) key valueLength(4) value
+ *   response: status(1) requestId(4) valueLength(4) value
+ * </pre>
+ * Keys and values are raw bytes, so values may contain newlines or any other byte. The
+ * server stores each byte as one char (ISO-8859-1), which round-trips arbitrary bytes;
+ * ASCII data reads the same through both protocols.
+ */
+public final class BinaryProtocol {
+  /** First byte of a binary connection or datagram; never the start of a text command. */
+  public static final byte MAGIC = (byte) 0xB7;
+
+  public static final byte OP_PUT = 1;
+  public static final byte OP_GET = 2;
+  public static final byte OP_DELETE = 3;
+
+  public static final byte STATUS_OK = 0;
+  public static final byte STATUS_NOT_FOUND = 1;
+  public static final byte STATUS_ERROR = 2;
+
+  /** Largest key accepted, in bytes. */
+  public static final int MAX_KEY_LENGTH = 64 * 1024;
+  /** Largest value accepted, in bytes. */
+  public static final int MAX_VALUE_LENGTH = 16 * 1024 * 1024;
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * A request or response frame whose key and value arrays are reused across reads,
+   * so decoding allocates nothing once the arrays have grown to the working size.
+   * For responses, {@code type} holds the status and the key is unused.
+   */
+  public static final class Frame {
+    private byte type;
+    private int requestId;
+    private byte[] key = new byte[64];
+    private int keyLength;
+    private byte[] value = new byte[256];
+    private int valueLength;
+
+    /**
+     * Returns the opcode or status.
+     *
+     * @return The opcode of a request or the status of a response.
+     */
+    public byte getType() {
+      return type;
+    }
+
+    /**
+     * Returns the request id.
+     *
+     * @return The request id.
+     */
+    public int getRequestId() {
+      return requestId;
+    }
+
+    /**
+     * Returns the key length.
+     *
+     * @return The key length in bytes.
+     */
+    public int getKeyLength() {
+      return keyLength;
+    }
+
+    /**
+     * Returns the value length.
+     *
+     * @return The value length in bytes.
+     */
+    public int getValueLength() {
+      return valueLength;
+    }
+
+    /**
+     * Sets the frame header and clears the key and value.
+     *
+     * @param type The opcode or status.
+     * @param requestId The id echoed back in the response.
+     * @return This frame.
+     */
+    public Frame reset(byte type, int requestId) {
+      this.type = type;
+      this.requestId = requestId;
+      this.keyLength = 0;
+      this.valueLength = 0;
+      return this;
+    }
+
+    /**
+     * Copies raw key bytes into the frame.
+     *
+     * @param bytes The key bytes.
+     * @return This frame.
+     */
+    public Frame setKey(byte[] bytes) {
+      key = ensureCapacity(key, bytes.length);
+      System.arraycopy(bytes, 0, key, 0, bytes.length);
+      keyLength = bytes.length;
+      return this;
+    }
+
+    /**
+     * Copies raw value bytes into the frame.
+     *
+     * @param bytes The value bytes.
+     * @return This frame.
+     */
+    public Frame setValue(byte[] bytes) {
+      value = ensureCapacity(value, bytes.length);
+      System.arraycopy(bytes, 0, value, 0, bytes.length);
+      valueLength = bytes.length;
+      return this;
+    }
+
+    /**
+     * Stores a string value one byte per char, without allocating. Strings with chars
+     * above U+00FF, which only the text protocol can produce, are sent as UTF-8 instead.
+     *
+     * @param text The value.
+     * @return This frame.
+     */
+    public Frame setValue(String text) {
+      int length = text.length();
+      value = ensureCapacity(value, length);
+      for (int i = 0; i < length; i++) {
+        char c = text.charAt(i);
+        if (c > 0xFF) {
+          return setValue(text.getBytes(StandardCharsets.UTF_8));
+        }
+        value[i] = (byte) c;
+      }
+      valueLength = length;
+      return this;
+    }
+
+    /**
+     * Returns the key as a string with one char per byte.
+     *
+     * @return The key.
+     */
+    public String keyAsString() {
+      return new String(key, 0, keyLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the value as a string with one char per byte.
+     *
+     * @return The value.
+     */
+    public String valueAsString() {
+      return new String(value, 0, valueLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns a copy of the value bytes.
+     *
+     * @return The value.
+     */
+    public byte[] valueBytes() {
+      return Arrays.copyOf(value, valueLength);
+    }
+
+    /**
+     * Reads a request frame from a stream.
+     *
+     * @param in The stream to read from.
+     * @return False if the stream ended cleanly before the frame started.
+     * @throws IOException If the frame is truncated, oversized or cannot be read.
+     */
+    public boolean readRequest(DataInput in) throws IOException {
+      try {
+        type = in.readByte();
+      } catch (EOFException e) {
+        return false;
+      }
+      requestId = in.readInt();
+      keyLength = readLength(in.readInt(), MAX_KEY_LENGTH);
+      key = ensureCapacity(key, keyLength);
+      in.readFully(key, 0, keyLength);
+      valueLength = readLength(in.readInt(), MAX_VALUE_LENGTH);
+      value = ensureCapacity(value, valueLength);
+      in.readFully(value, 0, valueLength);
+      return true;
+    }
+
+    /**
+     * Reads a request frame from a buffer holding exactly one frame.
+     *
+     * @param in The buffer to read from.
+     * @throws ProtocolException If the frame is truncated or oversized.
+     */
+    public void readRequest(ByteBuffer in) throws ProtocolException {
+      try {
+        type = in.get();
+        requestId = in.getInt();
+        keyLength = readLength(in.getInt(), MAX_KEY_LENGTH);
+        key = ensureCapacity(key, keyLength);
+        in.get(key, 0, keyLength);
+        valueLength = readLength(in.getInt(), MAX_VALUE_LENGTH);
+        value = ensureCapacity(value, valueLength);
+        in.get(value, 0, valueLength);
+      } catch (BufferUnderflowException e) {
+        throw new ProtocolException("Truncated binary frame");
+      }
+    }
+
+    /**
+     * Reads a response frame from a stream.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the frame is truncated, oversized or cannot be read.
+     */
+    public void readResponse(DataInput in) throws IOException {
+      type = in.readByte();
+      requestId = in.readInt();
+      keyLength = 0;
+      valueLength = readLength(in.readInt(), MAX_VALUE_LENGTH);
+      value = ensureCapacity(value, valueLength);
+      in.readFully(value, 0, valueLength);
+    }
+
+    /**
+     * Reads a response frame from a buffer holding exactly one frame.
+     *
+     * @param in The buffer to read from.
+     * @throws ProtocolException If the frame is truncated or oversized.
+     */
+    public void readResponse(ByteBuffer in) throws ProtocolException {
+      try {
+        type = in.get();
+        requestId = in.getInt();
+        keyLength = 0;
+        valueLength = readLength(in.getInt(), MAX_VALUE_LENGTH);
+        value = ensureCapacity(value, valueLength);
+        in.get(value, 0, valueLength);
+      } catch (BufferUnderflowException e) {
+        throw new ProtocolException("Truncated binary frame");
+      }
+    }
+
+    /**
+     * Writes this frame as a request.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void writeRequest(DataOutput out) throws IOException {
+      out.writeByte(type);
+      out.writeInt(requestId);
+      out.writeInt(keyLength);
+      out.write(key, 0, keyLength);
+      out.writeInt(valueLength);
+      out.write(value, 0, valueLength);
+    }
+
+    /**
+     * Writes this frame as a request.
+     *
+     * @param out The buffer to write to.
+     */
+    public void writeRequest(ByteBuffer out) {
+      out.put(type).putInt(requestId)
+          .putInt(keyLength).put(key, 0, keyLength)
+          .putInt(valueLength).put(value, 0, valueLength);
+    }
+
+    /**
+     * Writes this frame as a response.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void writeResponse(DataOutput out) throws IOException {
+      out.writeByte(type);
+      out.writeInt(requestId);
+      out.writeInt(valueLength);
+      out.write(value, 0, valueLength);
+    }
+
+    /**
+     * Writes this frame as a response.
+     *
+     * @param out The buffer to write to.
+     */
+    public void writeResponse(ByteBuffer out) {
+      out.put(type).putInt(requestId).putInt(valueLength).put(value, 0, valueLength);
+    }
+
+    private static int readLength(int length, int max) throws ProtocolException {
+      if (length < 0 || length > max) {
+        throw new ProtocolException("Invalid binary frame length: " + length);
+      }
+      return length;
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int length) {
+      return array.length >= length ? array : new byte[Math.max(length, array.length * 2)];
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative values, in the style of HdrHistogram. Values below
+ * 256 are counted exactly; above that, each power of two is split into 128 equal buckets,
+ * so a reported percentile is within 1% of the recorded value it stands for. Recording is
+ * thread-safe and allocation-free, and the whole range of {@code long} fits in 7,424 buckets.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+  private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one value; negative values are recorded as 0.
+   *
+   * @param value The value, e.g. a latency in nanoseconds.
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(bucketOf(value));
+    count.increment();
+    sum.add(value);
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // Another thread raised the maximum; compare again
+    }
+  }
+
+  /**
+   * Adds every value recorded in another histogram to this one.
+   *
+   * @param other The histogram to add.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long n = other.counts.get(i);
+      if (n != 0) {
+        counts.addAndGet(i, n);
+      }
+    }
+    count.add(other.count());
+    sum.add(other.sum.sum());
+    max.accumulateAndGet(other.max(), Math::max);
+  }
+
+  /**
+   * Returns the number of recorded values.
+   *
+   * @return The count.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the largest recorded value, exactly.
+   *
+   * @return The maximum, or 0 if nothing was recorded.
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values.
+   *
+   * @return The mean, or 0 if nothing was recorded.
+   */
+  public double mean() {
+    long n = count();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * Returns the value at a percentile: the highest value that falls in the same bucket as
+   * the recorded value at that rank, capped at the maximum.
+   *
+   * @param percentile The percentile, from 0 to 100.
+   * @return The value, or 0 if nothing was recorded.
+   */
+  public long percentile(double percentile) {
+    long total = count();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueIn(i), max());
+      }
+    }
+    return max();
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // value has 64 - nlz significant bits; keep the top SUB_BUCKET_BITS - 1 after the leading 1
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int top = (int) (value >>> shift);
+    return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (top - HALF_BUCKETS);
+  }
+
+  private static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int offset = bucket - SUB_BUCKETS;
+    int shift = offset / HALF_BUCKETS + 1;
+    long top = offset % HALF_BUCKETS + HALF_BUCKETS;
+    return (top << shift) + (1L << shift) - 1;
+  }
+}
@@ -13,6 +13,17 @@ public interface LoggerInterface {
    */
   void log(String level, String message);
 
+  /**
+   * Tells whether messages at the given level are written, so callers on hot paths can
+   * skip building messages that would be discarded.
+   *
+   * @param level The log level (e.g., INFO, ERROR).
+   * @return True if the level is enabled.
+   */
+  default boolean isLoggable(String level) {
+    return true;
+  }
+
   /**
    * Closes the logger.
    */
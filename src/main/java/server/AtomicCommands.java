@@ -0,0 +1,149 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Executes the atomic read-modify-write commands. Each is one {@link KeyValueStore#update},
+ * so no other write to the key comes between its read and its write, and writers to other
+ * keys are not held up:
+ * <ul>
+ *   <li>{@code INCR key [delta]} and {@code DECR key [delta]} add to or subtract from a
+ *       decimal 64-bit integer, starting a missing key at 0, and answer
+ *       {@code INCR_SUCCESS: <new value>};</li>
+ *   <li>{@code APPEND key value} appends to the value, creating the key if it is missing,
+ *       and answers {@code APPEND_SUCCESS: <new length>};</li>
+ *   <li>{@code PUTIFABSENT key value} stores the value only if the key is missing;</li>
+ *   <li>{@code CAS key expected value} stores the value only if the key holds
+ *       {@code expected}, a single token; {@code CAS key {n} expected value} takes
+ *       {@code expected} as the n UTF-8 bytes after the space that follows {@code {n}}, so
+ *       it may contain spaces.</li>
+ * </ul>
+ * CAS compares values, not versions: a key changed and then set back to {@code expected}
+ * in between still matches, so it does not detect intervening writes. Values lose leading
+ * and trailing whitespace, as in PUT, and keys keep their expiry.
+ */
+final class AtomicCommands {
+  private AtomicCommands() {
+  }
+
+  /**
+   * Adds to the number stored at a key, for "INCR key [delta]" and "DECR key [delta]".
+   *
+   * @param store The store to update.
+   * @param key The key.
+   * @param argument The delta, or null for 1.
+   * @param decrement True for DECR, which subtracts the delta.
+   * @return The response.
+   */
+  static String increment(KeyValueStore store, String key, String argument, boolean decrement) {
+    String command = decrement ? "DECR" : "INCR";
+    long delta;
+    try {
+      delta = argument == null ? 1 : Long.parseLong(argument);
+      if (decrement) {
+        delta = Math.negateExact(delta);
+      }
+    } catch (NumberFormatException | ArithmeticException e) {
+      return "ERROR: Invalid " + command + " command";
+    }
+    long addend = delta;
+    long[] result = new long[1];
+    try {
+      store.update(key, value -> {
+        result[0] = Math.addExact(value == null ? 0 : Long.parseLong(value), addend);
+        return Long.toString(result[0]);
+      });
+    } catch (NumberFormatException e) {
+      return command + "_FAILURE: Value is not an integer";
+    } catch (ArithmeticException e) {
+      return command + "_FAILURE: Value would overflow";
+    }
+    return command + "_SUCCESS: " + result[0];
+  }
+
+  /**
+   * Appends to the value of a key, for "APPEND key value".
+   *
+   * @param store The store to update.
+   * @param key The key.
+   * @param suffix The text to append.
+   * @return The response.
+   */
+  static String append(KeyValueStore store, String key, String suffix) {
+    int[] length = new int[1];
+    store.update(key, value -> {
+      String appended = value == null ? suffix : value.concat(suffix);
+      length[0] = appended.length();
+      return appended;
+    });
+    return "APPEND_SUCCESS: " + length[0];
+  }
+
+  /**
+   * Stores a value only if its key is missing, for "PUTIFABSENT key value".
+   *
+   * @param store The store to update.
+   * @param key The key.
+   * @param value The value.
+   * @return The response.
+   */
+  static String putIfAbsent(KeyValueStore store, String key, String value) {
+    String previous = store.update(key, current -> current == null ? value : current);
+    return previous == null ? "PUTIFABSENT_SUCCESS" : "PUTIFABSENT_FAILURE: Key exists";
+  }
+
+  /**
+   * Replaces a value only if the key holds the expected one, for "CAS key expected value"
+   * and "CAS key {n} expected value".
+   *
+   * @param store The store to update.
+   * @param key The key.
+   * @param arguments The expected value, optionally preceded by its length in braces,
+   *     whitespace and the new value.
+   * @return The response.
+   */
+  static String compareAndSet(KeyValueStore store, String key, String arguments) {
+    int lengthEnd = literalLengthEnd(arguments);
+    String[] parts = lengthEnd < 0
+        ? arguments.split("\\s+", 2) : splitLiteral(arguments, lengthEnd);
+    if (parts == null || parts.length != 2) return "ERROR: Invalid CAS command";
+    String expected = parts[0];
+    String previous = store.update(key, current -> expected.equals(current) ? parts[1] : current);
+    return outcome("CAS", previous, expected.equals(previous));
+  }
+
+  /**
+   * Returns the index of the closing brace if the arguments start with "{n} ", where n is
+   * one to nine digits, or -1 for the single-token form.
+   */
+  private static int literalLengthEnd(String arguments) {
+    if (!arguments.startsWith("{")) return -1;
+    int close = arguments.indexOf("} ");
+    if (close < 2 || close > 10) return -1;
+    for (int i = 1; i < close; i++) {
+      char c = arguments.charAt(i);
+      if (c < '0' || c > '9') return -1;
+    }
+    return close;
+  }
+
+  /**
+   * Splits "{n} expected value" into the n-byte expected value and the new value.
+   *
+   * @return The two parts, or null if the expected value is cut short or no value follows.
+   */
+  private static String[] splitLiteral(String arguments, int lengthEnd) {
+    int length = Integer.parseInt(arguments, 1, lengthEnd, 10);
+    byte[] rest = arguments.substring(lengthEnd + 2).getBytes(StandardCharsets.UTF_8);
+    if (length >= rest.length || (rest[length] & 0xff) > ' ') return null;
+    String value = new String(rest, length, rest.length - length, StandardCharsets.UTF_8).trim();
+    if (value.isEmpty()) return null;
+    return new String[] {new String(rest, 0, length, StandardCharsets.UTF_8), value};
+  }
+
+  private static String outcome(String command, String previous, boolean replaced) {
+    if (replaced) return command + "_SUCCESS";
+    return previous == null
+        ? command + "_FAILURE: Key not found" : command + "_FAILURE: Value changed";
+  }
+}
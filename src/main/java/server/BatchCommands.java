@@ -0,0 +1,136 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes the multi-key commands MGET, MPUT and MDELETE and formats their responses.
+ *
+ * <p>Responses list one outcome per distinct key after a summary, for example
+ * {@code MGET_SUCCESS: 1 of 2 found | apple=3:100 kiwi=NOT_FOUND}. Found values are
+ * prefixed with their length in characters so values containing spaces stay unambiguous.
+ * When the response would exceed the transport's size limit, trailing outcomes are
+ * replaced by {@code | TRUNCATED: n keys omitted}; the command itself is still applied
+ * to every key.
+ */
+final class BatchCommands {
+  /** Bytes kept free for the summary and truncation notice. */
+  private static final int RESERVED_BYTES = 64;
+
+  private BatchCommands() {
+  }
+
+  /**
+   * Looks up every key of an "MGET k1 k2 ..." request.
+   *
+   * @param store The store to read from.
+   * @param request The full request line.
+   * @param maxResponseBytes The largest response the transport can deliver.
+   * @return The response.
+   */
+  static String mget(KeyValueStore store, String request, int maxResponseBytes) {
+    List<String> keys = arguments(request);
+    if (keys.isEmpty()) return "ERROR: Invalid MGET command";
+
+    Map<String, String> values = store.getAll(keys);
+    List<String> outcomes = new ArrayList<>(values.size());
+    int found = 0;
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      String value = entry.getValue();
+      if (value != null) {
+        found++;
+        outcomes.add(entry.getKey() + "=" + value.length() + ":" + value);
+      } else {
+        outcomes.add(entry.getKey() + "=NOT_FOUND");
+      }
+    }
+    return format("MGET_SUCCESS: " + found + " of " + values.size() + " found", outcomes,
+        maxResponseBytes);
+  }
+
+  /**
+   * Stores every pair of an "MPUT k1 v1 k2 v2 ..." request. Values cannot contain
+   * whitespace here; use PUT for those.
+   *
+   * @param store The store to write to.
+   * @param request The full request line.
+   * @param maxResponseBytes The largest response the transport can deliver.
+   * @return The response.
+   */
+  static String mput(KeyValueStore store, String request, int maxResponseBytes) {
+    List<String> arguments = arguments(request);
+    if (arguments.isEmpty() || arguments.size() % 2 != 0) return "ERROR: Invalid MPUT command";
+
+    Map<String, String> entries = new LinkedHashMap<>();
+    for (int i = 0; i < arguments.size(); i += 2) {
+      entries.put(arguments.get(i), arguments.get(i + 1));
+    }
+    store.putAll(entries);
+    return format("MPUT_SUCCESS: " + entries.size() + " stored", List.of(), maxResponseBytes);
+  }
+
+  /**
+   * Removes every key of an "MDELETE k1 k2 ..." request.
+   *
+   * @param store The store to delete from.
+   * @param request The full request line.
+   * @param maxResponseBytes The largest response the transport can deliver.
+   * @return The response.
+   */
+  static String mdelete(KeyValueStore store, String request, int maxResponseBytes) {
+    List<String> keys = arguments(request);
+    if (keys.isEmpty()) return "ERROR: Invalid MDELETE command";
+
+    Map<String, String> removed = store.deleteAll(keys);
+    List<String> outcomes = new ArrayList<>(removed.size());
+    int deleted = 0;
+    for (Map.Entry<String, String> entry : removed.entrySet()) {
+      if (entry.getValue() != null) {
+        deleted++;
+        outcomes.add(entry.getKey() + "=DELETED");
+      } else {
+        outcomes.add(entry.getKey() + "=NOT_FOUND");
+      }
+    }
+    return format("MDELETE_SUCCESS: " + deleted + " of " + removed.size() + " deleted", outcomes,
+        maxResponseBytes);
+  }
+
+  /**
+   * Returns the whitespace-separated arguments following the command word.
+   */
+  private static List<String> arguments(String request) {
+    String[] tokens = request.trim().split("\\s+");
+    return Arrays.asList(tokens).subList(1, tokens.length);
+  }
+
+  /**
+   * Joins the summary and per-key outcomes, dropping outcomes that do not fit.
+   */
+  private static String format(String summary, List<String> outcomes, int maxResponseBytes) {
+    StringBuilder response = new StringBuilder(summary);
+    int budget = maxResponseBytes - RESERVED_BYTES - utf8Length(summary);
+    int included = 0;
+    for (String outcome : outcomes) {
+      int length = utf8Length(outcome) + (included == 0 ? 3 : 1);
+      if (length > budget) {
+        break;
+      }
+      response.append(included == 0 ? " | " : " ").append(outcome);
+      budget -= length;
+      included++;
+    }
+    if (included < outcomes.size()) {
+      response.append(" | TRUNCATED: ").append(outcomes.size() - included).append(" keys omitted");
+    }
+    return response.toString();
+  }
+
+  private static int utf8Length(String text) {
+    return text.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
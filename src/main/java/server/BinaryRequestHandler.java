@@ -0,0 +1,76 @@
+package server;
+
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
+import common.LoggerInterface;
+
+/**
+ * Executes binary-protocol requests against a key-value store and records them in the
+ * server's metrics. The response is written into a caller-owned frame, so a connection
+ * reuses the same two frames for every request.
+ */
+class BinaryRequestHandler {
+  private final KeyValueStore store;
+  private final LoggerInterface logger;
+  private final ServerMetrics metrics;
+
+  /**
+   * Constructs a binary request handler.
+   *
+   * @param store The key-value store to operate on.
+   * @param logger The logger for errors.
+   * @param metrics The metrics that record each request.
+   */
+  BinaryRequestHandler(KeyValueStore store, LoggerInterface logger, ServerMetrics metrics) {
+    this.store = store;
+    this.logger = logger;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Processes a request frame and fills in the response frame.
+   *
+   * @param request The decoded request.
+   * @param response The frame to write the response into.
+   * @param clientAddress The address of the client.
+   */
+  void handleRequest(Frame request, Frame response, String clientAddress) {
+    long start = metrics.startTimer();
+    int requestId = request.getRequestId();
+    int command = ServerMetrics.OTHER;
+    int error = ServerMetrics.NO_ERROR;
+    try {
+      switch (request.getType()) {
+        case BinaryProtocol.OP_PUT:
+          command = ServerMetrics.PUT;
+          store.put(request.keyAsString(), request.valueAsString());
+          response.reset(BinaryProtocol.STATUS_OK, requestId);
+          break;
+        case BinaryProtocol.OP_GET:
+          command = ServerMetrics.GET;
+          String value = store.get(request.keyAsString());
+          if (value != null) {
+            response.reset(BinaryProtocol.STATUS_OK, requestId).setValue(value);
+          } else {
+            response.reset(BinaryProtocol.STATUS_NOT_FOUND, requestId);
+          }
+          break;
+        case BinaryProtocol.OP_DELETE:
+          command = ServerMetrics.DELETE;
+          String removed = store.delete(request.keyAsString());
+          response.reset(removed != null ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_NOT_FOUND,
+              requestId);
+          break;
+        default:
+          error = ServerMetrics.UNKNOWN_COMMAND;
+          response.reset(BinaryProtocol.STATUS_ERROR, requestId).setValue("Unknown opcode");
+      }
+    } catch (Exception e) {
+      logger.log("ERROR", "Error handling binary request from " + clientAddress + ": " + e.getMessage());
+      error = ServerMetrics.INTERNAL;
+      response.reset(BinaryProtocol.STATUS_ERROR, requestId)
+          .setValue("Exception occurred while processing request");
+    }
+    metrics.record(command, start, error);
+  }
+}
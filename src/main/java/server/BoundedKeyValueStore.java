@@ -0,0 +1,343 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that keeps the wrapped store within a memory budget, evicting keys chosen by
+ * an {@link EvictionPolicy} once the estimated size of its entries exceeds the budget.
+ *
+ * <p>Each key has an {@link Entry} recording its estimated size and last access time.
+ * Entries are found through a concurrent map and are also kept in per-stripe lists, one
+ * per region, from which eviction samples candidates. Writes update the lists under the
+ * key's stripe lock; reads only stamp the entry's access time and tell the policy, so
+ * {@code get} takes no lock at all. Writers that push the store over budget evict on
+ * their own thread, without a global eviction lock.
+ */
+public class BoundedKeyValueStore implements KeyValueStore {
+  /** Region for keys on probation (used by {@link TinyLfuPolicy}). */
+  static final int WINDOW = 0;
+  /** Region for established keys. */
+  static final int MAIN = 1;
+
+  /**
+   * Estimated heap bytes of one entry beyond its characters: map node, two strings with
+   * their arrays, and this store's own bookkeeping.
+   */
+  static final int ENTRY_OVERHEAD = 160;
+  private static final int STRIPES = 64;
+
+  private final KeyValueStore store;
+  private final long maxBytes;
+  private final EvictionPolicy policy;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicLong[] regionBytes = {new AtomicLong(), new AtomicLong()};
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Bookkeeping for one key.
+   */
+  static final class Entry {
+    final String key;
+    private long size;
+    private volatile long lastAccess;
+    private int region;
+    private int index;
+
+    Entry(String key, long size, int region) {
+      this.key = key;
+      this.size = size;
+      this.region = region;
+    }
+  }
+
+  /**
+   * The entries of one lock stripe, one list per region. Removal swaps the last entry
+   * into the gap, so every list operation is O(1).
+   */
+  private static final class Stripe {
+    private final List<List<Entry>> regions = List.of(new ArrayList<>(), new ArrayList<>());
+
+    void add(Entry entry) {
+      List<Entry> list = regions.get(entry.region);
+      entry.index = list.size();
+      list.add(entry);
+    }
+
+    void remove(Entry entry) {
+      List<Entry> list = regions.get(entry.region);
+      Entry last = list.remove(list.size() - 1);
+      if (last != entry) {
+        last.index = entry.index;
+        list.set(entry.index, last);
+      }
+    }
+  }
+
+  /**
+   * Constructs a bounded view of a store.
+   *
+   * @param store The store to bound; it should start empty.
+   * @param maxBytes The memory budget in estimated bytes.
+   * @param policy Chooses the keys to evict.
+   */
+  BoundedKeyValueStore(KeyValueStore store, long maxBytes, EvictionPolicy policy) {
+    this.store = store;
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Bounds a store by the "max-memory" option (e.g. 512m), evicting with the policy named
+   * by the "eviction" option.
+   *
+   * @param store The store to bound.
+   * @param config The server configuration.
+   * @return The bounded store.
+   */
+  public static BoundedKeyValueStore create(KeyValueStore store, ServerConfig config) {
+    long maxBytes = config.getBytes("max-memory", Long.MAX_VALUE);
+    return new BoundedKeyValueStore(store, maxBytes, EvictionPolicy.create(config, maxBytes));
+  }
+
+  @Override
+  public String put(String key, String value) {
+    long size = estimateSize(key, value);
+    Stripe stripe = stripe(key);
+    String previous;
+    synchronized (stripe) {
+      previous = store.put(key, value);
+      track(stripe, key, size);
+    }
+    policy.recordAccess(key);
+    policy.enforce(this);
+    return previous;
+  }
+
+  @Override
+  public String get(String key) {
+    String value = store.get(key);
+    if (value != null) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        entry.lastAccess = System.nanoTime();
+      }
+    }
+    policy.recordAccess(key);
+    return value;
+  }
+
+  @Override
+  public String delete(String key) {
+    Stripe stripe = stripe(key);
+    synchronized (stripe) {
+      String removed = store.delete(key);
+      untrack(stripe, key);
+      return removed;
+    }
+  }
+
+  /**
+   * Counts an updated key like a put, or like a delete if the update removed it; an
+   * update that leaves the value as it was counts as a read.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    String[] next = new String[1];
+    Stripe stripe = stripe(key);
+    String previous;
+    synchronized (stripe) {
+      previous = store.update(key, value -> next[0] = function.apply(value));
+      if (next[0] == null) {
+        untrack(stripe, key);
+      } else if (next[0] != previous) {
+        track(stripe, key, estimateSize(key, next[0]));
+      } else {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+          entry.lastAccess = System.nanoTime();
+        }
+      }
+    }
+    if (next[0] != null) {
+      policy.recordAccess(key);
+      policy.enforce(this);
+    }
+    return previous;
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    store.forEach(action);
+  }
+
+  @Override
+  public List<String> scan(String from, String to, int limit) {
+    return store.scan(from, to, limit);
+  }
+
+  @Override
+  public long size() {
+    return store.size();
+  }
+
+  @Override
+  public long memoryBytes() {
+    return usedBytes();
+  }
+
+  @Override
+  public void close() {
+    store.close();
+  }
+
+  /**
+   * Returns the memory budget.
+   *
+   * @return The budget in estimated bytes.
+   */
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the estimated size of all entries.
+   *
+   * @return The estimated bytes in use.
+   */
+  public long usedBytes() {
+    return regionBytes[WINDOW].get() + regionBytes[MAIN].get();
+  }
+
+  /**
+   * Returns how many keys have been evicted since the store was created.
+   *
+   * @return The eviction count.
+   */
+  public long evictions() {
+    return evictions.get();
+  }
+
+  long regionBytes(int region) {
+    return regionBytes[region].get();
+  }
+
+  /**
+   * Returns the least recently accessed of up to {@code samples} random entries of a region.
+   *
+   * @param region The region to sample.
+   * @param samples The number of entries to compare.
+   * @return The oldest entry sampled, or null if the region appears empty.
+   */
+  Entry sampleOldest(int region, int samples) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Entry oldest = null;
+    int found = 0;
+    // Empty stripes yield nothing, so allow a few extra draws before giving up
+    for (int attempt = 0; attempt < samples * 4 && found < samples; attempt++) {
+      Stripe stripe = stripes[random.nextInt(STRIPES)];
+      Entry entry;
+      synchronized (stripe) {
+        List<Entry> list = stripe.regions.get(region);
+        if (list.isEmpty()) {
+          continue;
+        }
+        entry = list.get(random.nextInt(list.size()));
+      }
+      found++;
+      if (oldest == null || entry.lastAccess < oldest.lastAccess) {
+        oldest = entry;
+      }
+    }
+    return oldest;
+  }
+
+  /**
+   * Removes a sampled entry's key from the store, unless another thread already removed
+   * or replaced it.
+   *
+   * @param entry The entry to evict.
+   * @return True if the key was evicted.
+   */
+  boolean evict(Entry entry) {
+    Stripe stripe = stripe(entry.key);
+    synchronized (stripe) {
+      if (entries.get(entry.key) != entry) {
+        return false;
+      }
+      store.delete(entry.key);
+      entries.remove(entry.key);
+      stripe.remove(entry);
+      regionBytes[entry.region].addAndGet(-entry.size);
+    }
+    evictions.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Moves a window entry into the main region.
+   *
+   * @param entry The entry to promote.
+   * @return True if the entry was still in the window and has been moved.
+   */
+  boolean promote(Entry entry) {
+    Stripe stripe = stripe(entry.key);
+    synchronized (stripe) {
+      if (entries.get(entry.key) != entry || entry.region != WINDOW) {
+        return false;
+      }
+      stripe.remove(entry);
+      regionBytes[WINDOW].addAndGet(-entry.size);
+      entry.region = MAIN;
+      stripe.add(entry);
+      regionBytes[MAIN].addAndGet(entry.size);
+      return true;
+    }
+  }
+
+  /**
+   * Records a key's new size and access time after a write. Requires the key's stripe.
+   */
+  private void track(Stripe stripe, String key, long size) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, size, policy.admissionRegion());
+      entries.put(key, entry);
+      stripe.add(entry);
+      regionBytes[entry.region].addAndGet(size);
+    } else {
+      regionBytes[entry.region].addAndGet(size - entry.size);
+      entry.size = size;
+    }
+    entry.lastAccess = System.nanoTime();
+  }
+
+  /**
+   * Forgets a deleted key. Requires the key's stripe.
+   */
+  private void untrack(Stripe stripe, String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      stripe.remove(entry);
+      regionBytes[entry.region].addAndGet(-entry.size);
+    }
+  }
+
+  private static long estimateSize(String key, String value) {
+    // Strings of Latin-1 characters are stored one byte per char
+    return ENTRY_OVERHEAD + key.length() + value.length();
+  }
+
+  private Stripe stripe(String key) {
+    return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+  }
+}
@@ -0,0 +1,204 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves whole datasets in and out of a store as {@link Snapshot} images, the format of
+ * {@code BULKLOAD} and {@code DUMP}:
+ * <ul>
+ *   <li>{@code import <input> <image>} converts a text file of {@code key<TAB>value}
+ *       lines into an image offline, without a server. Start a server with
+ *       {@code --wal=<log> --snapshot=<image>} to open it as its store, or send it with
+ *       {@code load};</li>
+ *   <li>{@code load <ServerIP> <Port#> <image>} streams an image to a TCP server with
+ *       {@code BULKLOAD} and prints the server's progress;</li>
+ *   <li>{@code dump <ServerIP> <Port#> <image>} saves a TCP server's pairs with
+ *       {@code DUMP}.</li>
+ * </ul>
+ */
+public final class BulkTool {
+  private static final int STREAM_BUFFER_BYTES = 1 << 20;
+  private static final long PROGRESS_KEYS = 1_000_000;
+
+  private BulkTool() {
+  }
+
+  /**
+   * Runs one command.
+   *
+   * @param args Command-line arguments: import <input> <image>, load <ServerIP> <Port#>
+   *     <image> or dump <ServerIP> <Port#> <image>
+   */
+  public static void main(String[] args) {
+    String command = args.length > 0 ? args[0].toLowerCase() : "";
+    try {
+      if (command.equals("import") && args.length == 3) {
+        importText(Paths.get(args[1]), Paths.get(args[2]));
+        return;
+      }
+      if (command.equals("load") && args.length == 4) {
+        load(args[1], Integer.parseInt(args[2]), Paths.get(args[3]));
+        return;
+      }
+      if (command.equals("dump") && args.length == 4) {
+        dump(args[1], Integer.parseInt(args[2]), Paths.get(args[3]));
+        return;
+      }
+    } catch (IOException e) {
+      System.err.println("Bulk " + command + " failed: " + e.getMessage());
+      System.exit(1);
+    }
+    System.err.println("Usage: java BulkTool import <input> <image>");
+    System.err.println("       java BulkTool load|dump <ServerIP> <Port#> <image>");
+    System.exit(1);
+  }
+
+  /**
+   * Writes an image of the pairs in a text file, one {@code key<TAB>value} per line. The
+   * image replaces the output file only once it is complete.
+   *
+   * @param input The text file.
+   * @param image The image file to write.
+   * @return The number of pairs written.
+   * @throws IOException If a file cannot be read or written, or a line has no tab.
+   */
+  static long importText(Path input, Path image) throws IOException {
+    long begin = System.nanoTime();
+    Path temp = image.resolveSibling(image.getFileName() + ".tmp");
+    long count;
+    try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Snapshot.Writer writer = new Snapshot.Writer(out, 0);
+      long lineNumber = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty()) {
+          continue;
+        }
+        int tab = line.indexOf('\t');
+        if (tab <= 0) {
+          throw new IOException(input + ":" + lineNumber + ": expected key<TAB>value");
+        }
+        writer.append(line.substring(0, tab), line.substring(tab + 1), KeyValueStore.NO_EXPIRY);
+        if (lineNumber % PROGRESS_KEYS == 0) {
+          printProgress("Imported", lineNumber, begin);
+        }
+      }
+      count = writer.finish();
+      out.force(true);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    printProgress("Imported", count, begin);
+    return count;
+  }
+
+  /**
+   * Sends an image with BULKLOAD, printing each line the server answers while the image
+   * is still being sent. An answer other than progress or success ends the transfer.
+   *
+   * @throws IOException If the connection fails or the server rejects the image.
+   */
+  private static void load(String host, int port, Path image) throws IOException {
+    long begin = System.nanoTime();
+    String[] answer = new String[1];
+    Socket socket = new Socket(host, port);
+    try (InputStream file = Files.newInputStream(image)) {
+      BufferedReader responses = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      Thread reader = Thread.ofPlatform().daemon().name("bulk-progress").start(() -> {
+        try {
+          String line;
+          while ((line = responses.readLine()) != null && line.startsWith("BULKLOAD_PROGRESS")) {
+            System.out.println(line);
+          }
+          answer[0] = line;
+          if (line == null || !line.startsWith("BULKLOAD_SUCCESS")) {
+            // Stops the sender, which the server is no longer reading for
+            socket.close();
+          }
+        } catch (IOException e) {
+          // Reported below as a missing answer
+        }
+      });
+      try {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_BYTES);
+        out.write("BULKLOAD\n".getBytes(StandardCharsets.US_ASCII));
+        file.transferTo(out);
+        out.flush();
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          throw e;
+        }
+      }
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } finally {
+      socket.close();
+    }
+    if (answer[0] == null || !answer[0].startsWith("BULKLOAD_SUCCESS")) {
+      throw new IOException(answer[0] == null ? "Connection closed without an answer" : answer[0]);
+    }
+    System.out.println(answer[0] + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+  }
+
+  /**
+   * Saves the image a server sends for DUMP, replacing the output file only once the
+   * server has closed the connection.
+   *
+   * @throws IOException If the connection or the file fails.
+   */
+  private static void dump(String host, int port, Path image) throws IOException {
+    long begin = System.nanoTime();
+    Path temp = image.resolveSibling(image.getFileName() + ".tmp");
+    long bytes;
+    try (Socket socket = new Socket(host, port);
+        OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), STREAM_BUFFER_BYTES)) {
+      socket.getOutputStream().write("DUMP\n".getBytes(StandardCharsets.US_ASCII));
+      // Servers without DUMP answer with an error line; ending the request stream makes
+      // them close the connection too
+      socket.shutdownOutput();
+      bytes = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_BYTES).transferTo(file);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    if (!Snapshot.isImage(temp)) {
+      String answer = new String(Files.readAllBytes(temp), StandardCharsets.UTF_8).trim();
+      Files.delete(temp);
+      throw new IOException("Server answered: " + answer);
+    }
+    Files.move(temp, image, StandardCopyOption.REPLACE_EXISTING);
+    System.out.println("Saved " + bytes + " bytes to " + image + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+  }
+
+  private static void printProgress(String action, long keys, long beginNanos) {
+    long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+    System.out.println(action + " " + keys + " keys in " + millis + " ms ("
+        + keys * 1000 / millis + " keys/s)");
+  }
+}
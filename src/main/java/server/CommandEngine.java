@@ -0,0 +1,536 @@
+package server;
+
+import common.LoggerInterface;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses and executes text-protocol requests for every transport, so that the TCP, NIO-TCP
+ * and UDP servers answer identically. A request is read straight from a byte slice and its
+ * response written into the caller's {@link ByteBuffer}: the command word is matched on
+ * bytes, recently used ASCII keys are taken from a small cache instead of being decoded
+ * again, and values are encoded into the buffer without an intermediate byte array. A GET
+ * that finds a cached key therefore allocates nothing.
+ *
+ * <p>The single-key commands PUT (with optional {@code EX <seconds>}), GET, DELETE, TTL and
+ * PERSIST, and the atomic commands of {@link AtomicCommands}, are parsed on bytes. MGET,
+ * MPUT, MDELETE, SCAN and STATS decode the request into a string and use
+ * {@link BatchCommands}, {@link ScanCommands} and {@link ServerMetrics}.
+ * BULKLOAD, DUMP and WATCH are answered with an error here; {@link TCPServer} recognizes
+ * them with {@link #streamCommand} and runs them itself.
+ *
+ * <p>An engine holds scratch state and must be used by one thread at a time; each TCP
+ * connection, NIO event loop and UDP worker owns one.
+ */
+final class CommandEngine {
+  // Power of two; a slot holds the last key decoded with that hash
+  private static final int KEY_CACHE_SIZE = 128;
+
+  private static final byte[] PUT = ascii("PUT");
+  private static final byte[] GET = ascii("GET");
+  private static final byte[] DELETE = ascii("DELETE");
+  private static final byte[] TTL = ascii("TTL");
+  private static final byte[] PERSIST = ascii("PERSIST");
+  private static final byte[] MGET = ascii("MGET");
+  private static final byte[] MPUT = ascii("MPUT");
+  private static final byte[] MDELETE = ascii("MDELETE");
+  private static final byte[] SCAN = ascii("SCAN");
+  private static final byte[] STATS = ascii("STATS");
+  private static final byte[] INCR = ascii("INCR");
+  private static final byte[] DECR = ascii("DECR");
+  private static final byte[] APPEND = ascii("APPEND");
+  private static final byte[] PUTIFABSENT = ascii("PUTIFABSENT");
+  private static final byte[] CAS = ascii("CAS");
+  private static final byte[] BULKLOAD = ascii("BULKLOAD");
+  private static final byte[] DUMP = ascii("DUMP");
+  private static final byte[] WATCH = ascii("WATCH");
+
+  private static final byte[] PUT_SUCCESS = ascii("PUT_SUCCESS");
+  private static final byte[] GET_SUCCESS = ascii("GET_SUCCESS: ");
+  private static final byte[] GET_FAILURE = ascii("GET_FAILURE: Key not found");
+  private static final byte[] DELETE_SUCCESS = ascii("DELETE_SUCCESS");
+  private static final byte[] DELETE_FAILURE = ascii("DELETE_FAILURE: Key not found");
+  private static final byte[] EMPTY_REQUEST = ascii("ERROR: Empty request");
+  private static final byte[] UNKNOWN_COMMAND = ascii("ERROR: Unknown command");
+  private static final byte[] INVALID_PUT = ascii("ERROR: Invalid PUT command");
+  private static final byte[] INVALID_GET = ascii("ERROR: Invalid GET command");
+  private static final byte[] INVALID_DELETE = ascii("ERROR: Invalid DELETE command");
+  private static final byte[] INVALID_TTL = ascii("ERROR: Invalid TTL command");
+  private static final byte[] INVALID_PERSIST = ascii("ERROR: Invalid PERSIST command");
+  private static final byte[] INVALID_INCR = ascii("ERROR: Invalid INCR command");
+  private static final byte[] INVALID_DECR = ascii("ERROR: Invalid DECR command");
+  private static final byte[] INVALID_APPEND = ascii("ERROR: Invalid APPEND command");
+  private static final byte[] INVALID_PUTIFABSENT = ascii("ERROR: Invalid PUTIFABSENT command");
+  private static final byte[] INVALID_CAS = ascii("ERROR: Invalid CAS command");
+  private static final byte[] STREAM_NOT_SUPPORTED =
+      ascii("ERROR: BULKLOAD and DUMP need the TCP server");
+  private static final byte[] WATCH_NOT_SUPPORTED = ascii("ERROR: WATCH needs the TCP server");
+  /** Sent when handling a request fails unexpectedly. */
+  static final byte[] INTERNAL_ERROR =
+      ascii("ERROR: Exception occurred while processing request");
+  /** Sent instead of a response that does not fit; shorter than any packet size limit. */
+  static final byte[] RESPONSE_TOO_LARGE = ascii("ERROR: Response too large");
+
+  private final KeyValueStore store;
+  private final LoggerInterface logger;
+  private final ServerMetrics metrics;
+  private final boolean growOutput;
+  private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+  // Token bounds of the request being executed
+  private int keyStart;
+  private int keyEnd;
+  private int valueStart;
+  private int tokenCount;
+  // Set by expiringValueEnd()
+  private long expirySeconds;
+  // The output buffer while a request is executed
+  private ByteBuffer out;
+
+  /**
+   * Constructs an engine.
+   *
+   * @param store The key-value store to operate on.
+   * @param logger The logger for warnings and errors.
+   * @param metrics The metrics that record each request.
+   * @param growOutput True to replace the output buffer with a larger one when a response
+   *     does not fit, as the TCP servers do; false to answer
+   *     {@code ERROR: Response too large} instead, as a datagram must.
+   */
+  CommandEngine(KeyValueStore store, LoggerInterface logger, ServerMetrics metrics,
+      boolean growOutput) {
+    this.store = store;
+    this.logger = logger;
+    this.metrics = metrics;
+    this.growOutput = growOutput;
+  }
+
+  /**
+   * Executes one request and writes its response, without a line terminator, at the
+   * output buffer's position. The output must have room for
+   * {@link #RESPONSE_TOO_LARGE} if it cannot grow.
+   *
+   * @param request The array holding the request.
+   * @param offset The start of the request.
+   * @param length The request length in bytes, without a line terminator.
+   * @param output The buffer to write the response into, in fill mode.
+   * @param clientAddress The address of the client.
+   * @return The output buffer, or a larger copy of it if the response did not fit.
+   */
+  ByteBuffer execute(byte[] request, int offset, int length, ByteBuffer output,
+      String clientAddress) {
+    long start = metrics.startTimer();
+    int responseStart = output.position();
+    out = output;
+    int command = ServerMetrics.OTHER;
+    int error;
+    try {
+      int end = offset + length;
+      int commandStart = offset;
+      // Trim like String.trim(), then split on whitespace into at most three tokens
+      while (commandStart < end && (request[commandStart] & 0xff) <= ' ') {
+        commandStart++;
+      }
+      while (end > commandStart && (request[end - 1] & 0xff) <= ' ') {
+        end--;
+      }
+      if (commandStart == end) {
+        logger.log("WARNING", "Received empty request from " + clientAddress);
+        write(EMPTY_REQUEST);
+        error = ServerMetrics.BAD_REQUEST;
+      } else {
+        int commandEnd = tokenize(request, commandStart, end);
+        command = command(request, commandStart, commandEnd);
+        error = dispatch(command, request, offset, length, end);
+      }
+    } catch (BufferOverflowException e) {
+      out.position(responseStart);
+      out.put(RESPONSE_TOO_LARGE);
+      error = ServerMetrics.TOO_LARGE;
+    } catch (Exception e) {
+      logger.log("ERROR", "Error handling request from " + clientAddress + ": " + e.getMessage());
+      out.position(responseStart);
+      write(INTERNAL_ERROR);
+      error = ServerMetrics.INTERNAL;
+    }
+    metrics.record(command, start, error);
+    ByteBuffer result = out;
+    out = null;
+    return result;
+  }
+
+  /**
+   * Finds the key and value tokens after the command word.
+   *
+   * @return The end of the command word.
+   */
+  private int tokenize(byte[] request, int start, int end) {
+    int p = start;
+    while (p < end && !isSpace(request[p])) {
+      p++;
+    }
+    int commandEnd = p;
+    tokenCount = 1;
+    while (p < end && isSpace(request[p])) {
+      p++;
+    }
+    keyStart = p;
+    while (p < end && !isSpace(request[p])) {
+      p++;
+    }
+    keyEnd = p;
+    if (keyStart < end) {
+      tokenCount = 2;
+    }
+    while (p < end && isSpace(request[p])) {
+      p++;
+    }
+    valueStart = p;
+    if (valueStart < end) {
+      tokenCount = 3;
+    }
+    return commandEnd;
+  }
+
+  private static int command(byte[] request, int start, int end) {
+    if (matches(request, start, end, GET)) return ServerMetrics.GET;
+    if (matches(request, start, end, PUT)) return ServerMetrics.PUT;
+    if (matches(request, start, end, DELETE)) return ServerMetrics.DELETE;
+    if (matches(request, start, end, TTL)) return ServerMetrics.TTL;
+    if (matches(request, start, end, PERSIST)) return ServerMetrics.PERSIST;
+    if (matches(request, start, end, MGET)) return ServerMetrics.MGET;
+    if (matches(request, start, end, MPUT)) return ServerMetrics.MPUT;
+    if (matches(request, start, end, MDELETE)) return ServerMetrics.MDELETE;
+    if (matches(request, start, end, SCAN)) return ServerMetrics.SCAN;
+    if (matches(request, start, end, STATS)) return ServerMetrics.STATS;
+    if (matches(request, start, end, INCR)) return ServerMetrics.INCR;
+    if (matches(request, start, end, DECR)) return ServerMetrics.DECR;
+    if (matches(request, start, end, APPEND)) return ServerMetrics.APPEND;
+    if (matches(request, start, end, PUTIFABSENT)) return ServerMetrics.PUTIFABSENT;
+    if (matches(request, start, end, CAS)) return ServerMetrics.CAS;
+    if (matches(request, start, end, BULKLOAD)) return ServerMetrics.BULKLOAD;
+    if (matches(request, start, end, DUMP)) return ServerMetrics.DUMP;
+    if (matches(request, start, end, WATCH)) return ServerMetrics.WATCH;
+    return ServerMetrics.OTHER;
+  }
+
+  /**
+   * Recognizes the streaming commands, which the TCP server runs itself because they
+   * read or write a stream after the request line.
+   *
+   * @param request The array holding the request.
+   * @param offset The start of the request.
+   * @param length The request length in bytes, without a line terminator.
+   * @return {@link ServerMetrics#BULKLOAD} or {@link ServerMetrics#DUMP} for a request that
+   *     is just that command word, {@link ServerMetrics#WATCH} for any WATCH request,
+   *     otherwise {@link ServerMetrics#OTHER}.
+   */
+  static int streamCommand(byte[] request, int offset, int length) {
+    int start = offset;
+    int end = offset + length;
+    while (start < end && (request[start] & 0xff) <= ' ') {
+      start++;
+    }
+    while (end > start && (request[end - 1] & 0xff) <= ' ') {
+      end--;
+    }
+    int commandEnd = start;
+    while (commandEnd < end && !isSpace(request[commandEnd])) {
+      commandEnd++;
+    }
+    if (matches(request, start, commandEnd, WATCH)) return ServerMetrics.WATCH;
+    if (matches(request, start, end, BULKLOAD)) return ServerMetrics.BULKLOAD;
+    if (matches(request, start, end, DUMP)) return ServerMetrics.DUMP;
+    return ServerMetrics.OTHER;
+  }
+
+  /**
+   * Executes a parsed request and writes its response.
+   *
+   * @return The error type, or {@link ServerMetrics#NO_ERROR}.
+   */
+  private int dispatch(int command, byte[] request, int offset, int length, int end) {
+    switch (command) {
+      case ServerMetrics.GET: {
+        if (tokenCount != 2) return invalid(INVALID_GET);
+        String value = store.get(key(request));
+        if (value == null) {
+          write(GET_FAILURE);
+        } else {
+          write(GET_SUCCESS);
+          writeUtf8(value);
+        }
+        return ServerMetrics.NO_ERROR;
+      }
+      case ServerMetrics.PUT: {
+        if (tokenCount != 3) return invalid(INVALID_PUT);
+        int valueEnd = expiringValueEnd(request, valueStart, end);
+        if (valueEnd < 0) {
+          store.put(key(request), utf8(request, valueStart, end));
+          write(PUT_SUCCESS);
+          return ServerMetrics.NO_ERROR;
+        }
+        return write(ExpiryCommands.putExpiring(store, key(request),
+            utf8(request, valueStart, valueEnd), expirySeconds));
+      }
+      case ServerMetrics.DELETE:
+        if (tokenCount != 2) return invalid(INVALID_DELETE);
+        write(store.delete(key(request)) != null ? DELETE_SUCCESS : DELETE_FAILURE);
+        return ServerMetrics.NO_ERROR;
+      case ServerMetrics.TTL:
+        if (tokenCount != 2) return invalid(INVALID_TTL);
+        return write(ExpiryCommands.ttl(store, key(request)));
+      case ServerMetrics.PERSIST:
+        if (tokenCount != 2) return invalid(INVALID_PERSIST);
+        return write(ExpiryCommands.persist(store, key(request)));
+      case ServerMetrics.INCR:
+        if (tokenCount < 2 || !isSingleToken(request, end)) return invalid(INVALID_INCR);
+        return write(AtomicCommands.increment(store, key(request), argument(request, end), false));
+      case ServerMetrics.DECR:
+        if (tokenCount < 2 || !isSingleToken(request, end)) return invalid(INVALID_DECR);
+        return write(AtomicCommands.increment(store, key(request), argument(request, end), true));
+      case ServerMetrics.APPEND:
+        if (tokenCount != 3) return invalid(INVALID_APPEND);
+        return write(AtomicCommands.append(store, key(request), argument(request, end)));
+      case ServerMetrics.PUTIFABSENT:
+        if (tokenCount != 3) return invalid(INVALID_PUTIFABSENT);
+        return write(AtomicCommands.putIfAbsent(store, key(request), argument(request, end)));
+      case ServerMetrics.CAS:
+        if (tokenCount != 3) return invalid(INVALID_CAS);
+        return write(AtomicCommands.compareAndSet(store, key(request), argument(request, end)));
+      case ServerMetrics.BULKLOAD:
+      case ServerMetrics.DUMP:
+        return invalid(STREAM_NOT_SUPPORTED);
+      case ServerMetrics.WATCH:
+        return invalid(WATCH_NOT_SUPPORTED);
+      case ServerMetrics.OTHER:
+        write(UNKNOWN_COMMAND);
+        return ServerMetrics.UNKNOWN_COMMAND;
+      default:
+        return dispatchString(command, utf8(request, offset, offset + length));
+    }
+  }
+
+  /**
+   * Executes a multi-key, SCAN or STATS request from its decoded text.
+   */
+  private int dispatchString(int command, String request) {
+    int limit = growOutput ? Integer.MAX_VALUE : out.remaining();
+    switch (command) {
+      case ServerMetrics.MGET:
+        return write(BatchCommands.mget(store, request, limit));
+      case ServerMetrics.MPUT:
+        return write(BatchCommands.mput(store, request, limit));
+      case ServerMetrics.MDELETE:
+        return write(BatchCommands.mdelete(store, request, limit));
+      case ServerMetrics.SCAN:
+        return write(ScanCommands.scan(store, request, limit));
+      default:
+        return write(metrics.handleStats(request.trim().split("\\s+", 5), limit));
+    }
+  }
+
+  /**
+   * Returns the key token as a string, reusing the cached instance for an ASCII key that
+   * was seen recently. The hash computed here is {@link String#hashCode()} of the key, so
+   * a cached key also spares the store from hashing it.
+   */
+  private String key(byte[] request) {
+    int hash = 0;
+    for (int i = keyStart; i < keyEnd; i++) {
+      byte b = request[i];
+      if (b < 0) {
+        return utf8(request, keyStart, keyEnd);
+      }
+      hash = 31 * hash + b;
+    }
+    int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+    String cached = keyCache[slot];
+    if (cached != null && cached.hashCode() == hash
+        && equalsAscii(cached, request, keyStart, keyEnd)) {
+      return cached;
+    }
+    String key = new String(request, keyStart, keyEnd - keyStart, StandardCharsets.ISO_8859_1);
+    keyCache[slot] = key;
+    return key;
+  }
+
+  /**
+   * Checks whether a PUT value ends in {@code EX <seconds>}, matching what the text
+   * protocol has always accepted: at least one character of value, whitespace, EX in any
+   * case, whitespace and one to ten digits.
+   *
+   * @return The end of the value without the suffix, with {@link #expirySeconds} set, or
+   *     -1 if there is no suffix.
+   */
+  private int expiringValueEnd(byte[] request, int start, int end) {
+    int p = end;
+    while (p > start && request[p - 1] >= '0' && request[p - 1] <= '9') {
+      p--;
+    }
+    int digitsStart = p;
+    if (digitsStart == end || end - digitsStart > 10) {
+      return -1;
+    }
+    while (p > start && isSpace(request[p - 1])) {
+      p--;
+    }
+    if (p == digitsStart || p - 2 < start
+        || (request[p - 1] | 0x20) != 'x' || (request[p - 2] | 0x20) != 'e') {
+      return -1;
+    }
+    int exStart = p - 2;
+    p = exStart;
+    while (p > start && isSpace(request[p - 1])) {
+      p--;
+    }
+    if (p == exStart || p == start) {
+      return -1;
+    }
+    long seconds = 0;
+    for (int i = digitsStart; i < end; i++) {
+      seconds = seconds * 10 + (request[i] - '0');
+    }
+    expirySeconds = seconds;
+    return p;
+  }
+
+  /**
+   * Returns the text after the key, or null if there is none.
+   */
+  private String argument(byte[] request, int end) {
+    return tokenCount == 3 ? utf8(request, valueStart, end) : null;
+  }
+
+  /**
+   * Returns whether the text after the key, if any, is a single token.
+   */
+  private boolean isSingleToken(byte[] request, int end) {
+    for (int i = valueStart; i < end; i++) {
+      if (isSpace(request[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int invalid(byte[] response) {
+    write(response);
+    return ServerMetrics.BAD_REQUEST;
+  }
+
+  private void write(byte[] bytes) {
+    ensureRemaining(bytes.length);
+    out.put(bytes);
+  }
+
+  /**
+   * Writes a response produced as a string.
+   *
+   * @return The error type the response reports.
+   */
+  private int write(String response) {
+    writeUtf8(response);
+    return ServerMetrics.error(response);
+  }
+
+  /**
+   * Encodes a string as UTF-8 into the output, as {@link String#getBytes} would, replacing
+   * unpaired surrogates with '?'.
+   */
+  private void writeUtf8(String text) {
+    int length = text.length();
+    ensureRemaining(length);
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        out.put((byte) c);
+        continue;
+      }
+      // Room for this character's bytes plus one byte for each one left
+      ensureRemaining(3 + length - i);
+      if (c < 0x800) {
+        out.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+      } else if (!Character.isSurrogate(c)) {
+        out.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f))
+            .put((byte) (0x80 | c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        out.put((byte) (0xf0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3f))
+            .put((byte) (0x80 | codePoint >> 6 & 0x3f)).put((byte) (0x80 | codePoint & 0x3f));
+      } else {
+        out.put((byte) '?');
+      }
+    }
+  }
+
+  /**
+   * Makes room for more output by moving it to a larger buffer, if the output may grow.
+   * Otherwise the write that follows overflows and the request is answered with
+   * {@link #RESPONSE_TOO_LARGE}.
+   */
+  private void ensureRemaining(int bytes) {
+    if (growOutput && out.remaining() < bytes) {
+      out = grow(out, Math.max(out.capacity() * 2, out.position() + bytes));
+    }
+  }
+
+  /**
+   * Copies a buffer in fill mode into a new buffer of the same kind.
+   *
+   * @param buffer The buffer to copy.
+   * @param capacity The new capacity.
+   * @return The larger buffer, positioned after the copied bytes.
+   */
+  static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+    ByteBuffer larger = buffer.isDirect()
+        ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    buffer.flip();
+    larger.put(buffer);
+    return larger;
+  }
+
+  private static String utf8(byte[] bytes, int start, int end) {
+    return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  private static boolean equalsAscii(String text, byte[] bytes, int start, int end) {
+    if (text.length() != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i - start) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares a token with an upper-case command name, ignoring ASCII case.
+   */
+  private static boolean matches(byte[] bytes, int start, int end, byte[] name) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if ((bytes[start + i] | 0x20) != (name[i] | 0x20)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Matches the characters of the regex class {@code \s}.
+   */
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
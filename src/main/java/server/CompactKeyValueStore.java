@@ -0,0 +1,573 @@
+package server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Key-value store that packs keys and values as UTF-8 bytes into large heap byte arrays,
+ * found through open-addressing tables of primitive arrays. A pair costs its bytes, an
+ * 8-byte record header and one table slot, instead of the map node, two strings and two
+ * arrays a HashMap pays for; the garbage collector sees a few hundred arrays per store.
+ *
+ * <p>The store is split into segments, each guarded by its own monitor. A segment owns
+ * <ul>
+ *   <li>arenas: byte arrays holding records of {@code keyLength(4) valueLength(4) key value},
+ *       allocated by bumping a pointer through the newest arena;</li>
+ *   <li>a table: parallel arrays of hashes (0 marks an empty slot) and record addresses,
+ *       probed linearly with Robin Hood ordering, so a lookup stops as soon as it passes
+ *       the slot its key would have claimed, and cleaned up by backward-shift deletion.</li>
+ * </ul>
+ * Keys are hashed from {@link String#hashCode()}, which strings cache, and compared with
+ * the stored bytes without being encoded. Tables grow incrementally: a full table is kept
+ * as the old table next to one twice its size, and every write moves a few of its slots
+ * over, so no single write pays for rehashing the segment. Lookups check both tables until
+ * the move is done. An update that does not fit its record writes a new one; once garbage
+ * outweighs the live records, the segment is compacted by copying them into fresh arenas.
+ */
+public class CompactKeyValueStore implements KeyValueStore {
+  private static final int RECORD_HEADER = 8;
+  private static final int MIN_ARENA_BYTES = 4 << 10;
+  private static final int MAX_ARENA_BYTES = 1 << 20;
+  private static final int INITIAL_TABLE_CAPACITY = 64;
+  // Robin Hood keeps probe runs short at high load
+  private static final int MAX_LOAD_PERCENT = 80;
+  /** Old-table slots moved to the new table by each write during a resize. */
+  private static final int MIGRATE_SLOTS = 16;
+  // Marks a slot of the old table whose entry was moved or deleted; it keeps its hash so
+  // that Robin Hood lookups still stop in the right place
+  private static final long MOVED = -1;
+  private static final VarHandle INT =
+      MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  /**
+   * Constructs a compact store with 64 segments.
+   */
+  public CompactKeyValueStore() {
+    this(64);
+  }
+
+  /**
+   * Constructs a compact store.
+   *
+   * @param segmentCount The number of independently locked segments; rounded up to a power of two.
+   */
+  public CompactKeyValueStore(int segmentCount) {
+    int count = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+    this.segments = new Segment[count];
+    this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  @Override
+  public String put(String key, String value) {
+    int hash = hash(key);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      int slot = segment.locate(hash, key);
+      if (slot >= 0) {
+        return segment.replace(slot, value);
+      }
+      segment.insert(hash, key, value);
+      return null;
+    }
+  }
+
+  @Override
+  public String get(String key) {
+    int hash = hash(key);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      return segment.get(hash, key);
+    }
+  }
+
+  @Override
+  public String delete(String key) {
+    int hash = hash(key);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      int slot = segment.locate(hash, key);
+      return slot < 0 ? null : segment.remove(slot);
+    }
+  }
+
+  /**
+   * Runs the function under the key's segment lock, so writes to the segment wait for it.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    int hash = hash(key);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      int slot = segment.locate(hash, key);
+      String previous = slot < 0 ? null : segment.readValue(segment.addresses[slot]);
+      String next = function.apply(previous);
+      if (next == null) {
+        if (slot >= 0) {
+          segment.remove(slot);
+        }
+      } else if (next != previous) {
+        if (slot >= 0) {
+          segment.replace(slot, next);
+        } else {
+          segment.insert(hash, key, next);
+        }
+      }
+      return previous;
+    }
+  }
+
+  /**
+   * Copies each segment's pairs under its lock and visits them after releasing it, so a
+   * slow action, such as writing to a client, does not hold up the segment's writers.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    for (Segment segment : segments) {
+      List<String> pairs = new ArrayList<>();
+      synchronized (segment) {
+        BiConsumer<String, String> copy = (key, value) -> {
+          pairs.add(key);
+          pairs.add(value);
+        };
+        segment.forEach(segment.hashes, segment.addresses, copy);
+        if (segment.oldHashes != null) {
+          segment.forEach(segment.oldHashes, segment.oldAddresses, copy);
+        }
+      }
+      for (int i = 0; i < pairs.size(); i += 2) {
+        action.accept(pairs.get(i), pairs.get(i + 1));
+      }
+    }
+  }
+
+  @Override
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the heap held by the arenas, including free and garbage space, and the tables.
+   *
+   * @return The allocated size in bytes.
+   */
+  @Override
+  public long memoryBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        bytes += segment.arenaBytes + 12L * segment.addresses.length
+            + (segment.oldAddresses != null ? 12L * segment.oldAddresses.length : 0);
+      }
+    }
+    return bytes;
+  }
+
+  private Segment segmentFor(int hash) {
+    // The tables use the low bits, so pick the segment from the top ones
+    return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+  }
+
+  private static int hash(String key) {
+    // Similar keys have nearby polynomial hashes; mix them (MurmurHash3's finalizer) so
+    // linear probing does not see long runs of neighbouring slots
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h == 0 ? 1 : h;
+  }
+
+  /**
+   * Returns the number of bytes a string takes as UTF-8, counting unpaired surrogates as
+   * one byte, since they are encoded as '?' like {@link String#getBytes}.
+   */
+  private static int utf8Length(String text) {
+    int length = text.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          bytes++;
+        } else if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(text.charAt(i + 1))) {
+          // Four bytes for the two chars
+          bytes += 2;
+          i++;
+        } else if (!Character.isSurrogate(c)) {
+          bytes += 2;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Encodes a string as UTF-8 into an array, as {@link String#getBytes} would.
+   *
+   * @return The index after the last byte written.
+   */
+  private static int encodeUtf8(String text, byte[] bytes, int index) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes[index++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[index++] = (byte) (0xc0 | c >> 6);
+        bytes[index++] = (byte) (0x80 | c & 0x3f);
+      } else if (!Character.isSurrogate(c)) {
+        bytes[index++] = (byte) (0xe0 | c >> 12);
+        bytes[index++] = (byte) (0x80 | c >> 6 & 0x3f);
+        bytes[index++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        bytes[index++] = (byte) (0xf0 | codePoint >> 18);
+        bytes[index++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        bytes[index++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        bytes[index++] = (byte) (0x80 | codePoint & 0x3f);
+      } else {
+        bytes[index++] = '?';
+      }
+    }
+    return index;
+  }
+
+  /**
+   * One independently locked part of the store. All methods require the segment's monitor.
+   */
+  private static final class Segment {
+    private final List<byte[]> arenas = new ArrayList<>();
+    private byte[] current;
+    private int position;
+    private long arenaBytes;
+    private long liveBytes;
+    private long garbageBytes;
+
+    // An address is arena << 32 | offset
+    private int[] hashes = new int[INITIAL_TABLE_CAPACITY];
+    private long[] addresses = new long[INITIAL_TABLE_CAPACITY];
+    // Entries in the current table, and in both tables
+    private int used;
+    private int size;
+
+    // The table being emptied into the current one, from slot `migrated` on; null when
+    // no resize is under way
+    private int[] oldHashes;
+    private long[] oldAddresses;
+    private int migrated;
+
+    String get(int hash, String key) {
+      int slot = find(hashes, addresses, hash, key);
+      if (slot >= 0) {
+        return readValue(addresses[slot]);
+      }
+      if (oldHashes != null) {
+        slot = find(oldHashes, oldAddresses, hash, key);
+        if (slot >= 0) {
+          return readValue(oldAddresses[slot]);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Finds a key's slot in the current table for a write, moving the key over from the old
+     * table if it is still there, and moving a few more slots along with it.
+     *
+     * @return The slot, or -1 if the key is not in the store.
+     */
+    int locate(int hash, String key) {
+      if (oldHashes != null) {
+        int old = find(oldHashes, oldAddresses, hash, key);
+        if (old >= 0) {
+          place(hashes, addresses, hash, oldAddresses[old]);
+          oldAddresses[old] = MOVED;
+          used++;
+        }
+        migrate(MIGRATE_SLOTS);
+      }
+      return find(hashes, addresses, hash, key);
+    }
+
+    String replace(int slot, String value) {
+      long address = addresses[slot];
+      String previous = readValue(address);
+      byte[] arena = arenas.get((int) (address >>> 32));
+      int offset = (int) address;
+      int keyLength = (int) INT.get(arena, offset);
+      int oldLength = (int) INT.get(arena, offset + 4);
+      int length = utf8Length(value);
+      if (length <= oldLength) {
+        INT.set(arena, offset + 4, length);
+        encodeUtf8(value, arena, offset + RECORD_HEADER + keyLength);
+        liveBytes -= oldLength - length;
+        garbageBytes += oldLength - length;
+      } else {
+        int size = RECORD_HEADER + keyLength + length;
+        long replacement = allocate(size);
+        byte[] to = arenas.get((int) (replacement >>> 32));
+        int toOffset = (int) replacement;
+        // The key bytes are reused as they are
+        System.arraycopy(arena, offset, to, toOffset, RECORD_HEADER + keyLength);
+        INT.set(to, toOffset + 4, length);
+        encodeUtf8(value, to, toOffset + RECORD_HEADER + keyLength);
+        addresses[slot] = replacement;
+        liveBytes += size - RECORD_HEADER - keyLength - oldLength;
+        garbageBytes += RECORD_HEADER + keyLength + oldLength;
+        maybeCompact();
+      }
+      return previous;
+    }
+
+    void insert(int hash, String key, String value) {
+      int keyLength = utf8Length(key);
+      int valueLength = utf8Length(value);
+      int size = RECORD_HEADER + keyLength + valueLength;
+      long address = allocate(size);
+      byte[] arena = arenas.get((int) (address >>> 32));
+      int offset = (int) address;
+      INT.set(arena, offset, keyLength);
+      INT.set(arena, offset + 4, valueLength);
+      encodeUtf8(value, arena, encodeUtf8(key, arena, offset + RECORD_HEADER));
+      liveBytes += size;
+
+      if ((long) (used + 1) * 100 > (long) hashes.length * MAX_LOAD_PERCENT) {
+        grow();
+      }
+      place(hashes, addresses, hash, address);
+      used++;
+      this.size++;
+    }
+
+    String remove(int slot) {
+      long address = addresses[slot];
+      String removed = readValue(address);
+      byte[] arena = arenas.get((int) (address >>> 32));
+      int offset = (int) address;
+      int recordSize = RECORD_HEADER + (int) INT.get(arena, offset) + (int) INT.get(arena, offset + 4);
+      liveBytes -= recordSize;
+      garbageBytes += recordSize;
+      removeSlot(slot);
+      used--;
+      size--;
+      maybeCompact();
+      return removed;
+    }
+
+    String readValue(long address) {
+      byte[] arena = arenas.get((int) (address >>> 32));
+      int offset = (int) address;
+      int keyLength = (int) INT.get(arena, offset);
+      return new String(arena, offset + RECORD_HEADER + keyLength, (int) INT.get(arena, offset + 4),
+          StandardCharsets.UTF_8);
+    }
+
+    void forEach(int[] tableHashes, long[] tableAddresses, BiConsumer<String, String> action) {
+      for (int slot = 0; slot < tableHashes.length; slot++) {
+        long address = tableAddresses[slot];
+        if (tableHashes[slot] == 0 || address == MOVED) {
+          continue;
+        }
+        byte[] arena = arenas.get((int) (address >>> 32));
+        int offset = (int) address;
+        int keyLength = (int) INT.get(arena, offset);
+        action.accept(new String(arena, offset + RECORD_HEADER, keyLength, StandardCharsets.UTF_8),
+            readValue(address));
+      }
+    }
+
+    /**
+     * Looks a key up in one table. A Robin Hood table keeps every probe run ordered by
+     * distance from home, so the key is absent once a slot holds an entry closer to its
+     * own home than the key would be.
+     */
+    private int find(int[] tableHashes, long[] tableAddresses, int hash, String key) {
+      int mask = tableHashes.length - 1;
+      int slot = hash & mask;
+      for (int distance = 0; ; distance++, slot = (slot + 1) & mask) {
+        int slotHash = tableHashes[slot];
+        if (slotHash == 0 || ((slot - (slotHash & mask)) & mask) < distance) {
+          return -1;
+        }
+        if (slotHash == hash && tableAddresses[slot] != MOVED && keyEquals(tableAddresses[slot], key)) {
+          return slot;
+        }
+      }
+    }
+
+    /**
+     * Compares a key with a record's key bytes, without encoding ASCII keys.
+     */
+    private boolean keyEquals(long address, String key) {
+      byte[] arena = arenas.get((int) (address >>> 32));
+      int offset = (int) address;
+      int length = (int) INT.get(arena, offset);
+      int start = offset + RECORD_HEADER;
+      if (length == key.length()) {
+        int i = 0;
+        while (i < length && key.charAt(i) < 0x80 && arena[start + i] == key.charAt(i)) {
+          i++;
+        }
+        if (i == length) {
+          return true;
+        }
+        // While the chars are ASCII, byte i encodes char i
+        if (key.charAt(i) < 0x80) {
+          return false;
+        }
+      } else if (length < key.length()) {
+        // UTF-8 never takes fewer bytes than chars
+        return false;
+      }
+      byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+      return Arrays.equals(bytes, 0, bytes.length, arena, start, start + length);
+    }
+
+    /**
+     * Puts an entry into a table that does not hold its key, taking the slot of any entry
+     * nearer its home than the new entry would be and carrying that entry on instead.
+     */
+    private static void place(int[] tableHashes, long[] tableAddresses, int hash, long address) {
+      int mask = tableHashes.length - 1;
+      int slot = hash & mask;
+      int distance = 0;
+      while (tableHashes[slot] != 0) {
+        int slotDistance = (slot - (tableHashes[slot] & mask)) & mask;
+        if (slotDistance < distance) {
+          int displacedHash = tableHashes[slot];
+          long displacedAddress = tableAddresses[slot];
+          tableHashes[slot] = hash;
+          tableAddresses[slot] = address;
+          hash = displacedHash;
+          address = displacedAddress;
+          distance = slotDistance;
+        }
+        slot = (slot + 1) & mask;
+        distance++;
+      }
+      tableHashes[slot] = hash;
+      tableAddresses[slot] = address;
+    }
+
+    /**
+     * Empties a slot of the current table and shifts the rest of its probe run back by
+     * one, which keeps the run in Robin Hood order without tombstones.
+     */
+    private void removeSlot(int slot) {
+      int mask = hashes.length - 1;
+      int next = (slot + 1) & mask;
+      while (hashes[next] != 0 && (next - (hashes[next] & mask) & mask) != 0) {
+        hashes[slot] = hashes[next];
+        addresses[slot] = addresses[next];
+        slot = next;
+        next = (next + 1) & mask;
+      }
+      hashes[slot] = 0;
+      addresses[slot] = 0;
+    }
+
+    /**
+     * Starts moving the entries into a table twice the size. The old table has at most 80%
+     * of its slots filled and is emptied after one write per {@link #MIGRATE_SLOTS} of its
+     * slots, so the new one is less than half full when the move ends.
+     */
+    private void grow() {
+      if (oldHashes != null) {
+        migrate(oldHashes.length);
+      }
+      oldHashes = hashes;
+      oldAddresses = addresses;
+      migrated = 0;
+      hashes = new int[oldHashes.length * 2];
+      addresses = new long[oldHashes.length * 2];
+      used = 0;
+    }
+
+    /**
+     * Moves up to {@code slots} slots of the old table into the current one. Moved slots
+     * are marked rather than emptied, so that nothing shifts behind the cursor.
+     */
+    private void migrate(int slots) {
+      int end = Math.min(migrated + slots, oldHashes.length);
+      for (int slot = migrated; slot < end; slot++) {
+        if (oldHashes[slot] != 0 && oldAddresses[slot] != MOVED) {
+          place(hashes, addresses, oldHashes[slot], oldAddresses[slot]);
+          oldAddresses[slot] = MOVED;
+          used++;
+        }
+      }
+      migrated = end;
+      if (end == oldHashes.length) {
+        oldHashes = null;
+        oldAddresses = null;
+      }
+    }
+
+    private long allocate(int size) {
+      if (current == null || current.length - position < size) {
+        // Arenas double from MIN_ARENA_BYTES, so small stores stay small
+        int length = current == null ? MIN_ARENA_BYTES : Math.min(current.length * 2, MAX_ARENA_BYTES);
+        current = new byte[Math.max(length, size)];
+        arenas.add(current);
+        arenaBytes += current.length;
+        position = 0;
+      }
+      long address = ((long) (arenas.size() - 1) << 32) | position;
+      position += size;
+      return address;
+    }
+
+    /**
+     * Compacts once garbage exceeds the live records, so copying is paid for by at least
+     * as many bytes of writes since the last compaction, and the smallest arena.
+     */
+    private void maybeCompact() {
+      if (garbageBytes <= MIN_ARENA_BYTES || garbageBytes <= liveBytes) {
+        return;
+      }
+      if (oldHashes != null) {
+        migrate(oldHashes.length);
+      }
+      List<byte[]> oldArenas = new ArrayList<>(arenas);
+      arenas.clear();
+      current = null;
+      arenaBytes = 0;
+      garbageBytes = 0;
+      for (int slot = 0; slot < addresses.length; slot++) {
+        if (hashes[slot] == 0) {
+          continue;
+        }
+        long address = addresses[slot];
+        byte[] from = oldArenas.get((int) (address >>> 32));
+        int offset = (int) address;
+        int length = RECORD_HEADER + (int) INT.get(from, offset) + (int) INT.get(from, offset + 4);
+        long moved = allocate(length);
+        System.arraycopy(from, offset, arenas.get((int) (moved >>> 32)), (int) moved, length);
+        addresses[slot] = moved;
+      }
+    }
+  }
+}
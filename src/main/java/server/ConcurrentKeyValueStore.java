@@ -0,0 +1,57 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Key-value store backed by a ConcurrentHashMap. Reads never lock, and writes
+ * lock only the hash bin they touch (or CAS into an empty bin), so handlers on
+ * different cores rarely contend. Atomic updates run under the lock of the key's bin.
+ * Batch operations use the per-key defaults, since there is no store-wide lock to amortize.
+ */
+public class ConcurrentKeyValueStore implements KeyValueStore {
+  private final ConcurrentHashMap<String, String> store;
+
+  /**
+   * Constructs a new ConcurrentKeyValueStore.
+   */
+  public ConcurrentKeyValueStore() {
+    store = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public String put(String key, String value) {
+    return store.put(key, value);
+  }
+
+  @Override
+  public String get(String key) {
+    return store.get(key);
+  }
+
+  @Override
+  public String delete(String key) {
+    return store.remove(key);
+  }
+
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    String[] previous = new String[1];
+    store.compute(key, (k, value) -> {
+      previous[0] = value;
+      return function.apply(value);
+    });
+    return previous[0];
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    store.forEach(action);
+  }
+
+  @Override
+  public long size() {
+    return store.mappingCount();
+  }
+}
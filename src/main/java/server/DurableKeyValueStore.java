@@ -0,0 +1,461 @@
+package server;
+
+import common.LoggerInterface;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that records every write in a {@link WriteAheadLog} before
+ * acknowledging it, and rebuilds the wrapped store on startup.
+ *
+ * <p>A write is logged and applied while holding a lock stripe chosen by its key, so the
+ * log order of any one key matches the order its writes were applied and replay ends in
+ * the same state. Waiting for durability happens after the stripe is released, which lets
+ * concurrent writers share one fsync. A reader may therefore see a value shortly before
+ * its writer has been acknowledged.
+ *
+ * <p>The log is split into numbered segments ({@code <wal>.<generation>}). A background
+ * {@link Snapshot} starts a new segment, copies the store while writes continue, and then
+ * deletes the segments it covers. Because the copy may already contain some writes of the
+ * new segment, restart loads the snapshot and replays the segments from the snapshot's
+ * generation on; replaying a key's writes in order over any of its intermediate values
+ * ends at its final value.
+ */
+public class DurableKeyValueStore implements KeyValueStore {
+  private static final int STRIPES = 64;
+
+  private final KeyValueStore store;
+  private final LoggerInterface logger;
+  private final Path walPath;
+  private final Path snapshotPath;
+  private final WriteAheadLog.SyncMode syncMode;
+  private final long syncIntervalMs;
+  private final long snapshotWalBytes;
+  private final long snapshotIntervalNanos;
+  private final Object[] stripes = new Object[STRIPES];
+  private final Object snapshotLock = new Object();
+  private volatile WriteAheadLog log;
+  private long generation;
+  private long lastSnapshotNanos = System.nanoTime();
+  private ScheduledExecutorService snapshotScheduler;
+
+  /**
+   * Constructs the decorator; {@link #open} performs recovery and opens the first segment.
+   */
+  private DurableKeyValueStore(KeyValueStore store, ServerConfig config, LoggerInterface logger) {
+    this.store = store;
+    this.logger = logger;
+    this.walPath = Paths.get(config.getString("wal", "kvstore.wal"));
+    this.snapshotPath = Paths.get(config.getString("snapshot", walPath + ".snapshot"));
+    this.syncMode = WriteAheadLog.SyncMode.valueOf(config.getString("wal-sync", "always").toUpperCase());
+    this.syncIntervalMs = config.getLong("wal-sync-interval-ms", 1000);
+    this.snapshotWalBytes = config.getLong("snapshot-wal-bytes", 64L << 20);
+    this.snapshotIntervalNanos = TimeUnit.SECONDS.toNanos(config.getLong("snapshot-interval-s", 300));
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Rebuilds the store from the snapshot and the write-ahead log segments named by the
+   * "wal" and "snapshot" options, then opens a new segment for appending.
+   *
+   * <p>Options: "wal-sync" (always, interval or os; default always) and
+   * "wal-sync-interval-ms" (default 1000) control durability. A background snapshot is
+   * taken once the current segment reaches "snapshot-wal-bytes" (default 64 MB), or every
+   * "snapshot-interval-s" seconds (default 300) if anything was written; 0 disables either
+   * trigger.
+   *
+   * @param store The empty store to rebuild.
+   * @param config The server configuration.
+   * @param logger The logger for recovery, snapshots and log failures.
+   * @return The durable store.
+   * @throws IOException If persisted data cannot be read or the log cannot be opened.
+   */
+  public static DurableKeyValueStore open(KeyValueStore store, ServerConfig config,
+      LoggerInterface logger) throws IOException {
+    DurableKeyValueStore durable = new DurableKeyValueStore(store, config, logger);
+    durable.recover();
+    durable.startSnapshotScheduler();
+    return durable;
+  }
+
+  @Override
+  public String put(String key, String value) {
+    WriteAheadLog current;
+    long seq;
+    String previous;
+    synchronized (stripe(key)) {
+      current = log;
+      seq = current.append(WriteAheadLog.OP_PUT, key, value);
+      previous = store.put(key, value);
+    }
+    current.awaitDurable(seq);
+    return previous;
+  }
+
+  @Override
+  public String get(String key) {
+    return store.get(key);
+  }
+
+  @Override
+  public String delete(String key) {
+    WriteAheadLog current;
+    long seq;
+    String removed;
+    synchronized (stripe(key)) {
+      current = log;
+      seq = current.append(WriteAheadLog.OP_DELETE, key, null);
+      removed = store.delete(key);
+    }
+    current.awaitDurable(seq);
+    return removed;
+  }
+
+  /**
+   * Applies the update first, since its result is not known until then, and logs the
+   * outcome before releasing the stripe: a put of the new value, carrying the key's expiry
+   * if it has one, or a delete. An update that changes nothing is not logged.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    WriteAheadLog current;
+    long seq;
+    String previous;
+    synchronized (stripe(key)) {
+      String[] next = new String[1];
+      previous = store.update(key, value -> next[0] = function.apply(value));
+      if (next[0] == previous) {
+        return previous;
+      }
+      current = log;
+      if (next[0] == null) {
+        seq = current.append(WriteAheadLog.OP_DELETE, key, null);
+      } else {
+        long expiresAtMillis = store.expiresAt(key);
+        seq = expiresAtMillis > 0
+            ? current.append(WriteAheadLog.OP_PUT_EXPIRING, key, next[0], expiresAtMillis)
+            : current.append(WriteAheadLog.OP_PUT, key, next[0]);
+      }
+    }
+    current.awaitDurable(seq);
+    return previous;
+  }
+
+  /**
+   * Logs the put with its absolute expiry time, so a key that expired while the server
+   * was down is deleted again on replay.
+   */
+  @Override
+  public String putExpiring(String key, String value, long expiresAtMillis) {
+    WriteAheadLog current;
+    long seq;
+    String previous;
+    synchronized (stripe(key)) {
+      current = log;
+      seq = current.append(WriteAheadLog.OP_PUT_EXPIRING, key, value, expiresAtMillis);
+      previous = store.putExpiring(key, value, expiresAtMillis);
+    }
+    current.awaitDurable(seq);
+    return previous;
+  }
+
+  @Override
+  public long expiresAt(String key) {
+    return store.expiresAt(key);
+  }
+
+  /**
+   * Logs a persisted key as a plain put of its value. Replay may run after the old expiry
+   * time, when the logged expiring put has already deleted the key; the put restores it.
+   */
+  @Override
+  public boolean persist(String key) {
+    WriteAheadLog current;
+    long seq;
+    synchronized (stripe(key)) {
+      if (!store.persist(key)) {
+        return false;
+      }
+      String value = store.get(key);
+      current = log;
+      seq = value != null
+          ? current.append(WriteAheadLog.OP_PUT, key, value)
+          : current.append(WriteAheadLog.OP_DELETE, key, null);
+    }
+    current.awaitDurable(seq);
+    return true;
+  }
+
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) {
+    return store.getAll(keys);
+  }
+
+  /**
+   * Logs and applies every pair, then waits once for the whole batch to be durable.
+   */
+  @Override
+  public Map<String, String> putAll(Map<String, String> entries) {
+    Map<String, String> previous = new LinkedHashMap<>();
+    WriteAheadLog current = null;
+    long seq = 0;
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      synchronized (stripe(entry.getKey())) {
+        current = awaitIfRotated(current, seq);
+        seq = current.append(WriteAheadLog.OP_PUT, entry.getKey(), entry.getValue());
+        previous.put(entry.getKey(), store.put(entry.getKey(), entry.getValue()));
+      }
+    }
+    if (current != null) {
+      current.awaitDurable(seq);
+    }
+    return previous;
+  }
+
+  /**
+   * Logs and applies every delete, then waits once for the whole batch to be durable.
+   */
+  @Override
+  public Map<String, String> deleteAll(Collection<String> keys) {
+    Map<String, String> removed = new LinkedHashMap<>();
+    WriteAheadLog current = null;
+    long seq = 0;
+    for (String key : keys) {
+      String value;
+      synchronized (stripe(key)) {
+        current = awaitIfRotated(current, seq);
+        seq = current.append(WriteAheadLog.OP_DELETE, key, null);
+        value = store.delete(key);
+      }
+      if (value != null || !removed.containsKey(key)) {
+        removed.put(key, value);
+      }
+    }
+    if (current != null) {
+      current.awaitDurable(seq);
+    }
+    return removed;
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    store.forEach(action);
+  }
+
+  @Override
+  public List<String> scan(String from, String to, int limit) {
+    return store.scan(from, to, limit);
+  }
+
+  @Override
+  public long size() {
+    return store.size();
+  }
+
+  @Override
+  public long memoryBytes() {
+    return store.memoryBytes();
+  }
+
+  /**
+   * Writes a snapshot now: starts a new log segment, copies the store to the snapshot
+   * file while writes continue, and deletes the segments the snapshot covers. Only one
+   * snapshot runs at a time.
+   *
+   * @return The number of entries written.
+   * @throws IOException If the snapshot cannot be written.
+   */
+  public long snapshot() throws IOException {
+    synchronized (snapshotLock) {
+      long startGeneration = rotate();
+      long entries = Snapshot.write(snapshotPath, startGeneration, store);
+      for (long segment : listSegments()) {
+        if (segment < startGeneration) {
+          Files.deleteIfExists(segmentPath(segment));
+        }
+      }
+      lastSnapshotNanos = System.nanoTime();
+      return entries;
+    }
+  }
+
+  /**
+   * Stops background snapshots, flushes and closes the log, then closes the wrapped store.
+   */
+  @Override
+  public void close() {
+    if (snapshotScheduler != null) {
+      snapshotScheduler.shutdownNow();
+    }
+    synchronized (snapshotLock) {
+      log.close();
+    }
+    store.close();
+  }
+
+  /**
+   * Loads the snapshot, replays newer segments in order, and opens the next segment.
+   */
+  private void recover() throws IOException {
+    long startGeneration = 0;
+    if (Files.exists(snapshotPath)) {
+      long begin = System.nanoTime();
+      startGeneration = Snapshot.load(snapshotPath, store);
+      logger.log("INFO", "Loaded snapshot " + snapshotPath + " in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+    }
+
+    long records = 0;
+    long lastSegment = startGeneration - 1;
+    for (long segment : listSegments()) {
+      if (segment < startGeneration) {
+        Files.deleteIfExists(segmentPath(segment));
+        continue;
+      }
+      long replayed = WriteAheadLog.replay(segmentPath(segment), this::apply);
+      if (replayed == 0) {
+        Files.deleteIfExists(segmentPath(segment));
+      }
+      records += replayed;
+      lastSegment = segment;
+    }
+    logger.log("INFO", "Replayed " + records + " write-ahead log records from " + walPath + ".*");
+
+    generation = lastSegment + 1;
+    log = new WriteAheadLog(segmentPath(generation), syncMode, syncIntervalMs, logger);
+  }
+
+  /**
+   * Applies one replayed log record to the wrapped store.
+   */
+  private void apply(byte op, String key, String value, long expiresAtMillis) {
+    switch (op) {
+      case WriteAheadLog.OP_PUT:
+        store.put(key, value);
+        break;
+      case WriteAheadLog.OP_DELETE:
+        store.delete(key);
+        break;
+      case WriteAheadLog.OP_PUT_EXPIRING:
+        store.putExpiring(key, value, expiresAtMillis);
+        break;
+      default:
+        throw new IllegalStateException("Unknown log record type: " + op);
+    }
+  }
+
+  /**
+   * Switches writers to a new segment. All stripes are held for the switch, so every
+   * write logged in the old segment has also been applied to the store before the
+   * snapshot starts copying it.
+   *
+   * @return The generation of the new segment.
+   */
+  private long rotate() throws IOException {
+    WriteAheadLog previous = log;
+    WriteAheadLog next = new WriteAheadLog(segmentPath(generation + 1), syncMode, syncIntervalMs,
+        logger);
+    holdAllStripes(0, () -> {
+      log = next;
+      generation++;
+    });
+    previous.close();
+    return generation;
+  }
+
+  private void holdAllStripes(int index, Runnable action) {
+    if (index == STRIPES) {
+      action.run();
+      return;
+    }
+    synchronized (stripes[index]) {
+      holdAllStripes(index + 1, action);
+    }
+  }
+
+  /**
+   * Returns the current log for the next record of a batch. If the log was rotated
+   * mid-batch, first waits for the batch's records in the old log to become durable.
+   */
+  private WriteAheadLog awaitIfRotated(WriteAheadLog current, long seq) {
+    WriteAheadLog latest = log;
+    if (current != null && current != latest) {
+      current.awaitDurable(seq);
+    }
+    return latest;
+  }
+
+  private void startSnapshotScheduler() {
+    if (snapshotWalBytes <= 0 && snapshotIntervalNanos <= 0) {
+      return;
+    }
+    snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "snapshot-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfDue, 1, 1, TimeUnit.SECONDS);
+  }
+
+  private void snapshotIfDue() {
+    long walBytes = log.appendedBytes();
+    boolean sizeDue = snapshotWalBytes > 0 && walBytes >= snapshotWalBytes;
+    boolean timeDue = snapshotIntervalNanos > 0 && walBytes > 0
+        && System.nanoTime() - lastSnapshotNanos >= snapshotIntervalNanos;
+    if (!sizeDue && !timeDue) {
+      return;
+    }
+    try {
+      long begin = System.nanoTime();
+      long entries = snapshot();
+      logger.log("INFO", "Wrote snapshot of " + entries + " entries in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+    } catch (IOException | UncheckedIOException e) {
+      logger.log("ERROR", "Snapshot to " + snapshotPath + " failed: " + e.getMessage());
+    }
+  }
+
+  private Path segmentPath(long segment) {
+    return walPath.resolveSibling(walPath.getFileName() + "." + segment);
+  }
+
+  /**
+   * Returns the generations of the existing log segments, oldest first.
+   */
+  private List<Long> listSegments() throws IOException {
+    Path directory = walPath.toAbsolutePath().getParent();
+    String prefix = walPath.getFileName() + ".";
+    List<Long> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+      for (Path file : files) {
+        String suffix = file.getFileName().toString().substring(prefix.length());
+        if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+          segments.add(Long.parseLong(suffix));
+        }
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private Object stripe(String key) {
+    return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+  }
+}
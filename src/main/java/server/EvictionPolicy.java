@@ -0,0 +1,52 @@
+package server;
+
+/**
+ * Chooses what a {@link BoundedKeyValueStore} evicts once it exceeds its memory budget.
+ */
+interface EvictionPolicy {
+
+  /**
+   * Returns the region new keys are placed in.
+   *
+   * @return {@link BoundedKeyValueStore#WINDOW} or {@link BoundedKeyValueStore#MAIN}.
+   */
+  int admissionRegion();
+
+  /**
+   * Notes a read or write of a key. Called on every access without any store lock held,
+   * so it must be cheap and thread-safe.
+   *
+   * @param key The key accessed.
+   */
+  void recordAccess(String key);
+
+  /**
+   * Evicts (and, for policies with several regions, moves) entries until the store is
+   * back within its budget. Called after each write, possibly by several writers at once.
+   *
+   * @param store The store to trim.
+   */
+  void enforce(BoundedKeyValueStore store);
+
+  /**
+   * Creates the policy named by the "eviction" option: "lru" (sampled LRU, the default)
+   * or "tinylfu" (W-TinyLFU).
+   *
+   * @param config The server configuration.
+   * @param maxBytes The memory budget of the store.
+   * @return The policy.
+   * @throws IllegalArgumentException If the policy name is unknown.
+   */
+  static EvictionPolicy create(ServerConfig config, long maxBytes) {
+    String name = config.getString("eviction", "lru").toLowerCase();
+    int samples = config.getInt("eviction-samples", 5);
+    switch (name) {
+      case "lru":
+        return new SampledLruPolicy(samples);
+      case "tinylfu":
+        return new TinyLfuPolicy(samples, maxBytes);
+      default:
+        throw new IllegalArgumentException("Unknown eviction policy: " + name);
+    }
+  }
+}
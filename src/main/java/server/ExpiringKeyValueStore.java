@@ -0,0 +1,348 @@
+package server;
+
+import common.LoggerInterface;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that adds per-key expiry to a store.
+ *
+ * <p>Expiring keys are tracked in a map from key to {@link TimingWheel.Timer}. Expired keys
+ * are removed lazily, when a read finds its key past its deadline, and actively, when the
+ * key's timer fires on the timing wheel, so keys that are never read again are still
+ * reclaimed without scanning the store. Replacing or persisting a key leaves its old timer
+ * in the wheel; when it fires it no longer matches the key's current timer and is ignored.
+ *
+ * <p>Writes take a lock stripe chosen by the key, so an expiry never deletes a value
+ * written after the expired one. Batch writes take the stripes of all their keys, in
+ * stripe order, and pass the batch to the wrapped store in one call, so engines that lock
+ * once per batch still do. Reads of keys without an expiry pay one map lookup, or
+ * nothing while no key has an expiry.
+ */
+public class ExpiringKeyValueStore implements KeyValueStore {
+  private static final int STRIPES = 64;
+
+  private final KeyValueStore store;
+  private final long tickMillis;
+  private final LoggerInterface logger;
+  private final ConcurrentHashMap<String, TimingWheel.Timer> expiries = new ConcurrentHashMap<>();
+  private final Object[] stripes = new Object[STRIPES];
+  private final AtomicLong expired = new AtomicLong();
+  private volatile TimingWheel wheel;
+
+  /**
+   * Constructs an expiring view of a store. The timing wheel thread starts with the first
+   * expiring write.
+   *
+   * @param store The store to add expiry to.
+   * @param tickMillis The resolution of active expiry.
+   * @param logger The logger for failed active expiries.
+   */
+  public ExpiringKeyValueStore(KeyValueStore store, long tickMillis, LoggerInterface logger) {
+    this.store = store;
+    this.tickMillis = tickMillis;
+    this.logger = logger;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  @Override
+  public String put(String key, String value) {
+    synchronized (stripe(key)) {
+      String previous = store.put(key, value);
+      TimingWheel.Timer timer = expiries.remove(key);
+      return timer != null && isExpired(timer) ? null : previous;
+    }
+  }
+
+  @Override
+  public String putExpiring(String key, String value, long expiresAtMillis) {
+    if (expiresAtMillis <= System.currentTimeMillis()) {
+      return delete(key);
+    }
+    TimingWheel.Timer timer = new TimingWheel.Timer(key, expiresAtMillis);
+    String previous;
+    synchronized (stripe(key)) {
+      previous = store.put(key, value);
+      TimingWheel.Timer replaced = expiries.put(key, timer);
+      if (replaced != null && isExpired(replaced)) {
+        previous = null;
+      }
+    }
+    wheel().schedule(timer);
+    return previous;
+  }
+
+  @Override
+  public String get(String key) {
+    String value = store.get(key);
+    if (value == null || expiries.isEmpty()) {
+      return value;
+    }
+    TimingWheel.Timer timer = expiries.get(key);
+    if (timer != null && isExpired(timer)) {
+      expire(timer);
+      return null;
+    }
+    return value;
+  }
+
+  @Override
+  public String delete(String key) {
+    synchronized (stripe(key)) {
+      String removed = store.delete(key);
+      TimingWheel.Timer timer = expiries.remove(key);
+      return timer != null && isExpired(timer) ? null : removed;
+    }
+  }
+
+  /**
+   * Removes the key first if it has expired, so the function sees it as absent. An update
+   * that keeps the key keeps its expiry, as an increment or append should.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    synchronized (stripe(key)) {
+      TimingWheel.Timer timer = expiries.get(key);
+      if (timer != null && isExpired(timer)) {
+        expire(timer);
+      }
+      String[] next = new String[1];
+      String previous = store.update(key, value -> next[0] = function.apply(value));
+      if (next[0] == null) {
+        expiries.remove(key);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) {
+    Map<String, String> values = store.getAll(keys);
+    if (expiries.isEmpty()) {
+      return values;
+    }
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      TimingWheel.Timer timer = entry.getValue() != null ? expiries.get(entry.getKey()) : null;
+      if (timer != null && isExpired(timer)) {
+        expire(timer);
+        entry.setValue(null);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public Map<String, String> putAll(Map<String, String> entries) {
+    return withStripes(entries.keySet(), () -> {
+      Map<String, String> previous = store.putAll(entries);
+      forgetExpiries(previous);
+      return previous;
+    });
+  }
+
+  @Override
+  public Map<String, String> deleteAll(Collection<String> keys) {
+    return withStripes(keys, () -> {
+      Map<String, String> removed = store.deleteAll(keys);
+      forgetExpiries(removed);
+      return removed;
+    });
+  }
+
+  @Override
+  public long expiresAt(String key) {
+    if (get(key) == null) {
+      return MISSING;
+    }
+    TimingWheel.Timer timer = expiries.get(key);
+    return timer != null ? timer.deadlineMillis : NO_EXPIRY;
+  }
+
+  @Override
+  public boolean persist(String key) {
+    synchronized (stripe(key)) {
+      TimingWheel.Timer timer = expiries.get(key);
+      if (timer == null) {
+        return false;
+      }
+      if (isExpired(timer)) {
+        expire(timer);
+        return false;
+      }
+      expiries.remove(key);
+      return true;
+    }
+  }
+
+  /**
+   * Lists keys in order, skipping keys that have expired but have not yet been removed,
+   * and reading further to make up for them.
+   */
+  @Override
+  public List<String> scan(String from, String to, int limit) {
+    List<String> keys = store.scan(from, to, limit);
+    if (expiries.isEmpty()) {
+      return keys;
+    }
+    List<String> live = new ArrayList<>(keys.size());
+    while (true) {
+      int requested = limit - live.size();
+      for (String key : keys) {
+        TimingWheel.Timer timer = expiries.get(key);
+        if (timer == null || !isExpired(timer)) {
+          live.add(key);
+        }
+      }
+      if (live.size() == limit || keys.size() < requested) {
+        return live;
+      }
+      keys = store.scan(keys.get(keys.size() - 1) + '\0', to, limit - live.size());
+    }
+  }
+
+  /**
+   * Visits every pair that has not expired.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    long now = System.currentTimeMillis();
+    store.forEach((key, value) -> {
+      TimingWheel.Timer timer = expiries.get(key);
+      if (timer == null || timer.deadlineMillis > now) {
+        action.accept(key, value);
+      }
+    });
+  }
+
+  /**
+   * Returns the wrapped store's key count, which includes keys that have expired but
+   * have not yet been removed by a read or the timing wheel.
+   */
+  @Override
+  public long size() {
+    return store.size();
+  }
+
+  @Override
+  public long memoryBytes() {
+    return store.memoryBytes();
+  }
+
+  /**
+   * Stops the timing wheel, then closes the wrapped store.
+   */
+  @Override
+  public void close() {
+    TimingWheel current = wheel;
+    if (current != null) {
+      current.close();
+    }
+    store.close();
+  }
+
+  /**
+   * Returns how many keys have expired since the store was created.
+   *
+   * @return The expired key count.
+   */
+  public long expiredCount() {
+    return expired.get();
+  }
+
+  /**
+   * Returns how many keys currently have an expiry.
+   *
+   * @return The number of expiring keys.
+   */
+  public long expiringCount() {
+    return expiries.mappingCount();
+  }
+
+  /**
+   * Deletes a timer's key if the timer is still the key's current expiry. Called by the
+   * timing wheel and by reads that find an expired key.
+   */
+  private void expire(TimingWheel.Timer timer) {
+    synchronized (stripe(timer.key)) {
+      if (expiries.remove(timer.key, timer)) {
+        store.delete(timer.key);
+        expired.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Drops the expiries of keys just written or deleted, reporting keys that had already
+   * expired as absent. Called under the keys' stripes.
+   */
+  private void forgetExpiries(Map<String, String> previous) {
+    if (expiries.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, String> entry : previous.entrySet()) {
+      TimingWheel.Timer timer = expiries.remove(entry.getKey());
+      if (timer != null && isExpired(timer)) {
+        entry.setValue(null);
+      }
+    }
+  }
+
+  /**
+   * Runs an action holding the stripes of all the keys. Stripes are taken in index order,
+   * so batches cannot deadlock with each other or with single-key writes.
+   */
+  private <T> T withStripes(Collection<String> keys, Supplier<T> action) {
+    boolean[] needed = new boolean[STRIPES];
+    for (String key : keys) {
+      needed[stripeIndex(key)] = true;
+    }
+    return withStripes(needed, 0, action);
+  }
+
+  private <T> T withStripes(boolean[] needed, int from, Supplier<T> action) {
+    int index = from;
+    while (index < STRIPES && !needed[index]) {
+      index++;
+    }
+    if (index == STRIPES) {
+      return action.get();
+    }
+    synchronized (stripes[index]) {
+      return withStripes(needed, index + 1, action);
+    }
+  }
+
+  private TimingWheel wheel() {
+    TimingWheel current = wheel;
+    if (current == null) {
+      synchronized (this) {
+        current = wheel;
+        if (current == null) {
+          current = wheel = new TimingWheel(tickMillis, this::expire, logger);
+        }
+      }
+    }
+    return current;
+  }
+
+  private static boolean isExpired(TimingWheel.Timer timer) {
+    return timer.deadlineMillis <= System.currentTimeMillis();
+  }
+
+  private Object stripe(String key) {
+    return stripes[stripeIndex(key)];
+  }
+
+  private static int stripeIndex(String key) {
+    return (key.hashCode() & 0x7fffffff) % STRIPES;
+  }
+}
@@ -0,0 +1,61 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the expiry commands: PUT with an {@code EX <seconds>} suffix, TTL and PERSIST.
+ *
+ * <p>PUT values may contain spaces, so {@link CommandEngine} reads a value ending in
+ * {@code EX <seconds>} as an expiring put of the text before it. TTL answers
+ * {@code TTL_SUCCESS: <seconds>} (rounded to the nearest second) or {@code TTL_SUCCESS: -1}
+ * for a key without an expiry.
+ */
+final class ExpiryCommands {
+  private ExpiryCommands() {
+  }
+
+  /**
+   * Stores a "PUT key value EX seconds" request.
+   *
+   * @param store The store to write to.
+   * @param key The key.
+   * @param value The value, without the expiry suffix.
+   * @param seconds The time to live.
+   * @return The response.
+   */
+  static String putExpiring(KeyValueStore store, String key, String value, long seconds) {
+    if (seconds <= 0) return "ERROR: Invalid expire time in PUT command";
+    try {
+      store.putExpiring(key, value, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds));
+    } catch (UnsupportedOperationException e) {
+      return "ERROR: Expiry is not supported by this store";
+    }
+    return "PUT_SUCCESS";
+  }
+
+  /**
+   * Reports the remaining time to live of a key.
+   *
+   * @param store The store to read from.
+   * @param key The key.
+   * @return The response.
+   */
+  static String ttl(KeyValueStore store, String key) {
+    long expiresAt = store.expiresAt(key);
+    if (expiresAt == KeyValueStore.MISSING) return "TTL_FAILURE: Key not found";
+    if (expiresAt == KeyValueStore.NO_EXPIRY) return "TTL_SUCCESS: -1";
+    long remainingMillis = Math.max(0, expiresAt - System.currentTimeMillis());
+    return "TTL_SUCCESS: " + (remainingMillis + 500) / 1000;
+  }
+
+  /**
+   * Removes the expiry of a key.
+   *
+   * @param store The store to write to.
+   * @param key The key.
+   * @return The response.
+   */
+  static String persist(KeyValueStore store, String key) {
+    return store.persist(key) ? "PERSIST_SUCCESS" : "PERSIST_FAILURE: Key not found or has no expiry";
+  }
+}
@@ -1,23 +1,21 @@
 package server;
 
-import java.util.HashMap;
-// For future use with multithreading
-// we can import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
 /**
- * Simple key-value store.
+ * Storage engine for key-value pairs. Implementations must be safe for use by
+ * many connection handlers at once.
  */
-public class KeyValueStore {
-  private final HashMap<String, String> store;
-
-  /**
-   * Constructs a new KeyValueStore.
-   */
-  public KeyValueStore() {
-    // For multithreading, consider using ConcurrentHashMap
-    // store = new ConcurrentHashMap<>();
-    store = new HashMap<>();
-  }
+public interface KeyValueStore {
+  /** Returned by {@link #expiresAt} for a key that never expires. */
+  long NO_EXPIRY = 0;
+  /** Returned by {@link #expiresAt} for a key that is not in the store. */
+  long MISSING = -1;
 
   /**
    * Inserts or updates a key-value pair.
@@ -26,9 +24,7 @@ public class KeyValueStore {
    * @param value The value to associate with the key.
    * @return The previous value associated with the key, or null if none.
    */
-  public synchronized String put(String key, String value) {
-    return store.put(key, value);
-  }
+  String put(String key, String value);
 
   /**
    * Retrieves the value for the given key.
@@ -36,9 +32,7 @@ public class KeyValueStore {
    * @param key The key to retrieve.
    * @return The value associated with the key, or null if not found.
    */
-  public synchronized String get(String key) {
-    return store.get(key);
-  }
+  String get(String key);
 
   /**
    * Removes the key-value pair for the given key.
@@ -46,7 +40,182 @@ public class KeyValueStore {
    * @param key The key to delete.
    * @return The removed value, or null if the key was not found.
    */
-  public synchronized String delete(String key) {
-    return store.remove(key);
+  String delete(String key);
+
+  /**
+   * Atomically replaces a key's value with a function of its current value, for
+   * read-modify-write commands such as INCR and CAS: no other write to the key comes
+   * between the read and the write. Engines lock no more than the key's stripe or bin.
+   *
+   * @param key The key to update.
+   * @param function Maps the current value, or null if the key is absent, to the new value,
+   *     or to null to delete the key; returning its argument leaves the key as it is. It may
+   *     run on another thread while locks are held, so it must be quick and must not use
+   *     the store. An exception it throws leaves the key unchanged and is rethrown.
+   * @return The value before the update, or null if the key was absent.
+   */
+  String update(String key, UnaryOperator<String> function);
+
+  /**
+   * Retrieves the values for several keys. Engines that lock override this to take
+   * their lock once for the whole batch.
+   *
+   * @param keys The keys to retrieve.
+   * @return Each distinct key, in request order, mapped to its value or null if not found.
+   */
+  default Map<String, String> getAll(Collection<String> keys) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String key : keys) {
+      values.put(key, get(key));
+    }
+    return values;
+  }
+
+  /**
+   * Inserts or updates several key-value pairs.
+   *
+   * @param entries The pairs to store.
+   * @return Each key mapped to its previous value, or null if none.
+   */
+  default Map<String, String> putAll(Map<String, String> entries) {
+    Map<String, String> previous = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      previous.put(entry.getKey(), put(entry.getKey(), entry.getValue()));
+    }
+    return previous;
+  }
+
+  /**
+   * Removes several keys.
+   *
+   * @param keys The keys to delete.
+   * @return Each distinct key, in request order, mapped to its removed value or null if
+   *     it was not found.
+   */
+  default Map<String, String> deleteAll(Collection<String> keys) {
+    Map<String, String> removed = new LinkedHashMap<>();
+    for (String key : keys) {
+      String value = delete(key);
+      // A repeated key must not hide the value removed by its first occurrence
+      if (value != null || !removed.containsKey(key)) {
+        removed.put(key, value);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Inserts or updates a key-value pair that expires at the given time. A plain
+   * {@link #put} of the key later removes the expiry. Only engines wrapped in
+   * {@link ExpiringKeyValueStore} track expiry.
+   *
+   * @param key The key to insert.
+   * @param value The value to associate with the key.
+   * @param expiresAtMillis When the pair expires, in epoch milliseconds; a time in the
+   *     past deletes the key.
+   * @return The previous value associated with the key, or null if none.
+   * @throws UnsupportedOperationException If the store does not track expiry.
+   */
+  default String putExpiring(String key, String value, long expiresAtMillis) {
+    throw new UnsupportedOperationException("Store does not support expiry");
+  }
+
+  /**
+   * Returns when a key expires.
+   *
+   * @param key The key to look up.
+   * @return The expiry time in epoch milliseconds, {@link #NO_EXPIRY} if the key never
+   *     expires, or {@link #MISSING} if it is not in the store.
+   */
+  default long expiresAt(String key) {
+    return get(key) != null ? NO_EXPIRY : MISSING;
+  }
+
+  /**
+   * Removes a key's expiry so that it is kept until deleted.
+   *
+   * @param key The key to persist.
+   * @return True if the key existed and had an expiry.
+   */
+  default boolean persist(String key) {
+    return false;
+  }
+
+  /**
+   * Lists keys in ascending order. Only engines wrapped in {@link OrderedKeyValueStore}
+   * keep their keys in order.
+   *
+   * @param from The first key to list, if present.
+   * @param to The key to stop before, or null to continue to the last key.
+   * @param limit The most keys to list.
+   * @return Up to {@code limit} keys from {@code from} (inclusive) to {@code to} (exclusive).
+   * @throws UnsupportedOperationException If the store has no ordered index.
+   */
+  default List<String> scan(String from, String to, int limit) {
+    throw new UnsupportedOperationException("Store has no ordered index");
+  }
+
+  /**
+   * Visits every key-value pair. Writes made during the traversal may or may not be seen,
+   * but each pair seen was present at some point during it.
+   *
+   * @param action Receives each key and its value.
+   */
+  void forEach(BiConsumer<String, String> action);
+
+  /**
+   * Returns the number of keys. The default counts them with {@link #forEach}; engines
+   * that keep a count override it.
+   *
+   * @return The number of keys, which may include expired keys not yet removed.
+   */
+  default long size() {
+    long[] count = new long[1];
+    forEach((key, value) -> count[0]++);
+    return count[0];
+  }
+
+  /**
+   * Returns an estimate of the memory held by the stored pairs.
+   *
+   * @return The estimated size in bytes, or -1 if the engine does not track it.
+   */
+  default long memoryBytes() {
+    return -1;
+  }
+
+  /**
+   * Releases resources held by the store, such as files or threads. In-memory engines
+   * hold none.
+   */
+  default void close() {
+  }
+
+  /**
+   * Creates the store engine named by the "store" option: "concurrent" (the default),
+   * "synchronized", "offheap", "compact" or "sharded", which has one shard per processor
+   * unless the "shards" option says otherwise.
+   *
+   * @param config The server configuration.
+   * @return A new, empty store.
+   * @throws IllegalArgumentException If the engine name is unknown.
+   */
+  static KeyValueStore create(ServerConfig config) {
+    String engine = config.getString("store", "concurrent").toLowerCase();
+    switch (engine) {
+      case "concurrent":
+        return new ConcurrentKeyValueStore();
+      case "synchronized":
+        return new SynchronizedKeyValueStore();
+      case "offheap":
+        return new OffHeapKeyValueStore();
+      case "compact":
+        return new CompactKeyValueStore();
+      case "sharded":
+        return new ShardedKeyValueStore(
+            config.getInt("shards", Runtime.getRuntime().availableProcessors()));
+      default:
+        throw new IllegalArgumentException("Unknown store engine: " + engine);
+    }
   }
 }
@@ -0,0 +1,363 @@
+package server;
+
+import common.LoggerInterface;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking TCP server speaking the same newline-terminated text protocol as
+ * {@link TCPServer}. One acceptor thread hands connections round-robin to a fixed set of
+ * event loops, each multiplexing its connections on a {@link Selector}, so idle clients
+ * cost a few buffers instead of a thread.
+ */
+public class NioTCPServer implements ServerInterface {
+  /** Initial size of each connection's read and write buffers. */
+  public static final int DEFAULT_BUFFER_SIZE = 4096;
+  /** Longest request line accepted before the connection is dropped. */
+  public static final int DEFAULT_MAX_REQUEST_BYTES = 1 << 20;
+  private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+  private final int port;
+  private final KeyValueStore store;
+  private final LoggerInterface logger;
+  private final ServerMetrics metrics;
+  private final int bufferSize;
+  private final int maxRequestBytes;
+  private final EventLoop[] eventLoops;
+  private final AtomicBoolean stopped = new AtomicBoolean(false);
+  private ServerSocketChannel serverChannel;
+
+  /**
+   * Constructs a non-blocking TCP server on the specified port that serves the given store.
+   * Reads the "event-loops", "buffer-size" and "max-request-bytes" options and the
+   * {@link ServerMetrics} options.
+   *
+   * @param port The port on which the server will run.
+   * @param store The key-value store shared by all connections.
+   * @param config The server configuration.
+   */
+  public NioTCPServer(int port, KeyValueStore store, ServerConfig config) {
+    int loopCount = config.getInt("event-loops", Runtime.getRuntime().availableProcessors());
+    if (loopCount <= 0) {
+      throw new IllegalArgumentException("event-loops must be positive: " + loopCount);
+    }
+    this.port = port;
+    this.store = store;
+    this.logger = config.createLogger("NioTCPServerLog.log");
+    this.metrics = new ServerMetrics(store, config, logger);
+    this.bufferSize = config.getInt("buffer-size", DEFAULT_BUFFER_SIZE);
+    this.maxRequestBytes = config.getInt("max-request-bytes", DEFAULT_MAX_REQUEST_BYTES);
+    this.eventLoops = new EventLoop[loopCount];
+  }
+
+  /**
+   * Starts the event loops and accepts connections on the calling thread.
+   */
+  @Override
+  public void execute() {
+    try {
+      for (int i = 0; i < eventLoops.length; i++) {
+        eventLoops[i] = new EventLoop(i);
+        eventLoops[i].start();
+      }
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(port));
+      metrics.start();
+      logger.log("INFO", "NioTCPServer running on port " + port
+          + " with " + eventLoops.length + " event loops");
+
+      int next = 0;
+      while (!stopped.get()) {
+        SocketChannel channel = serverChannel.accept();
+        logger.log("INFO", "Connection established with " + channel.getRemoteAddress());
+        eventLoops[next].register(channel);
+        next = (next + 1) % eventLoops.length;
+      }
+    } catch (IOException e) {
+      if (!stopped.get()) {
+        logger.log("ERROR", "Server error: " + e.getMessage());
+      }
+    } finally {
+      shutdown();
+    }
+  }
+
+  /**
+   * Returns the server's request, connection and traffic metrics.
+   *
+   * @return The metrics.
+   */
+  public ServerMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Shuts down the server: stops accepting, then stops every event loop, which closes
+   * its connections.
+   */
+  @Override
+  public void shutdown() {
+    if (!stopped.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      if (serverChannel != null && serverChannel.isOpen()) {
+        serverChannel.close();
+      }
+    } catch (IOException e) {
+      logger.log("ERROR", "Error closing server channel: " + e.getMessage());
+    }
+
+    for (EventLoop loop : eventLoops) {
+      if (loop != null) {
+        loop.selector.wakeup();
+      }
+    }
+    for (EventLoop loop : eventLoops) {
+      if (loop != null) {
+        try {
+          loop.thread.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    metrics.close();
+    logger.close();
+  }
+
+  /**
+   * Per-connection state: the channel plus its reusable read and write buffers.
+   * Both buffers are kept in fill mode between events.
+   */
+  private static class Connection {
+    private final SocketChannel channel;
+    private final String clientAddress;
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+
+    Connection(SocketChannel channel, String clientAddress, int bufferSize) {
+      this.channel = channel;
+      this.clientAddress = clientAddress;
+      this.readBuffer = ByteBuffer.allocateDirect(bufferSize);
+      this.writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    boolean hasPendingWrites() {
+      return writeBuffer.position() > 0;
+    }
+  }
+
+  /**
+   * A single-threaded selector loop owning a subset of the connections.
+   */
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final CommandEngine engine = new CommandEngine(store, logger, metrics, true);
+    // Scratch array for request lines; only touched by this loop's thread
+    private byte[] lineBytes = new byte[bufferSize];
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, "nio-event-loop-" + index);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    /**
+     * Hands a newly accepted channel to this loop. Registration happens on the loop
+     * thread, since registering while another thread is blocked in select() would stall.
+     *
+     * @param channel The accepted channel.
+     */
+    void register(SocketChannel channel) {
+      pendingChannels.add(channel);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped.get()) {
+          selector.select();
+          registerPendingChannels();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isWritable()) {
+                flush(key, connection);
+              }
+              if (key.isValid() && key.isReadable()) {
+                read(key, connection);
+              }
+            } catch (IOException e) {
+              metrics.recordError(ServerMetrics.IO);
+              logger.log("ERROR", "Client handling error: " + e.getMessage());
+              close(key);
+            }
+          }
+        }
+      } catch (IOException e) {
+        logger.log("ERROR", "Event loop error: " + e.getMessage());
+      } finally {
+        closeAll();
+      }
+    }
+
+    private void registerPendingChannels() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        try {
+          channel.configureBlocking(false);
+          Connection connection = new Connection(
+              channel, String.valueOf(channel.getRemoteAddress()), bufferSize);
+          channel.register(selector, SelectionKey.OP_READ, connection);
+          metrics.connectionOpened();
+        } catch (IOException e) {
+          logger.log("ERROR", "Error registering client: " + e.getMessage());
+          closeQuietly(channel);
+        }
+      }
+    }
+
+    /**
+     * Reads what is available, then answers every complete request line in the buffer.
+     */
+    private void read(SelectionKey key, Connection connection) throws IOException {
+      int bytesRead = connection.channel.read(connection.readBuffer);
+      if (bytesRead < 0) {
+        close(key);
+        return;
+      }
+      metrics.bytesIn(bytesRead);
+
+      ByteBuffer buffer = connection.readBuffer;
+      buffer.flip();
+      int lineStart = buffer.position();
+      for (int i = lineStart; i < buffer.limit(); i++) {
+        if (buffer.get(i) == '\n') {
+          handleLine(connection, lineStart, i);
+          lineStart = i + 1;
+        }
+      }
+      buffer.position(lineStart);
+      buffer.compact();
+
+      if (!buffer.hasRemaining()) {
+        // A partial line fills the whole buffer; grow it up to the request limit
+        if (buffer.capacity() >= maxRequestBytes) {
+          logger.log("WARNING", "Request too large from " + connection.clientAddress);
+          metrics.recordError(ServerMetrics.TOO_LARGE);
+          close(key);
+          return;
+        }
+        connection.readBuffer = grow(buffer, Math.min(buffer.capacity() * 2, maxRequestBytes));
+      }
+      flush(key, connection);
+    }
+
+    /**
+     * Executes one request line and queues the response.
+     */
+    private void handleLine(Connection connection, int start, int end) {
+      if (end > start && connection.readBuffer.get(end - 1) == '\r') {
+        end--;
+      }
+      int length = end - start;
+      if (lineBytes.length < length) {
+        lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+      }
+      connection.readBuffer.get(start, lineBytes, 0, length);
+
+      ByteBuffer output = engine.execute(
+          lineBytes, 0, length, connection.writeBuffer, connection.clientAddress);
+      if (!output.hasRemaining()) {
+        output = CommandEngine.grow(output, output.capacity() * 2);
+      }
+      connection.writeBuffer = output.put((byte) '\n');
+      if (logger.isLoggable("INFO")) {
+        logger.log("INFO", "Processed request: "
+            + new String(lineBytes, 0, length, StandardCharsets.UTF_8));
+      }
+    }
+
+    /**
+     * Writes as much queued output as the socket accepts. While output is pending the
+     * connection waits for OP_WRITE and stops reading, so a client that does not read its
+     * responses cannot make the server buffer without bound.
+     */
+    private void flush(SelectionKey key, Connection connection) throws IOException {
+      ByteBuffer buffer = connection.writeBuffer;
+      if (connection.hasPendingWrites()) {
+        buffer.flip();
+        metrics.bytesOut(connection.channel.write(buffer));
+        buffer.compact();
+      }
+      key.interestOps(connection.hasPendingWrites() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer, int capacity) {
+      ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+      buffer.flip();
+      larger.put(buffer);
+      return larger;
+    }
+
+    private void close(SelectionKey key) {
+      key.cancel();
+      closeQuietly(key.channel());
+      metrics.connectionClosed();
+    }
+
+    private void closeAll() {
+      for (SelectionKey key : selector.keys()) {
+        // Keys cancelled by close() stay in the set until the next select
+        if (key.isValid()) {
+          metrics.connectionClosed();
+        }
+        closeQuietly(key.channel());
+      }
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        closeQuietly(channel);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.log("ERROR", "Error closing selector: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Closes a channel, ignoring errors.
+   *
+   * @param channel The channel to close.
+   */
+  private static void closeQuietly(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Already closed or broken; nothing else to release
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Key-value store that keeps keys and values as UTF-8 bytes in direct (off-heap) memory,
+ * so a large dataset is a few hundred slab buffers rather than millions of small heap
+ * objects for the garbage collector to trace.
+ *
+ * <p>The store is split into segments, each guarded by its own monitor. A segment owns
+ * <ul>
+ *   <li>slabs: direct buffers holding records of
+ *       {@code capacity(4) keyLength(4) valueLength(4) key value}, allocated by bumping a
+ *       pointer through the newest slab;</li>
+ *   <li>an index: open-addressing arrays of hashes and record addresses, probed linearly
+ *       and cleaned up by backward-shift deletion, so it needs no per-entry objects or
+ *       tombstones;</li>
+ *   <li>free lists: freed small records, reused by later records of the same size class.
+ *       An update that fits the old record's capacity is written in place.</li>
+ * </ul>
+ * Space that cannot be reused is counted as garbage; once it outweighs the live records,
+ * the segment is compacted by copying its live records into fresh slabs and dropping the
+ * old ones.
+ */
+public class OffHeapKeyValueStore implements KeyValueStore {
+  private static final int RECORD_HEADER = 12;
+  private static final int ALIGNMENT = 8;
+  /** Records up to this capacity are recycled through free lists; larger ones wait for compaction. */
+  private static final int MAX_RECYCLED_CAPACITY = 1024;
+  private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+  private final int slabBytes;
+
+  /**
+   * Constructs an off-heap store with 64 segments and 1 MB slabs.
+   */
+  public OffHeapKeyValueStore() {
+    this(64, 1 << 20);
+  }
+
+  /**
+   * Constructs an off-heap store.
+   *
+   * @param segmentCount The number of independently locked segments; rounded up to a power of two.
+   * @param slabBytes The size of each direct buffer; larger records get a slab of their own.
+   */
+  public OffHeapKeyValueStore(int segmentCount, int slabBytes) {
+    int count = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+    this.segments = new Segment[count];
+    this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment();
+    }
+    this.slabBytes = slabBytes;
+  }
+
+  @Override
+  public String put(String key, String value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      return segment.put(hash, keyBytes, valueBytes);
+    }
+  }
+
+  @Override
+  public String get(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      int slot = segment.find(hash, keyBytes);
+      return slot < 0 ? null : segment.readValue(segment.addresses[slot]);
+    }
+  }
+
+  @Override
+  public String delete(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      return segment.delete(hash, keyBytes);
+    }
+  }
+
+  /**
+   * Runs the function under the key's segment lock, so writes to the segment wait for it.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      int slot = segment.find(hash, keyBytes);
+      String previous = slot < 0 ? null : segment.readValue(segment.addresses[slot]);
+      String next = function.apply(previous);
+      if (next == null) {
+        if (previous != null) {
+          segment.delete(hash, keyBytes);
+        }
+      } else if (next != previous) {
+        segment.put(hash, keyBytes, next.getBytes(StandardCharsets.UTF_8));
+      }
+      return previous;
+    }
+  }
+
+  /**
+   * Copies each segment's pairs under its lock and visits them after releasing it, so a
+   * slow action, such as writing to a client, does not hold up the segment's writers.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    for (Segment segment : segments) {
+      String[] pairs;
+      synchronized (segment) {
+        pairs = new String[segment.size * 2];
+        int i = 0;
+        for (long address : segment.addresses) {
+          if (address != 0) {
+            pairs[i++] = segment.readKey(address);
+            pairs[i++] = segment.readValue(address);
+          }
+        }
+      }
+      for (int i = 0; i < pairs.length; i += 2) {
+        action.accept(pairs[i], pairs[i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of pairs in the store.
+   *
+   * @return The number of keys.
+   */
+  @Override
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the direct memory held by the slabs, including free and garbage space.
+   *
+   * @return The allocated off-heap size in bytes.
+   */
+  public long offHeapBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        bytes += segment.slabBytesAllocated;
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public long memoryBytes() {
+    return offHeapBytes();
+  }
+
+  private Segment segmentFor(int hash) {
+    // The index uses the low bits, so pick the segment from the top ones
+    return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = 1;
+    for (byte b : bytes) {
+      h = 31 * h + b;
+    }
+    // Similar keys have nearby polynomial hashes; mix them (MurmurHash3's finalizer) so
+    // linear probing does not see long runs of neighbouring slots
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  private static int align(int size) {
+    return (size + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /**
+   * One independently locked part of the store. All methods require the segment's monitor.
+   */
+  private final class Segment {
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private ByteBuffer current;
+    private long slabBytesAllocated;
+    private long liveBytes;
+
+    // Index: an address is (slab + 1) << 32 | offset, so 0 marks an empty slot
+    private int[] hashes = new int[INITIAL_INDEX_CAPACITY];
+    private long[] addresses = new long[INITIAL_INDEX_CAPACITY];
+    private int size;
+
+    // freeLists[capacity / ALIGNMENT] holds addresses of freed records of that capacity
+    private final long[][] freeLists = new long[MAX_RECYCLED_CAPACITY / ALIGNMENT + 1][];
+    private final int[] freeCounts = new int[MAX_RECYCLED_CAPACITY / ALIGNMENT + 1];
+
+    private byte[] scratch = new byte[256];
+
+    String put(int hash, byte[] key, byte[] value) {
+      int slot = find(hash, key);
+      if (slot >= 0) {
+        long address = addresses[slot];
+        String previous = readValue(address);
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        int capacity = slab.getInt(offset);
+        if (RECORD_HEADER + key.length + value.length <= capacity) {
+          slab.putInt(offset + 8, value.length);
+          slab.put(offset + RECORD_HEADER + key.length, value);
+        } else {
+          // Writing may compact the segment and move the old record, so free it afterwards
+          long replacement = write(key, value);
+          free(addresses[slot]);
+          addresses[slot] = replacement;
+        }
+        return previous;
+      }
+
+      if (size + 1 > addresses.length * 3 / 4) {
+        resizeIndex();
+      }
+      insert(hash, write(key, value));
+      size++;
+      return null;
+    }
+
+    String delete(int hash, byte[] key) {
+      int slot = find(hash, key);
+      if (slot < 0) {
+        return null;
+      }
+      long address = addresses[slot];
+      String removed = readValue(address);
+      free(address);
+      removeSlot(slot);
+      size--;
+      return removed;
+    }
+
+    int find(int hash, byte[] key) {
+      int mask = addresses.length - 1;
+      for (int slot = hash & mask; addresses[slot] != 0; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && keyEquals(addresses[slot], key)) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    String readKey(long address) {
+      ByteBuffer slab = slab(address);
+      int offset = offset(address);
+      return decode(slab, offset + RECORD_HEADER, slab.getInt(offset + 4));
+    }
+
+    String readValue(long address) {
+      ByteBuffer slab = slab(address);
+      int offset = offset(address);
+      int keyLength = slab.getInt(offset + 4);
+      return decode(slab, offset + RECORD_HEADER + keyLength, slab.getInt(offset + 8));
+    }
+
+    private String decode(ByteBuffer slab, int index, int length) {
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      slab.get(index, scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+      ByteBuffer slab = slab(address);
+      int offset = offset(address);
+      if (slab.getInt(offset + 4) != key.length) {
+        return false;
+      }
+      int start = offset + RECORD_HEADER;
+      for (int i = 0; i < key.length; i++) {
+        if (slab.get(start + i) != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Stores a new record, reusing a freed record of the same size class if there is one.
+     */
+    private long write(byte[] key, byte[] value) {
+      int capacity = align(RECORD_HEADER + key.length + value.length);
+      long address = capacity <= MAX_RECYCLED_CAPACITY ? popFree(capacity) : 0;
+      if (address == 0) {
+        address = allocate(capacity);
+      }
+      ByteBuffer slab = slab(address);
+      int offset = offset(address);
+      slab.putInt(offset, capacity).putInt(offset + 4, key.length).putInt(offset + 8, value.length);
+      slab.put(offset + RECORD_HEADER, key);
+      slab.put(offset + RECORD_HEADER + key.length, value);
+      liveBytes += capacity;
+      return address;
+    }
+
+    private long allocate(int capacity) {
+      if (current == null || current.remaining() < capacity) {
+        maybeCompact();
+        if (current == null || current.remaining() < capacity) {
+          newSlab(capacity);
+        }
+      }
+      int offset = current.position();
+      current.position(offset + capacity);
+      return ((long) slabs.size() << 32) | offset;
+    }
+
+    private void newSlab(int minimumBytes) {
+      current = ByteBuffer.allocateDirect(Math.max(slabBytes, minimumBytes));
+      slabs.add(current);
+      slabBytesAllocated += current.capacity();
+    }
+
+    private void free(long address) {
+      int capacity = slab(address).getInt(offset(address));
+      liveBytes -= capacity;
+      if (capacity <= MAX_RECYCLED_CAPACITY) {
+        int sizeClass = capacity / ALIGNMENT;
+        long[] list = freeLists[sizeClass];
+        if (list == null) {
+          list = freeLists[sizeClass] = new long[16];
+        } else if (freeCounts[sizeClass] == list.length) {
+          list = freeLists[sizeClass] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[freeCounts[sizeClass]++] = address;
+      }
+    }
+
+    private long popFree(int capacity) {
+      int sizeClass = capacity / ALIGNMENT;
+      return freeCounts[sizeClass] == 0 ? 0 : freeLists[sizeClass][--freeCounts[sizeClass]];
+    }
+
+    /**
+     * Compacts once free and garbage space together exceed both one slab and the live
+     * records, so copying is paid for by at least as many bytes of writes since the last one.
+     */
+    private void maybeCompact() {
+      long wasted = slabBytesAllocated - liveBytes - (current != null ? current.remaining() : 0);
+      if (wasted <= slabBytes || wasted <= liveBytes) {
+        return;
+      }
+      List<ByteBuffer> oldSlabs = new ArrayList<>(slabs);
+      slabs.clear();
+      current = null;
+      slabBytesAllocated = 0;
+      liveBytes = 0;
+      Arrays.fill(freeCounts, 0);
+
+      for (int slot = 0; slot < addresses.length; slot++) {
+        long address = addresses[slot];
+        if (address == 0) {
+          continue;
+        }
+        ByteBuffer from = oldSlabs.get((int) (address >>> 32) - 1);
+        int offset = offset(address);
+        int length = RECORD_HEADER + from.getInt(offset + 4) + from.getInt(offset + 8);
+        int capacity = align(length);
+        if (current == null || current.remaining() < capacity) {
+          newSlab(capacity);
+        }
+        int to = current.position();
+        current.put(to, from, offset, length);
+        current.putInt(to, capacity);
+        current.position(to + capacity);
+        addresses[slot] = ((long) slabs.size() << 32) | to;
+        liveBytes += capacity;
+      }
+    }
+
+    private void insert(int hash, long address) {
+      int mask = addresses.length - 1;
+      int slot = hash & mask;
+      while (addresses[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      hashes[slot] = hash;
+      addresses[slot] = address;
+    }
+
+    /**
+     * Empties a slot and shifts later entries of the probe run back into the gap, so
+     * lookups never need tombstones.
+     */
+    private void removeSlot(int slot) {
+      int mask = addresses.length - 1;
+      int gap = slot;
+      int next = (gap + 1) & mask;
+      while (addresses[next] != 0) {
+        int home = hashes[next] & mask;
+        // Move the entry back unless its home lies cyclically in (gap, next]
+        if (((next - home) & mask) >= ((next - gap) & mask)) {
+          hashes[gap] = hashes[next];
+          addresses[gap] = addresses[next];
+          gap = next;
+        }
+        next = (next + 1) & mask;
+      }
+      addresses[gap] = 0;
+    }
+
+    private void resizeIndex() {
+      int[] oldHashes = hashes;
+      long[] oldAddresses = addresses;
+      hashes = new int[oldHashes.length * 2];
+      addresses = new long[oldAddresses.length * 2];
+      for (int i = 0; i < oldAddresses.length; i++) {
+        if (oldAddresses[i] != 0) {
+          insert(oldHashes[i], oldAddresses[i]);
+        }
+      }
+    }
+
+    private ByteBuffer slab(long address) {
+      return slabs.get((int) (address >>> 32) - 1);
+    }
+
+    private int offset(long address) {
+      return (int) address;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that keeps a store's keys in a sorted secondary index, so that they can be
+ * listed in order with {@link #scan}. Reads go straight to the wrapped store and stay O(1);
+ * writes that add or remove a key also update a {@link ConcurrentSkipListSet}, in
+ * O(log n), while overwrites of existing keys leave the index alone.
+ *
+ * <p>Writes take a lock stripe chosen by the key, so the index holds a key exactly when the
+ * store does whenever its stripe is free; a write's result therefore tells whether the
+ * index needs changing. Scans walk the index without locking: a scan sees every key
+ * present for its whole duration, and may or may not see keys written during it.
+ */
+public class OrderedKeyValueStore implements KeyValueStore {
+  private static final int STRIPES = 64;
+
+  private final KeyValueStore store;
+  private final ConcurrentSkipListSet<String> index = new ConcurrentSkipListSet<>();
+  private final Object[] stripes = new Object[STRIPES];
+
+  /**
+   * Constructs an ordered view of a store, indexing the keys it already holds.
+   *
+   * @param store The store to index.
+   */
+  public OrderedKeyValueStore(KeyValueStore store) {
+    this.store = store;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+    store.forEach((key, value) -> index.add(key));
+  }
+
+  @Override
+  public String put(String key, String value) {
+    synchronized (stripe(key)) {
+      String previous = store.put(key, value);
+      if (previous == null) {
+        index.add(key);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public String get(String key) {
+    return store.get(key);
+  }
+
+  @Override
+  public String delete(String key) {
+    synchronized (stripe(key)) {
+      String removed = store.delete(key);
+      if (removed != null) {
+        index.remove(key);
+      }
+      return removed;
+    }
+  }
+
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    String[] next = new String[1];
+    synchronized (stripe(key)) {
+      String previous = store.update(key, value -> next[0] = function.apply(value));
+      if (previous == null && next[0] != null) {
+        index.add(key);
+      } else if (previous != null && next[0] == null) {
+        index.remove(key);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public List<String> scan(String from, String to, int limit) {
+    NavigableSet<String> range = to == null
+        ? index.tailSet(from, true) : index.subSet(from, true, to, false);
+    List<String> keys = new ArrayList<>(Math.min(limit, 128));
+    for (String key : range) {
+      if (keys.size() == limit) {
+        break;
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    store.forEach(action);
+  }
+
+  @Override
+  public long size() {
+    return store.size();
+  }
+
+  @Override
+  public long memoryBytes() {
+    return store.memoryBytes();
+  }
+
+  @Override
+  public void close() {
+    store.close();
+  }
+
+  private Object stripe(String key) {
+    return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+  }
+}
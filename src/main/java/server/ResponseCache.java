@@ -0,0 +1,222 @@
+package server;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recent responses sent to each UDP client, keyed by request id, so a
+ * retransmitted request is answered again without being executed twice.
+ *
+ * <p>Clients are spread over lock stripes, each an access-ordered map that forgets its
+ * least recently active client once it holds its share of the client limit, or once its
+ * clients hold more than its share of the byte budget. A client's cost is its slot table
+ * plus the responses in it; the client being answered is never forgotten for the budget,
+ * so a stripe may exceed its share by one client's responses. Each client
+ * has a table of {@code entriesPerClient} slots, and a request id has the slot given by
+ * the id modulo the table size, which it takes over from the id before it there. Ids that
+ * are all within {@code entriesPerClient} of each other therefore never displace each
+ * other: a client that keeps its outstanding ids within that window, as
+ * {@code client.KeyValueClient} does, has every retry recognized however long its
+ * oldest request has been outstanding.
+ */
+final class ResponseCache {
+  /** Returned by {@link #begin} while another worker is still executing the request. */
+  static final byte[] IN_PROGRESS = new byte[0];
+  private static final int STRIPES = 64;
+  // Approximate heap cost of a slot (an id and a reference) and of a response array header
+  private static final int SLOT_BYTES = 16;
+  private static final int BODY_OVERHEAD = 16;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final int entriesPerClient;
+
+  /**
+   * Constructs a response cache.
+   *
+   * @param maxClients The number of clients remembered.
+   * @param entriesPerClient The number of responses remembered per client.
+   * @param maxBytes The approximate number of bytes the remembered responses may take.
+   */
+  ResponseCache(int maxClients, int entriesPerClient, long maxBytes) {
+    this.entriesPerClient = entriesPerClient;
+    int clientsPerStripe = Math.max(1, maxClients / STRIPES);
+    long bytesPerStripe = Math.max(1, maxBytes / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(clientsPerStripe, bytesPerStripe);
+    }
+  }
+
+  /**
+   * Looks up a request. If it has not been seen, reserves its slot so that retransmissions
+   * arriving while it executes are recognized; the caller must then call {@link #complete}.
+   *
+   * @param client The client address.
+   * @param requestId The request id.
+   * @return The cached response, {@link #IN_PROGRESS}, or null if the request is new.
+   */
+  byte[] begin(SocketAddress client, long requestId) {
+    Stripe stripe = stripeFor(client);
+    synchronized (stripe) {
+      ClientResponses responses = stripe.clients.get(client);
+      if (responses == null) {
+        responses = new ClientResponses(entriesPerClient);
+        stripe.add(client, responses);
+      }
+      int slot = responses.slot(requestId);
+      if (responses.bodies[slot] != null && responses.ids[slot] == requestId) {
+        return responses.bodies[slot];
+      }
+      stripe.replace(responses, slot, IN_PROGRESS);
+      responses.ids[slot] = requestId;
+      return null;
+    }
+  }
+
+  /**
+   * Stores the response to a request reserved by {@link #begin}.
+   *
+   * @param client The client address.
+   * @param requestId The request id.
+   * @param response The response, from its position to its limit; the position is unchanged.
+   */
+  void complete(SocketAddress client, long requestId, ByteBuffer response) {
+    byte[] body = new byte[response.remaining()];
+    response.get(response.position(), body);
+    Stripe stripe = stripeFor(client);
+    synchronized (stripe) {
+      ClientResponses responses = stripe.clients.get(client);
+      if (responses == null) {
+        return;
+      }
+      int slot = responses.slot(requestId);
+      // The slot may have been taken over by a later id meanwhile
+      if (responses.bodies[slot] != null && responses.ids[slot] == requestId) {
+        stripe.replace(responses, slot, body);
+        stripe.trim(responses);
+      }
+    }
+  }
+
+  /**
+   * Forgets a request reserved by {@link #begin} that will not be completed, so that a
+   * retransmission runs it again instead of waiting for it.
+   *
+   * @param client The client address.
+   * @param requestId The request id.
+   */
+  void release(SocketAddress client, long requestId) {
+    Stripe stripe = stripeFor(client);
+    synchronized (stripe) {
+      ClientResponses responses = stripe.clients.get(client);
+      if (responses == null) {
+        return;
+      }
+      int slot = responses.slot(requestId);
+      if (responses.bodies[slot] == IN_PROGRESS && responses.ids[slot] == requestId) {
+        responses.bodies[slot] = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the approximate number of bytes the remembered clients and responses take.
+   *
+   * @return The cached bytes.
+   */
+  long cachedBytes() {
+    long bytes = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        bytes += stripe.bytes;
+      }
+    }
+    return bytes;
+  }
+
+  private Stripe stripeFor(SocketAddress client) {
+    return stripes[(client.hashCode() & 0x7fffffff) % STRIPES];
+  }
+
+  /**
+   * The clients of one lock stripe, in access order, forgetting the least recently active
+   * client beyond its share of the client limit or of the byte budget.
+   */
+  private static final class Stripe {
+    final Map<SocketAddress, ClientResponses> clients;
+    final long maxBytes;
+    long bytes;
+
+    Stripe(int maxClients, long maxBytes) {
+      this.maxBytes = maxBytes;
+      clients = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SocketAddress, ClientResponses> eldest) {
+          if (size() <= maxClients) {
+            return false;
+          }
+          bytes -= eldest.getValue().bytes;
+          return true;
+        }
+      };
+    }
+
+    void add(SocketAddress client, ClientResponses responses) {
+      bytes += responses.bytes;
+      clients.put(client, responses);
+      trim(responses);
+    }
+
+    /**
+     * Stores a body in a client's slot, accounting for the body it replaces.
+     */
+    void replace(ClientResponses responses, int slot, byte[] body) {
+      long change = cost(body) - cost(responses.bodies[slot]);
+      responses.bodies[slot] = body;
+      responses.bytes += change;
+      bytes += change;
+    }
+
+    /**
+     * Forgets the least recently active clients, other than the one being answered, until
+     * the stripe is within its budget.
+     */
+    void trim(ClientResponses active) {
+      Iterator<ClientResponses> eldest = clients.values().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        ClientResponses responses = eldest.next();
+        if (responses != active) {
+          bytes -= responses.bytes;
+          eldest.remove();
+        }
+      }
+    }
+
+    private static long cost(byte[] body) {
+      return body == null || body == IN_PROGRESS ? 0 : BODY_OVERHEAD + body.length;
+    }
+  }
+
+  /**
+   * One client's request ids and responses, in the slots given by the ids.
+   */
+  private static final class ClientResponses {
+    final long[] ids;
+    // Null for a slot never used
+    final byte[][] bodies;
+    // The slot table plus the responses in it
+    long bytes;
+
+    ClientResponses(int capacity) {
+      ids = new long[capacity];
+      bodies = new byte[capacity][];
+      bytes = (long) SLOT_BYTES * capacity;
+    }
+
+    int slot(long requestId) {
+      return (int) Long.remainderUnsigned(requestId, ids.length);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package server;
+
+/**
+ * Approximate LRU: evicts the least recently used of a few randomly sampled keys. With
+ * five samples this tracks true LRU closely while needing no shared access-order list,
+ * so reads only stamp their entry's access time.
+ */
+class SampledLruPolicy implements EvictionPolicy {
+  private final int samples;
+
+  /**
+   * Constructs the policy.
+   *
+   * @param samples How many keys to compare per eviction.
+   */
+  SampledLruPolicy(int samples) {
+    this.samples = samples;
+  }
+
+  @Override
+  public int admissionRegion() {
+    return BoundedKeyValueStore.MAIN;
+  }
+
+  @Override
+  public void recordAccess(String key) {
+  }
+
+  @Override
+  public void enforce(BoundedKeyValueStore store) {
+    while (store.usedBytes() > store.maxBytes()) {
+      BoundedKeyValueStore.Entry victim = store.sampleOldest(BoundedKeyValueStore.MAIN, samples);
+      if (victim == null) {
+        return;
+      }
+      store.evict(victim);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Executes SCAN, which lists keys in order from a store with an ordered index.
+ *
+ * <p>{@code SCAN <prefix>} lists the keys starting with the prefix, and
+ * {@code SCAN <start> <end>} the keys from start (inclusive) to end (exclusive). Both take
+ * {@code LIMIT n} (default 100, at most 10000) and {@code CURSOR <key>}. A page is answered
+ * as {@code SCAN_SUCCESS: 2 keys | user:1 user:2 | CURSOR user:2}; the cursor is present
+ * when more keys may follow and is sent back, with the same arguments, for the next page.
+ * Pages shrink to fit the transport's size limit, so a large range is never built into
+ * one response.
+ */
+final class ScanCommands {
+  /** Keys per page when the request has no LIMIT. */
+  static final int DEFAULT_LIMIT = 100;
+  /** Largest accepted LIMIT. */
+  static final int MAX_LIMIT = 10_000;
+  /** Bytes kept free for the summary and a request id. */
+  private static final int RESERVED_BYTES = 64;
+  private static final String CURSOR = " | CURSOR ";
+
+  private ScanCommands() {
+  }
+
+  /**
+   * Lists one page of keys for a "SCAN prefix|start [end] [LIMIT n] [CURSOR key]" request.
+   *
+   * @param store The store to scan.
+   * @param request The full request line.
+   * @param maxResponseBytes The largest response the transport can deliver.
+   * @return The response.
+   */
+  static String scan(KeyValueStore store, String request, int maxResponseBytes) {
+    String[] tokens = request.trim().split("\\s+");
+    if (tokens.length < 2 || isOption(tokens[1])) return "ERROR: Invalid SCAN command";
+
+    String start = tokens[1];
+    String end = null;
+    int i = 2;
+    if (i < tokens.length && !isOption(tokens[i])) {
+      end = tokens[i++];
+    }
+    int limit = DEFAULT_LIMIT;
+    String cursor = null;
+    for (; i + 1 < tokens.length; i += 2) {
+      if (tokens[i].equalsIgnoreCase("LIMIT")) {
+        try {
+          limit = Integer.parseInt(tokens[i + 1]);
+        } catch (NumberFormatException e) {
+          return "ERROR: Invalid SCAN limit";
+        }
+        if (limit <= 0 || limit > MAX_LIMIT) return "ERROR: Invalid SCAN limit";
+      } else if (tokens[i].equalsIgnoreCase("CURSOR")) {
+        cursor = tokens[i + 1];
+      } else {
+        return "ERROR: Invalid SCAN command";
+      }
+    }
+    if (i != tokens.length) return "ERROR: Invalid SCAN command";
+    if (end != null && start.compareTo(end) > 0) return "ERROR: Invalid SCAN range";
+
+    String from = start;
+    String to = end != null ? end : prefixEnd(start);
+    if (cursor != null) {
+      // The smallest key after the cursor
+      String next = cursor + '\0';
+      if (next.compareTo(from) > 0) {
+        from = next;
+      }
+    }
+    List<String> keys;
+    try {
+      // One extra key tells whether another page follows
+      keys = to != null && from.compareTo(to) >= 0 ? List.of() : store.scan(from, to, limit + 1);
+    } catch (UnsupportedOperationException e) {
+      return "ERROR: SCAN requires the ordered index (--ordered-index=true)";
+    }
+    return format(keys, limit, maxResponseBytes);
+  }
+
+  /**
+   * Formats as many keys as fit, followed by a cursor if any were left out.
+   */
+  private static String format(List<String> keys, int limit, int maxResponseBytes) {
+    int count = Math.min(keys.size(), limit);
+    int budget = maxResponseBytes - RESERVED_BYTES - CURSOR.length();
+    int included = 0;
+    for (; included < count; included++) {
+      int length = utf8Length(keys.get(included));
+      // Room for the key, its separator and the key again as the cursor
+      if (2 * length + 1 > budget) {
+        break;
+      }
+      budget -= length + 1;
+    }
+    if (included == 0 && count > 0) return "ERROR: Response too large";
+
+    StringBuilder response = new StringBuilder("SCAN_SUCCESS: ").append(included).append(" keys");
+    for (int i = 0; i < included; i++) {
+      response.append(i == 0 ? " | " : " ").append(keys.get(i));
+    }
+    if (included < keys.size()) {
+      response.append(CURSOR).append(keys.get(included - 1));
+    }
+    return response.toString();
+  }
+
+  /**
+   * Returns the smallest string greater than every string starting with the prefix.
+   *
+   * @return The bound, or null if there is none because the prefix is all U+FFFF.
+   */
+  private static String prefixEnd(String prefix) {
+    int last = prefix.length() - 1;
+    while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+      last--;
+    }
+    return last < 0 ? null : prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+  }
+
+  private static boolean isOption(String token) {
+    return token.equalsIgnoreCase("LIMIT") || token.equalsIgnoreCase("CURSOR");
+  }
+
+  private static int utf8Length(String text) {
+    return text.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
@@ -1,45 +1,92 @@
 package server;
 
+import common.LoggerInterface;
+import java.io.IOException;
+
 /**
- * Server application that runs a TCP or UDP server based on user input.
+ * Server application that runs a TCP, UDP or non-blocking TCP server based on user input.
  */
 public class ServerApp {
 
   /**
    * Main method to start the server.
    *
-   * @param args Command-line arguments: <Port#> <TCP/UDP>
+   * @param args Command-line arguments: <Port#> <TCP/UDP/NIO-TCP> [--option=value ...]
    */
   public static void main(String[] args) {
-    if (args.length != 2) {
-      System.err.println("Usage: java ServerApp <Port#> <TCP/UDP>");
+    if (args.length < 2) {
+      System.err.println("Usage: java ServerApp <Port#> <TCP/UDP/NIO-TCP> [--option=value ...]");
       System.exit(1);
     }
 
     String protocol = args[1].toUpperCase();
     int port = Integer.parseInt(args[0]);
+    ServerConfig config = ServerConfig.parse(args, 2);
+    LoggerInterface storeLogger = config.createLogger("KeyValueStoreLog.log");
+    KeyValueStore store;
+    try {
+      store = createStore(config, storeLogger);
+    } catch (IOException e) {
+      storeLogger.log("ERROR", "Failed to open the key-value store: " + e.getMessage());
+      storeLogger.close();
+      System.exit(1);
+      return;
+    }
 
     ServerInterface server;
 
-    // Choose the protocol (TCP or UDP) based on the input
+    // Choose the protocol (TCP, UDP or non-blocking TCP) based on the input
     switch (protocol) {
       case "UDP":
-        server = new UDPServer(port);
+        server = new UDPServer(port, store, config);
         break;
       case "TCP":
-        server = new TCPServer(port);
+        server = new TCPServer(port, store, config);
+        break;
+      case "NIO-TCP":
+        server = new NioTCPServer(port, store, config);
         break;
       default:
-        System.err.println("Invalid protocol. Please enter either 'TCP' or 'UDP'.");
+        System.err.println("Invalid protocol. Please enter 'TCP', 'UDP' or 'NIO-TCP'.");
         return;
     }
 
     // Add shutdown hook for graceful server shutdown
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       server.shutdown();
+      store.close();
+      storeLogger.close();
       System.out.println("Server shutting down gracefully.");
     }));
 
     server.execute();
   }
+
+  /**
+   * Builds the store engine selected by the configuration, indexing its keys in order when
+   * "ordered-index" is true, bounding it when the "max-memory" option sets a budget, adding
+   * key expiry (ticking every "ttl-tick-ms", default 10), and adding a write-ahead log when
+   * the "wal" option names a log file. The log wraps the bound and expiry, so evictions and
+   * expirations are not logged; replay re-applies them instead.
+   *
+   * @param config The server configuration.
+   * @param logger The logger for the store's recovery, snapshots and background failures.
+   * @return The store the server will serve.
+   * @throws IOException If persisted data cannot be loaded.
+   */
+  private static KeyValueStore createStore(ServerConfig config, LoggerInterface logger)
+      throws IOException {
+    KeyValueStore store = KeyValueStore.create(config);
+    if (config.getBoolean("ordered-index", false)) {
+      store = new OrderedKeyValueStore(store);
+    }
+    if (config.getString("max-memory", null) != null) {
+      store = BoundedKeyValueStore.create(store, config);
+    }
+    store = new ExpiringKeyValueStore(store, config.getLong("ttl-tick-ms", 10), logger);
+    if (config.getString("wal", null) != null) {
+      store = DurableKeyValueStore.open(store, config, logger);
+    }
+    return store;
+  }
 }
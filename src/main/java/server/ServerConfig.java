@@ -0,0 +1,156 @@
+package server;
+
+import common.AsyncLogger;
+import common.Logger;
+import common.LoggerInterface;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Optional server settings passed on the command line as --name=value pairs.
+ */
+public class ServerConfig {
+  private final Map<String, String> options;
+
+  /**
+   * Constructs an empty configuration, so every setting uses its default.
+   */
+  public ServerConfig() {
+    this.options = new HashMap<>();
+  }
+
+  /**
+   * Parses --name=value options from the command-line arguments.
+   *
+   * @param args The command-line arguments.
+   * @param offset The index of the first option argument.
+   * @return The parsed configuration.
+   * @throws IllegalArgumentException If an argument is not of the form --name=value.
+   */
+  public static ServerConfig parse(String[] args, int offset) {
+    ServerConfig config = new ServerConfig();
+    for (int i = offset; i < args.length; i++) {
+      String arg = args[i];
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 3) {
+        throw new IllegalArgumentException("Invalid option: " + arg);
+      }
+      config.set(arg.substring(2, separator).toLowerCase(), arg.substring(separator + 1));
+    }
+    return config;
+  }
+
+  /**
+   * Sets an option.
+   *
+   * @param name The option name.
+   * @param value The option value.
+   * @return This configuration.
+   */
+  public ServerConfig set(String name, String value) {
+    options.put(name, value);
+    return this;
+  }
+
+  /**
+   * Returns a string option.
+   *
+   * @param name The option name.
+   * @param defaultValue The value to use when the option is not set.
+   * @return The option value.
+   */
+  public String getString(String name, String defaultValue) {
+    return options.getOrDefault(name, defaultValue);
+  }
+
+  /**
+   * Returns an integer option.
+   *
+   * @param name The option name.
+   * @param defaultValue The value to use when the option is not set.
+   * @return The option value.
+   */
+  public int getInt(String name, int defaultValue) {
+    String value = options.get(name);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
+  /**
+   * Returns a long option.
+   *
+   * @param name The option name.
+   * @param defaultValue The value to use when the option is not set.
+   * @return The option value.
+   */
+  public long getLong(String name, long defaultValue) {
+    String value = options.get(name);
+    return value != null ? Long.parseLong(value) : defaultValue;
+  }
+
+  /**
+   * Returns a size option in bytes, written as a number with an optional k, m or g suffix
+   * (e.g., 512m).
+   *
+   * @param name The option name.
+   * @param defaultValue The value to use when the option is not set.
+   * @return The option value in bytes.
+   */
+  public long getBytes(String name, long defaultValue) {
+    String value = options.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    String number = value.trim().toLowerCase();
+    int shift = 0;
+    switch (number.charAt(number.length() - 1)) {
+      case 'k':
+        shift = 10;
+        break;
+      case 'm':
+        shift = 20;
+        break;
+      case 'g':
+        shift = 30;
+        break;
+      default:
+        return Long.parseLong(number);
+    }
+    return Long.parseLong(number.substring(0, number.length() - 1)) << shift;
+  }
+
+  /**
+   * Returns a boolean option.
+   *
+   * @param name The option name.
+   * @param defaultValue The value to use when the option is not set.
+   * @return The option value.
+   */
+  public boolean getBoolean(String name, boolean defaultValue) {
+    String value = options.get(name);
+    return value != null ? Boolean.parseBoolean(value) : defaultValue;
+  }
+
+  /**
+   * Creates the server logger described by the "logger", "log-level", "log-buffer",
+   * "log-overflow" and "log-console" options. The default is an asynchronous logger
+   * at INFO that drops records when its buffer is full.
+   *
+   * @param logFileName The name of the log file.
+   * @return The logger.
+   */
+  public LoggerInterface createLogger(String logFileName) {
+    String type = getString("logger", "async").toLowerCase();
+    switch (type) {
+      case "sync":
+        return new Logger(logFileName);
+      case "async":
+        return new AsyncLogger(logFileName,
+            getString("log-level", "INFO"),
+            getInt("log-buffer", 8192),
+            AsyncLogger.OverflowPolicy.valueOf(getString("log-overflow", "drop").toUpperCase()),
+            getBoolean("log-console", true));
+      default:
+        throw new IllegalArgumentException("Unknown logger: " + type);
+    }
+  }
+}
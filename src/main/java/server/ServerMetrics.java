@@ -0,0 +1,496 @@
+package server;
+
+import common.LatencyHistogram;
+import common.LoggerInterface;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request, connection and traffic counters for one server, reported by the {@code STATS}
+ * command and, when the "stats-file" option is set, appended to a file every
+ * "stats-interval-s" seconds.
+ *
+ * <p>Every request increments a {@link LongAdder}, but only one request in
+ * "metrics-latency-sample" (default 16), chosen at random, is timed into its command's
+ * {@link LatencyHistogram}: reading the clock twice costs more than the rest of the
+ * bookkeeping, and a random sample keeps the percentiles unbiased. Metrics are therefore
+ * on by default; {@code --metrics=false} turns recording off, which is mostly useful for
+ * measuring what it costs.
+ */
+public final class ServerMetrics {
+  /** Default seconds between lines of the stats file. */
+  public static final long DEFAULT_DUMP_INTERVAL_S = 60;
+  /** Default number of requests per timed request. */
+  public static final int DEFAULT_LATENCY_SAMPLE = 16;
+  // Returned by startTimer() for requests that are counted but not timed
+  private static final long NOT_TIMED = Long.MIN_VALUE;
+
+  static final int PUT = 0;
+  static final int GET = 1;
+  static final int DELETE = 2;
+  static final int TTL = 3;
+  static final int PERSIST = 4;
+  static final int MGET = 5;
+  static final int MPUT = 6;
+  static final int MDELETE = 7;
+  static final int SCAN = 8;
+  static final int STATS = 9;
+  static final int INCR = 10;
+  static final int DECR = 11;
+  static final int APPEND = 12;
+  static final int PUTIFABSENT = 13;
+  static final int CAS = 14;
+  static final int BULKLOAD = 15;
+  static final int DUMP = 16;
+  static final int WATCH = 17;
+  static final int OTHER = 18;
+  private static final String[] COMMAND_NAMES = {"PUT", "GET", "DELETE", "TTL", "PERSIST",
+      "MGET", "MPUT", "MDELETE", "SCAN", "STATS", "INCR", "DECR", "APPEND", "PUTIFABSENT",
+      "CAS", "BULKLOAD", "DUMP", "WATCH", "OTHER"};
+
+  static final int NO_ERROR = -1;
+  static final int BAD_REQUEST = 0;
+  static final int UNKNOWN_COMMAND = 1;
+  static final int TOO_LARGE = 2;
+  static final int INTERNAL = 3;
+  static final int CONNECTION_LIMIT = 4;
+  static final int IO = 5;
+  private static final String[] ERROR_NAMES =
+      {"bad_request", "unknown_command", "too_large", "internal", "connection_limit", "io"};
+  private static final String STATS_SUCCESS = "STATS_SUCCESS: ";
+  private static final String CURSOR = " | CURSOR ";
+  // Room kept on every STATS COMMANDS page for a cursor naming the longest command
+  private static final int CURSOR_BYTES = CURSOR.length() + "PUTIFABSENT".length();
+
+  private final KeyValueStore store;
+  private final LoggerInterface logger;
+  private final boolean enabled;
+  private final int latencySample;
+  private final Path dumpFile;
+  private final long dumpIntervalSeconds;
+  private final long startMillis = System.currentTimeMillis();
+  private final LongAdder[] commandCounts = new LongAdder[COMMAND_NAMES.length];
+  private final LatencyHistogram[] latencies = new LatencyHistogram[COMMAND_NAMES.length];
+  private final LongAdder[] commandErrors = new LongAdder[COMMAND_NAMES.length];
+  private final LongAdder[] errors = new LongAdder[ERROR_NAMES.length];
+  private final LongAdder activeConnections = new LongAdder();
+  private final LongAdder acceptedConnections = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  // Counters a transport adds to the totals with addTotal()
+  private final List<String> extraNames = new ArrayList<>();
+  private final List<LongSupplier> extraValues = new ArrayList<>();
+  private ScheduledExecutorService dumpScheduler;
+
+  /**
+   * Constructs the metrics for a server. Reads the "metrics", "metrics-latency-sample",
+   * "stats-file" and "stats-interval-s" options.
+   *
+   * @param store The store whose size is reported.
+   * @param config The server configuration.
+   * @param logger The logger for errors writing the stats file.
+   */
+  public ServerMetrics(KeyValueStore store, ServerConfig config, LoggerInterface logger) {
+    this.store = store;
+    this.logger = logger;
+    this.enabled = config.getBoolean("metrics", true);
+    this.latencySample = config.getInt("metrics-latency-sample", DEFAULT_LATENCY_SAMPLE);
+    if (latencySample <= 0) {
+      throw new IllegalArgumentException("metrics-latency-sample must be positive: " + latencySample);
+    }
+    String file = config.getString("stats-file", null);
+    this.dumpFile = file != null ? Path.of(file) : null;
+    this.dumpIntervalSeconds = config.getLong("stats-interval-s", DEFAULT_DUMP_INTERVAL_S);
+    if (dumpFile != null && dumpIntervalSeconds <= 0) {
+      throw new IllegalArgumentException("stats-interval-s must be positive: " + dumpIntervalSeconds);
+    }
+    for (int i = 0; i < COMMAND_NAMES.length; i++) {
+      commandCounts[i] = new LongAdder();
+      latencies[i] = new LatencyHistogram();
+      commandErrors[i] = new LongAdder();
+    }
+    for (int i = 0; i < ERROR_NAMES.length; i++) {
+      errors[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Adds a counter kept by the server itself to the totals, after the error counts. Call
+   * before the server starts.
+   *
+   * @param name The field name.
+   * @param value Reads the counter.
+   */
+  void addTotal(String name, LongSupplier value) {
+    extraNames.add(name);
+    extraValues.add(value);
+  }
+
+  /**
+   * Starts appending to the stats file, if one is configured.
+   */
+  void start() {
+    if (dumpFile == null) {
+      return;
+    }
+    dumpScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "stats-dumper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dumpScheduler.scheduleAtFixedRate(this::dump, dumpIntervalSeconds, dumpIntervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops the stats file writer after appending a final line.
+   */
+  void close() {
+    if (dumpScheduler != null) {
+      dumpScheduler.shutdownNow();
+      dump();
+    }
+  }
+
+  /**
+   * Classifies a text response by the kind of error it reports.
+   *
+   * @param response The response text.
+   * @return The error type, or {@link #NO_ERROR}; a missing key is not an error.
+   */
+  static int error(String response) {
+    if (!response.startsWith("ERROR: ")) {
+      return NO_ERROR;
+    }
+    if (response.startsWith("Exception", 7)) {
+      return INTERNAL;
+    }
+    if (response.startsWith("Unknown command", 7)) {
+      return UNKNOWN_COMMAND;
+    }
+    if (response.endsWith("too large")) {
+      return TOO_LARGE;
+    }
+    return BAD_REQUEST;
+  }
+
+  /**
+   * Returns the start time of a request, to pass to {@link #record}.
+   *
+   * @return The current {@link System#nanoTime()}, or a marker if the request is not in
+   *     the latency sample or metrics are off.
+   */
+  long startTimer() {
+    if (!enabled
+        || latencySample > 1 && ThreadLocalRandom.current().nextInt(latencySample) != 0) {
+      return NOT_TIMED;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a handled request.
+   *
+   * @param command The command index.
+   * @param startNanos The value {@link #startTimer} returned when the request arrived.
+   * @param error The error type, or {@link #NO_ERROR}.
+   */
+  void record(int command, long startNanos, int error) {
+    if (!enabled) {
+      return;
+    }
+    commandCounts[command].increment();
+    if (startNanos != NOT_TIMED) {
+      latencies[command].record(System.nanoTime() - startNanos);
+    }
+    if (error != NO_ERROR) {
+      commandErrors[command].increment();
+      errors[error].increment();
+    }
+  }
+
+  /**
+   * Records an error that happened outside any command, such as a request too large to
+   * parse or a broken connection.
+   *
+   * @param error The error type.
+   */
+  void recordError(int error) {
+    if (enabled) {
+      errors[error].increment();
+    }
+  }
+
+  /**
+   * Records a client connection being accepted.
+   */
+  void connectionOpened() {
+    if (enabled) {
+      acceptedConnections.increment();
+      activeConnections.increment();
+    }
+  }
+
+  /**
+   * Records a client connection being closed.
+   */
+  void connectionClosed() {
+    if (enabled) {
+      activeConnections.decrement();
+    }
+  }
+
+  /**
+   * Records bytes received from clients.
+   *
+   * @param bytes The byte count.
+   */
+  void bytesIn(long bytes) {
+    if (enabled) {
+      bytesIn.add(bytes);
+    }
+  }
+
+  /**
+   * Records bytes sent to clients.
+   *
+   * @param bytes The byte count.
+   */
+  void bytesOut(long bytes) {
+    if (enabled) {
+      bytesOut.add(bytes);
+    }
+  }
+
+  /**
+   * Wraps a client's input stream so that the bytes read are counted.
+   *
+   * @param in The stream to count.
+   * @return The counting stream.
+   */
+  InputStream countingInput(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          bytesIn(1);
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+          bytesIn(n);
+        }
+        return n;
+      }
+    };
+  }
+
+  /**
+   * Wraps a client's output stream so that the bytes written are counted.
+   *
+   * @param out The stream to count.
+   * @return The counting stream.
+   */
+  OutputStream countingOutput(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        bytesOut(1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        bytesOut(length);
+      }
+    };
+  }
+
+  /**
+   * Returns the number of requests handled.
+   *
+   * @return The request count.
+   */
+  public long requests() {
+    long requests = 0;
+    for (LongAdder count : commandCounts) {
+      requests += count.sum();
+    }
+    return requests;
+  }
+
+  /**
+   * Returns the number of errors of every type.
+   *
+   * @return The error count.
+   */
+  public long errors() {
+    long total = 0;
+    for (LongAdder count : errors) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  /**
+   * Formats the server totals as {@code name=value} pairs: uptime, keys, memory,
+   * connections, traffic, requests, errors by type and the counters added with
+   * {@link #addTotal}. Store memory is reported only by engines that track it; heap use is
+   * always reported.
+   *
+   * @return The totals on one line.
+   */
+  public String totals() {
+    StringBuilder line = new StringBuilder();
+    line.append("uptime_s=").append((System.currentTimeMillis() - startMillis) / 1000)
+        .append(" keys=").append(store.size());
+    long storeBytes = store.memoryBytes();
+    if (storeBytes >= 0) {
+      line.append(" store_bytes=").append(storeBytes);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    line.append(" heap_used_bytes=").append(runtime.totalMemory() - runtime.freeMemory())
+        .append(" connections_active=").append(activeConnections.sum())
+        .append(" connections_total=").append(acceptedConnections.sum())
+        .append(" bytes_in=").append(bytesIn.sum())
+        .append(" bytes_out=").append(bytesOut.sum())
+        .append(" requests=").append(requests())
+        .append(" errors=").append(errors());
+    for (int i = 0; i < ERROR_NAMES.length; i++) {
+      line.append(" errors_").append(ERROR_NAMES[i]).append('=').append(errors[i].sum());
+    }
+    for (int i = 0; i < extraNames.size(); i++) {
+      line.append(' ').append(extraNames.get(i)).append('=').append(extraValues.get(i).getAsLong());
+    }
+    return line.toString();
+  }
+
+  /**
+   * Formats the count, error count and latency percentiles, in nanoseconds, of every
+   * command that has been used. The percentiles and maximum are taken from the timed
+   * sample and left out until it holds a request.
+   *
+   * @return The per-command figures on one line, separated by {@code " | "}.
+   */
+  public String commands() {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < COMMAND_NAMES.length; i++) {
+      if (commandCounts[i].sum() == 0) {
+        continue;
+      }
+      if (line.length() > 0) {
+        line.append(" | ");
+      }
+      appendCommand(line, i);
+    }
+    return line.toString();
+  }
+
+  /**
+   * Answers a STATS command: {@code STATS} reports the totals and
+   * {@code STATS COMMANDS [CURSOR <command>]} the per-command figures of the used commands
+   * after the cursor's, as many as fit in the response. A page that leaves commands out
+   * ends with {@code " | CURSOR <command>"}, naming the last command on it.
+   *
+   * @param tokens The request tokens, starting with the command name.
+   * @param maxResponseBytes The largest response the transport can deliver.
+   * @return The response text.
+   */
+  String handleStats(String[] tokens, int maxResponseBytes) {
+    if (tokens.length == 1) {
+      return STATS_SUCCESS + totals();
+    }
+    if (!tokens[1].equalsIgnoreCase("COMMANDS")) {
+      return "ERROR: Invalid STATS command";
+    }
+    if (tokens.length == 2) {
+      return commandsPage(0, maxResponseBytes);
+    }
+    if (tokens.length == 4 && tokens[2].equalsIgnoreCase("CURSOR")) {
+      for (int i = 0; i < COMMAND_NAMES.length; i++) {
+        if (COMMAND_NAMES[i].equalsIgnoreCase(tokens[3])) {
+          return commandsPage(i + 1, maxResponseBytes);
+        }
+      }
+    }
+    return "ERROR: Invalid STATS command";
+  }
+
+  /**
+   * Formats the used commands from the given index on, stopping before the first that
+   * would not leave room for a cursor.
+   */
+  private String commandsPage(int first, int maxResponseBytes) {
+    StringBuilder page = new StringBuilder(STATS_SUCCESS);
+    // The figures are ASCII, so characters are bytes
+    int budget = maxResponseBytes - CURSOR_BYTES;
+    int last = -1;
+    for (int i = first; i < COMMAND_NAMES.length; i++) {
+      if (commandCounts[i].sum() == 0) {
+        continue;
+      }
+      int mark = page.length();
+      if (last >= 0) {
+        page.append(" | ");
+      }
+      appendCommand(page, i);
+      if (page.length() > budget) {
+        if (last < 0) {
+          return "ERROR: Response too large";
+        }
+        page.setLength(mark);
+        return page.append(CURSOR).append(COMMAND_NAMES[last]).toString();
+      }
+      last = i;
+    }
+    return page.toString();
+  }
+
+  private void appendCommand(StringBuilder line, int command) {
+    LatencyHistogram histogram = latencies[command];
+    line.append(COMMAND_NAMES[command])
+        .append(" count=").append(commandCounts[command].sum())
+        .append(" errors=").append(commandErrors[command].sum());
+    if (histogram.count() > 0) {
+      line.append(" p50_ns=").append(histogram.percentile(50))
+          .append(" p99_ns=").append(histogram.percentile(99))
+          .append(" p999_ns=").append(histogram.percentile(99.9))
+          .append(" max_ns=").append(histogram.max());
+    }
+  }
+
+  private void dump() {
+    String commands = commands();
+    String line = Instant.now().truncatedTo(ChronoUnit.MILLIS) + " " + totals()
+        + (commands.isEmpty() ? "" : " | " + commands) + System.lineSeparator();
+    try {
+      Files.writeString(dumpFile, line, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      logger.log("ERROR", "Error writing stats to " + dumpFile + ": " + e.getMessage());
+    }
+  }
+}
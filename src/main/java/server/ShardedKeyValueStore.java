@@ -0,0 +1,394 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Shared-nothing key-value store. Keys are hash-partitioned over shards, and each shard's
+ * HashMap is owned by one dedicated thread, the only thread that ever touches it, so the
+ * maps need no locks and their entries stay in their owner's cache. A caller hands its
+ * operation to the key's shard and waits for the reply; batch operations hand over every
+ * key before waiting, so the shards work on them in parallel.
+ *
+ * <p>Each shard's queue is a lock-free stack of tasks: callers push with one CAS, and the
+ * shard thread takes everything pushed so far with one swap and runs it oldest first.
+ * Every calling thread reuses one task, so single-key operations allocate nothing. On
+ * multi-core machines, callers and idle shard threads spin for a while before parking.
+ * The JVM cannot pin threads to cores; run one shard per core the server may use, and
+ * restrict the process with {@code taskset} to keep the scheduler from moving them.
+ */
+public class ShardedKeyValueStore implements KeyValueStore {
+  // Spinning only pays off when the thread being waited for runs on another core
+  private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+  private static final int GET = 0;
+  private static final int PUT = 1;
+  private static final int DELETE = 2;
+  private static final int COPY = 3;
+  private static final int SIZE = 4;
+  private static final int UPDATE = 5;
+
+  // Marks the queue of a stopped shard
+  private static final Task CLOSED = new Task();
+
+  private final Shard[] shards;
+  private final ThreadLocal<Task> tasks = ThreadLocal.withInitial(Task::new);
+
+  /**
+   * Constructs a sharded store with one shard per available processor.
+   */
+  public ShardedKeyValueStore() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a sharded store and starts its shard threads.
+   *
+   * @param shardCount The number of shards, each served by its own thread.
+   * @throws IllegalArgumentException If the count is not positive.
+   */
+  public ShardedKeyValueStore(int shardCount) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+    }
+    shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard(i);
+    }
+  }
+
+  @Override
+  public String put(String key, String value) {
+    return (String) call(shardFor(key), PUT, key, value);
+  }
+
+  @Override
+  public String get(String key) {
+    return (String) call(shardFor(key), GET, key, null);
+  }
+
+  @Override
+  public String delete(String key) {
+    return (String) call(shardFor(key), DELETE, key, null);
+  }
+
+  /**
+   * Runs the function on the key's shard thread, which serializes it with every other
+   * operation on the shard.
+   */
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    Task task = tasks.get();
+    task.prepare(UPDATE, key, null);
+    task.function = function;
+    shardFor(key).submit(task);
+    return (String) task.await();
+  }
+
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) {
+    Map<String, Task> pending = new LinkedHashMap<>();
+    for (String key : keys) {
+      pending.computeIfAbsent(key, k -> submit(GET, k, null));
+    }
+    Map<String, String> values = new LinkedHashMap<>();
+    pending.forEach((key, task) -> values.put(key, (String) task.await()));
+    return values;
+  }
+
+  @Override
+  public Map<String, String> putAll(Map<String, String> entries) {
+    List<Task> pending = new ArrayList<>(entries.size());
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      pending.add(submit(PUT, entry.getKey(), entry.getValue()));
+    }
+    Map<String, String> previous = new LinkedHashMap<>();
+    for (Task task : pending) {
+      previous.put(task.key, (String) task.await());
+    }
+    return previous;
+  }
+
+  @Override
+  public Map<String, String> deleteAll(Collection<String> keys) {
+    List<Task> pending = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      pending.add(submit(DELETE, key, null));
+    }
+    Map<String, String> removed = new LinkedHashMap<>();
+    for (Task task : pending) {
+      // A shard runs a caller's tasks in order, so a repeated key finds nothing
+      String value = (String) task.await();
+      if (value != null || !removed.containsKey(task.key)) {
+        removed.put(task.key, value);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Copies each shard's pairs on its thread, one shard at a time, and passes them to the
+   * action on the calling thread, so a slow action does not hold up the shards.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    for (Shard shard : shards) {
+      String[] pairs = (String[]) call(shard, COPY, null, null);
+      for (int i = 0; i < pairs.length; i += 2) {
+        action.accept(pairs[i], pairs[i + 1]);
+      }
+    }
+  }
+
+  @Override
+  public long size() {
+    long size = 0;
+    for (Shard shard : shards) {
+      size += (Integer) call(shard, SIZE, null, null);
+    }
+    return size;
+  }
+
+  /**
+   * Stops the shard threads once they have run the tasks already queued. Later operations
+   * throw {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    for (Shard shard : shards) {
+      shard.stop();
+    }
+    boolean interrupted = false;
+    for (Shard shard : shards) {
+      while (true) {
+        try {
+          shard.thread.join();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Shard shardFor(String key) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    // Maps the hash onto [0, shards.length) without a division
+    return shards[(int) (((hash & 0xffffffffL) * shards.length) >>> 32)];
+  }
+
+  /**
+   * Runs one operation on a shard with the calling thread's task.
+   */
+  private Object call(Shard shard, int op, String key, String value) {
+    Task task = tasks.get();
+    task.prepare(op, key, value);
+    shard.submit(task);
+    return task.await();
+  }
+
+  /**
+   * Queues one operation of a batch on its key's shard without waiting.
+   */
+  private Task submit(int op, String key, String value) {
+    Task task = new Task();
+    task.prepare(op, key, value);
+    shardFor(key).submit(task);
+    return task;
+  }
+
+  /**
+   * One operation and its reply. Fields other than the flags are published by the queue
+   * push and by the {@code done} write.
+   */
+  private static final class Task {
+    int op;
+    String key;
+    String value;
+    UnaryOperator<String> function;
+    Object result;
+    RuntimeException failure;
+    Thread waiter;
+    Task next;
+    volatile boolean done;
+    volatile boolean parked;
+
+    void prepare(int op, String key, String value) {
+      this.op = op;
+      this.key = key;
+      this.value = value;
+      this.function = null;
+      this.failure = null;
+      this.waiter = Thread.currentThread();
+      this.done = false;
+    }
+
+    /**
+     * Hands the reply to the waiting caller. Runs on the shard thread.
+     */
+    void complete(Object result, RuntimeException failure) {
+      this.result = result;
+      this.failure = failure;
+      done = true;
+      if (parked) {
+        LockSupport.unpark(waiter);
+      }
+    }
+
+    /**
+     * Waits for the reply without giving up on interrupts, since the shard will still
+     * write to the task.
+     */
+    Object await() {
+      boolean interrupted = false;
+      int spins = 0;
+      while (!done) {
+        if (spins < SPIN_LIMIT) {
+          spins++;
+          Thread.onSpinWait();
+          continue;
+        }
+        parked = true;
+        if (!done) {
+          LockSupport.park(this);
+        }
+        parked = false;
+        interrupted |= Thread.interrupted();
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      Object reply = result;
+      // Reused tasks must not keep a large reply alive
+      result = null;
+      if (failure != null) {
+        throw failure;
+      }
+      return reply;
+    }
+  }
+
+  /**
+   * One partition of the keyspace and the thread that owns it.
+   */
+  private static final class Shard implements Runnable {
+    private final HashMap<String, String> map = new HashMap<>();
+    // Newest task first; CLOSED once the shard has stopped
+    private final AtomicReference<Task> queue = new AtomicReference<>();
+    private final Thread thread;
+    private volatile boolean parked;
+    private volatile boolean stopping;
+
+    Shard(int index) {
+      thread = Thread.ofPlatform().daemon().name("kv-shard-" + index).start(this);
+    }
+
+    void submit(Task task) {
+      Task head;
+      do {
+        head = queue.get();
+        if (head == CLOSED) {
+          throw new IllegalStateException("Store is closed");
+        }
+        task.next = head;
+      } while (!queue.compareAndSet(head, task));
+      if (parked) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    void stop() {
+      stopping = true;
+      LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+      int idle = 0;
+      while (true) {
+        boolean stop = stopping;
+        Task batch = queue.getAndSet(stop ? CLOSED : null);
+        if (batch != null && batch != CLOSED) {
+          runAll(batch);
+          idle = 0;
+        } else if (stop) {
+          return;
+        } else if (idle < SPIN_LIMIT) {
+          idle++;
+          Thread.onSpinWait();
+        } else {
+          parked = true;
+          if (queue.get() == null && !stopping) {
+            LockSupport.park(this);
+          }
+          parked = false;
+        }
+      }
+    }
+
+    private void runAll(Task batch) {
+      // The stack holds the newest task first; reverse it to keep each caller's order
+      Task oldest = null;
+      while (batch != null) {
+        Task next = batch.next;
+        batch.next = oldest;
+        oldest = batch;
+        batch = next;
+      }
+      while (oldest != null) {
+        // Read before completing, since the caller may reuse the task right away
+        Task next = oldest.next;
+        oldest.next = null;
+        try {
+          oldest.complete(apply(oldest), null);
+        } catch (RuntimeException e) {
+          oldest.complete(null, e);
+        }
+        oldest = next;
+      }
+    }
+
+    private Object apply(Task task) {
+      switch (task.op) {
+        case GET:
+          return map.get(task.key);
+        case PUT:
+          return map.put(task.key, task.value);
+        case DELETE:
+          return map.remove(task.key);
+        case COPY:
+          String[] pairs = new String[map.size() * 2];
+          int i = 0;
+          for (Map.Entry<String, String> entry : map.entrySet()) {
+            pairs[i++] = entry.getKey();
+            pairs[i++] = entry.getValue();
+          }
+          return pairs;
+        case SIZE:
+          return map.size();
+        case UPDATE:
+          String previous = map.get(task.key);
+          String next = task.function.apply(previous);
+          if (next == null) {
+            map.remove(task.key);
+          } else if (next != previous) {
+            map.put(task.key, next);
+          }
+          return previous;
+        default:
+          throw new IllegalArgumentException("Unknown operation: " + task.op);
+      }
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact binary image of a store, used to restart without replaying the whole log.
+ *
+ * <p>Layout: {@code "KVSNAP02" generation(8)}, then entries of
+ * {@code keyLength(4) key valueLength(4) value expiresAtMillis(8)} with UTF-8 key and
+ * value, then the trailer {@code -1(4) entryCount(8) crc32c(4)}, where the checksum covers
+ * the entries. The expiry is 0 for keys that never expire. The generation is the first
+ * write-ahead log segment not contained in the snapshot.
+ *
+ * <p>The same image is the stream format of {@code BULKLOAD} and {@code DUMP}, and of
+ * files written offline by {@link BulkTool}; those use generation 0. Entries are loaded
+ * in batches through {@link KeyValueStore#putAll}.
+ */
+public final class Snapshot {
+  private static final byte[] MAGIC = "KVSNAP02".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_BYTES = MAGIC.length + 8;
+  private static final int END_OF_ENTRIES = -1;
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+  private static final int READ_BUFFER_BYTES = 64 << 10;
+  /** Pairs handed to {@link KeyValueStore#putAll} at a time while loading. */
+  private static final int LOAD_BATCH_ENTRIES = 1024;
+  /** Size of each mapped window while loading; records never straddle two windows. */
+  private static final long MAP_WINDOW_BYTES = 256L << 20;
+  /** Longest key or value a stream may carry unless the caller sets a limit. */
+  public static final int DEFAULT_MAX_STREAM_LENGTH = 64 << 20;
+
+  private Snapshot() {
+  }
+
+  /**
+   * Writes every entry of the store to the snapshot file. The entries are written to a
+   * temporary file that replaces the snapshot only once it is complete and forced to disk,
+   * so a crash never leaves a partial snapshot behind. Concurrent writes may or may not
+   * be included; the log segments from {@code generation} on cover them.
+   *
+   * @param path The snapshot file.
+   * @param generation The first log segment that replay must still apply.
+   * @param store The store to copy.
+   * @return The number of entries written.
+   * @throws IOException If the snapshot cannot be written.
+   */
+  public static long write(Path path, long generation, KeyValueStore store) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    long count;
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      count = write(out, generation, store);
+      out.force(true);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Writes every entry of the store to a channel, as for {@code DUMP}.
+   *
+   * @param out The channel to write to.
+   * @param generation The generation to record.
+   * @param store The store to copy.
+   * @return The number of entries written.
+   * @throws IOException If the image cannot be written.
+   */
+  public static long write(WritableByteChannel out, long generation, KeyValueStore store)
+      throws IOException {
+    Writer writer = new Writer(out, generation);
+    try {
+      store.forEach((key, value) -> writer.append(key, value, store.expiresAt(key)));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return writer.finish();
+  }
+
+  /**
+   * Loads a snapshot into the store through memory-mapped windows of the file.
+   *
+   * @param path The snapshot file.
+   * @param store The store to fill.
+   * @return The generation recorded in the snapshot.
+   * @throws IOException If the file cannot be read or fails its checksum.
+   */
+  public static long load(Path path, KeyValueStore store) throws IOException {
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedReader reader = new MappedReader(in);
+      long generation = readHeader(reader, path.toString());
+      readEntries(reader, store, count -> { }, path.toString());
+      return generation;
+    }
+  }
+
+  /**
+   * Loads an image from a stream into the store, as for {@code BULKLOAD}. Exactly the
+   * image's bytes are read, so whatever follows it in the stream is left there. Entries
+   * loaded before an error stay in the store.
+   *
+   * @param in The stream, positioned at the image's magic.
+   * @param store The store to fill.
+   * @param maxLength The longest key or value accepted, in bytes; the read buffer grows to
+   *     about this size, so it bounds what a hostile stream can make the reader allocate.
+   * @param progress Called with the number of entries loaded so far after each batch.
+   * @return The number of entries in the image.
+   * @throws IOException If the stream cannot be read, ends early, fails its checksum or
+   *     holds a longer key or value.
+   */
+  public static long read(InputStream in, KeyValueStore store, int maxLength,
+      LongConsumer progress) throws IOException {
+    StreamReader reader = new StreamReader(in, maxLength);
+    readHeader(reader, "stream");
+    return readEntries(reader, store, progress, "stream");
+  }
+
+  /**
+   * Checks whether a file starts like a snapshot image.
+   *
+   * @param path The file.
+   * @return True if the file starts with the snapshot magic.
+   * @throws IOException If the file cannot be read.
+   */
+  static boolean isImage(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      byte[] magic = in.readNBytes(MAGIC.length);
+      return Arrays.equals(magic, MAGIC);
+    }
+  }
+
+  /**
+   * Reads the magic and generation.
+   *
+   * @return The generation.
+   */
+  private static long readHeader(Reader reader, String source) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    reader.require(HEADER_BYTES);
+    reader.window.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not a snapshot: " + source);
+    }
+    long generation = reader.window.getLong();
+    reader.checksumFrom = reader.window.position();
+    return generation;
+  }
+
+  /**
+   * Loads the entries and checks the trailer. Pairs without expiry are stored in batches;
+   * a pair with an expiry first stores the batch, so a key seen twice keeps its last pair.
+   *
+   * @return The number of entries read.
+   */
+  private static long readEntries(Reader reader, KeyValueStore store, LongConsumer progress,
+      String source) throws IOException {
+    byte[] scratch = new byte[256];
+    Map<String, String> batch = new HashMap<>();
+    long count = 0;
+    while (true) {
+      reader.require(4);
+      int keyLength = reader.window.getInt();
+      if (keyLength == END_OF_ENTRIES) {
+        break;
+      }
+      require(reader, keyLength, 4, source);
+      scratch = ensureCapacity(scratch, keyLength);
+      reader.window.get(scratch, 0, keyLength);
+      String key = new String(scratch, 0, keyLength, StandardCharsets.UTF_8);
+      int valueLength = reader.window.getInt();
+      // The next key length or the end marker always follows, so it is fetched with this
+      // record: one read fewer per record from a stream
+      require(reader, valueLength, 8 + 4, source);
+      scratch = ensureCapacity(scratch, valueLength);
+      reader.window.get(scratch, 0, valueLength);
+      String value = new String(scratch, 0, valueLength, StandardCharsets.UTF_8);
+      long expiresAtMillis = reader.window.getLong();
+      count++;
+      if (expiresAtMillis == KeyValueStore.NO_EXPIRY) {
+        batch.put(key, value);
+        if (batch.size() < LOAD_BATCH_ENTRIES) {
+          continue;
+        }
+      } else {
+        flush(store, batch);
+        if (expiresAtMillis > System.currentTimeMillis()) {
+          store.putExpiring(key, value, expiresAtMillis);
+        }
+      }
+      flush(store, batch);
+      progress.accept(count);
+    }
+    flush(store, batch);
+    progress.accept(count);
+
+    // The end marker is outside the checksum
+    reader.window.position(reader.window.position() - 4);
+    reader.updateChecksum();
+    int checksum = (int) reader.crc.getValue();
+    reader.window.position(reader.window.position() + 4);
+    reader.require(12);
+    long expectedCount = reader.window.getLong();
+    int expectedChecksum = reader.window.getInt();
+    if (count != expectedCount || checksum != expectedChecksum) {
+      throw new IOException("Snapshot is corrupt: " + source);
+    }
+    return count;
+  }
+
+  /**
+   * Makes a key or value of the given length available, with the bytes that follow it,
+   * after checking the length read from the image against what the reader can hold.
+   */
+  private static void require(Reader reader, int length, int following, String source)
+      throws IOException {
+    // In long arithmetic, so that a huge length cannot wrap around past the check
+    if (length < 0 || length > reader.maxLength()
+        || (long) length + following > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot is corrupt: " + source);
+    }
+    reader.require(length + following);
+  }
+
+  private static void flush(KeyValueStore store, Map<String, String> batch) {
+    if (!batch.isEmpty()) {
+      store.putAll(batch);
+      batch.clear();
+    }
+  }
+
+  private static byte[] ensureCapacity(byte[] array, int length) {
+    return array.length >= length ? array : new byte[Math.max(length, array.length * 2)];
+  }
+
+  /**
+   * Streams entries through a large buffer, checksumming each chunk as it is written.
+   */
+  static final class Writer {
+    private final WritableByteChannel out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+    private final CRC32C crc = new CRC32C();
+    private int checksumFrom;
+    private long count;
+
+    /**
+     * Starts an image with its header.
+     *
+     * @param out The channel to write to.
+     * @param generation The generation to record.
+     */
+    Writer(WritableByteChannel out, long generation) {
+      this.out = out;
+      buffer.put(MAGIC).putLong(generation);
+      checksumFrom = HEADER_BYTES;
+    }
+
+    /**
+     * Adds an entry, writing the buffer out when it fills.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @param expiresAtMillis The expiry time, or {@link KeyValueStore#NO_EXPIRY}.
+     * @throws UncheckedIOException If the buffer cannot be written.
+     */
+    void append(String key, String value, long expiresAtMillis) {
+      byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+      byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+      try {
+        put(keyBytes);
+        put(valueBytes);
+        if (buffer.remaining() < 8) {
+          flush();
+        }
+        // A key deleted since it was visited is MISSING; the log replays the delete
+        buffer.putLong(Math.max(expiresAtMillis, KeyValueStore.NO_EXPIRY));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      count++;
+    }
+
+    /**
+     * Writes the remaining entries and the trailer.
+     *
+     * @return The number of entries written.
+     * @throws IOException If the image cannot be written.
+     */
+    long finish() throws IOException {
+      flush();
+      buffer.putInt(END_OF_ENTRIES).putLong(count).putInt((int) crc.getValue());
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
+      return count;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+      if (buffer.remaining() < 4 + bytes.length) {
+        flush();
+      }
+      if (buffer.remaining() < 4 + bytes.length) {
+        // Larger than the whole buffer: write it straight through
+        buffer.putInt(bytes.length);
+        flush();
+        crc.update(bytes);
+        ByteBuffer large = ByteBuffer.wrap(bytes);
+        while (large.hasRemaining()) {
+          out.write(large);
+        }
+        return;
+      }
+      buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private void flush() throws IOException {
+      crc.update(buffer.array(), checksumFrom, buffer.position() - checksumFrom);
+      checksumFrom = 0;
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /**
+   * A window onto the image that {@link #require} keeps filled with the next bytes, and
+   * the running checksum of what has been read through it.
+   */
+  private abstract static class Reader {
+    final CRC32C crc = new CRC32C();
+    ByteBuffer window;
+    int checksumFrom;
+
+    /**
+     * Makes at least the given number of bytes available in the window.
+     *
+     * @throws IOException If the image ends first.
+     */
+    abstract void require(int bytes) throws IOException;
+
+    /**
+     * Returns the longest key or value that may follow.
+     */
+    abstract long maxLength();
+
+    void updateChecksum() {
+      ByteBuffer covered = window.duplicate();
+      covered.position(checksumFrom).limit(window.position());
+      crc.update(covered);
+      checksumFrom = window.position();
+    }
+  }
+
+  /**
+   * Maps the file one window at a time, moving the window forward whenever the next
+   * record does not fit in what remains of it.
+   */
+  private static final class MappedReader extends Reader {
+    private final FileChannel in;
+    private final long size;
+    private long windowStart;
+
+    MappedReader(FileChannel in) throws IOException {
+      this.in = in;
+      this.size = in.size();
+      map(0, 0);
+    }
+
+    @Override
+    void require(int bytes) throws IOException {
+      if (window.remaining() >= bytes) {
+        return;
+      }
+      long position = windowStart + window.position();
+      if (position + bytes > size) {
+        throw new IOException("Snapshot is truncated");
+      }
+      updateChecksum();
+      map(position, bytes);
+    }
+
+    @Override
+    long maxLength() {
+      return size - windowStart - window.position();
+    }
+
+    private void map(long position, int bytes) throws IOException {
+      windowStart = position;
+      long length = Math.min(Math.max(MAP_WINDOW_BYTES, bytes), size - position);
+      window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+      checksumFrom = 0;
+    }
+  }
+
+  /**
+   * Reads a stream into a heap window, asking for exactly the bytes each record still
+   * needs so that nothing past the image is consumed. Buffer the stream for speed.
+   */
+  private static final class StreamReader extends Reader {
+    private final InputStream in;
+    private final int maxLength;
+
+    StreamReader(InputStream in, int maxLength) {
+      this.in = in;
+      this.maxLength = maxLength;
+      window = ByteBuffer.allocate(READ_BUFFER_BYTES).limit(0);
+    }
+
+    @Override
+    void require(int bytes) throws IOException {
+      int available = window.remaining();
+      if (available >= bytes) {
+        return;
+      }
+      updateChecksum();
+      if (window.capacity() < bytes) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, window.capacity() * 2));
+        window = larger.put(window);
+      } else {
+        window.compact();
+      }
+      int read = in.readNBytes(window.array(), available, bytes - available);
+      if (read < bytes - available) {
+        throw new IOException("Snapshot is truncated");
+      }
+      window.position(available + read).flip();
+      checksumFrom = 0;
+    }
+
+    @Override
+    long maxLength() {
+      return maxLength;
+    }
+  }
+}
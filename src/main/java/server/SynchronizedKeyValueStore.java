@@ -0,0 +1,92 @@
+package server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Key-value store backed by a HashMap guarded by a single monitor. Every operation
+ * serializes on the store, which keeps it simple but limits multi-core scaling;
+ * it is kept as a baseline for comparison with {@link ConcurrentKeyValueStore}.
+ * Batch operations take the monitor once for the whole batch.
+ */
+public class SynchronizedKeyValueStore implements KeyValueStore {
+  private final HashMap<String, String> store;
+
+  /**
+   * Constructs a new SynchronizedKeyValueStore.
+   */
+  public SynchronizedKeyValueStore() {
+    store = new HashMap<>();
+  }
+
+  @Override
+  public synchronized String put(String key, String value) {
+    return store.put(key, value);
+  }
+
+  @Override
+  public synchronized String get(String key) {
+    return store.get(key);
+  }
+
+  @Override
+  public synchronized String delete(String key) {
+    return store.remove(key);
+  }
+
+  @Override
+  public synchronized String update(String key, UnaryOperator<String> function) {
+    String previous = store.get(key);
+    String next = function.apply(previous);
+    if (next == null) {
+      store.remove(key);
+    } else if (next != previous) {
+      store.put(key, next);
+    }
+    return previous;
+  }
+
+  @Override
+  public synchronized Map<String, String> getAll(Collection<String> keys) {
+    return KeyValueStore.super.getAll(keys);
+  }
+
+  @Override
+  public synchronized Map<String, String> putAll(Map<String, String> entries) {
+    return KeyValueStore.super.putAll(entries);
+  }
+
+  @Override
+  public synchronized Map<String, String> deleteAll(Collection<String> keys) {
+    return KeyValueStore.super.deleteAll(keys);
+  }
+
+  /**
+   * Copies the pairs while holding the monitor and visits them after releasing it, so a
+   * slow action, such as writing to a client, does not hold up other callers. The copy
+   * costs two references per pair.
+   */
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    String[] pairs;
+    synchronized (this) {
+      pairs = new String[store.size() * 2];
+      int i = 0;
+      for (Map.Entry<String, String> entry : store.entrySet()) {
+        pairs[i++] = entry.getKey();
+        pairs[i++] = entry.getValue();
+      }
+    }
+    for (int i = 0; i < pairs.length; i += 2) {
+      action.accept(pairs[i], pairs[i + 1]);
+    }
+  }
+
+  @Override
+  public synchronized long size() {
+    return store.size();
+  }
+}
@@ -1,18 +1,52 @@
 package server;
 
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
 import common.LoggerInterface;
-import common.Logger;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * TCP server that handles client connections and performs key-value operations.
+ * Each connection is served on its own virtual thread, up to a configurable limit.
  */
 public class TCPServer implements ServerInterface {
+  /** Default cap on simultaneously open client connections. */
+  public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+  private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+  private static final int BUFFER_SIZE = 8192;
+  /** Keys loaded between BULKLOAD progress lines. */
+  private static final long BULK_PROGRESS_KEYS = 1_000_000;
+  /** Time an overflowed watcher's handler has to report it before the socket is closed. */
+  private static final long WATCH_DROP_GRACE_MS = 1000;
+
   private final int port;
-  private final KeyValueStore store;
+  private final WatchableKeyValueStore store;
   private final LoggerInterface logger;
+  private final BinaryRequestHandler binaryHandler;
+  private final ServerMetrics metrics;
+  private final int maxRequestBytes;
+  private final int maxBulkLength;
+  private final int watchMaxPendingKeys;
+  private final Semaphore connectionPermits;
+  private final Set<Socket> activeConnections = ConcurrentHashMap.newKeySet();
+  private final ExecutorService connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicBoolean stopped = new AtomicBoolean(false);
   private ServerSocket serverSocket;
 
   /**
@@ -21,9 +55,40 @@ public class TCPServer implements ServerInterface {
    * @param port The port on which the server will run.
    */
   public TCPServer(int port) {
+    this(port, new ConcurrentKeyValueStore(), new ServerConfig());
+  }
+
+  /**
+   * Constructs a TCP server on the specified port that serves the given store, wrapped in
+   * a {@link WatchableKeyValueStore} so that its clients can WATCH keys.
+   * Reads the "max-connections", "max-request-bytes" (unlimited by default) and
+   * "watch-max-pending-keys" options and the {@link ServerMetrics} options from the
+   * configuration. BULKLOAD accepts keys and values up to "max-request-bytes", or up to
+   * {@link Snapshot#DEFAULT_MAX_STREAM_LENGTH} when requests are unlimited.
+   *
+   * @param port The port on which the server will run.
+   * @param store The key-value store shared by all connections.
+   * @param config The server configuration.
+   */
+  public TCPServer(int port, KeyValueStore store, ServerConfig config) {
+    int maxConnections = config.getInt("max-connections", DEFAULT_MAX_CONNECTIONS);
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("max-connections must be positive: " + maxConnections);
+    }
     this.port = port;
-    this.store = new KeyValueStore();
-    this.logger = new Logger("TCPServerLog.log");
+    this.store = new WatchableKeyValueStore(store);
+    this.logger = config.createLogger("TCPServerLog.log");
+    this.metrics = new ServerMetrics(this.store, config, logger);
+    this.maxRequestBytes = config.getInt("max-request-bytes", Integer.MAX_VALUE);
+    this.maxBulkLength = maxRequestBytes == Integer.MAX_VALUE
+        ? Snapshot.DEFAULT_MAX_STREAM_LENGTH : maxRequestBytes;
+    this.watchMaxPendingKeys = config.getInt("watch-max-pending-keys",
+        WatchableKeyValueStore.DEFAULT_MAX_PENDING_KEYS);
+    if (watchMaxPendingKeys <= 0) {
+      throw new IllegalArgumentException("watch-max-pending-keys must be positive: " + watchMaxPendingKeys);
+    }
+    this.binaryHandler = new BinaryRequestHandler(this.store, logger, metrics);
+    this.connectionPermits = new Semaphore(maxConnections);
   }
 
   /**
@@ -33,93 +98,469 @@ public class TCPServer implements ServerInterface {
   public void execute() {
     try {
       serverSocket = new ServerSocket(port);
+      metrics.start();
       logger.log("INFO", "TCPServer running on port " + port);
-      while (true) {
+      while (!stopped.get()) {
         Socket clientSocket = serverSocket.accept();
         logger.log("INFO", "Connection established with " + clientSocket.getInetAddress());
 
-        // Handle client in a separate method
-        handleClient(clientSocket);
+        if (!connectionPermits.tryAcquire()) {
+          rejectClient(clientSocket);
+          continue;
+        }
+        activeConnections.add(clientSocket);
+        metrics.connectionOpened();
+        connectionExecutor.execute(() -> serveClient(clientSocket));
       }
     } catch (IOException e) {
-      logger.log("ERROR", "Server error: " + e.getMessage());
+      if (!stopped.get()) {
+        logger.log("ERROR", "Server error: " + e.getMessage());
+      }
     } finally {
       shutdown();
     }
   }
 
   /**
-   * Handles communication with the connected client.
+   * Runs a client connection to completion and releases its connection slot.
    *
    * @param clientSocket The socket for the connected client.
    */
-  private void handleClient(Socket clientSocket) {
-    try (BufferedReader in = new BufferedReader(
-        new InputStreamReader(clientSocket.getInputStream()));
-        PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+  private void serveClient(Socket clientSocket) {
+    try {
+      handleClient(clientSocket);
+    } finally {
+      activeConnections.remove(clientSocket);
+      closeQuietly(clientSocket);
+      metrics.connectionClosed();
+      connectionPermits.release();
+    }
+  }
 
-      String input;
-      while ((input = in.readLine()) != null) {
-        String response = handleRequest(input, clientSocket.getInetAddress().toString());
-        out.println(response);
-        logger.log("INFO", "Processed request: " + input);
+  /**
+   * Turns away a client because the connection limit has been reached.
+   *
+   * @param clientSocket The socket for the rejected client.
+   */
+  private void rejectClient(Socket clientSocket) {
+    logger.log("WARNING", "Connection limit reached, rejecting " + clientSocket.getInetAddress());
+    metrics.recordError(ServerMetrics.CONNECTION_LIMIT);
+    try (PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+      out.println("ERROR: Too many connections");
+    } catch (IOException e) {
+      logger.log("ERROR", "Error rejecting client: " + e.getMessage());
+    } finally {
+      closeQuietly(clientSocket);
+    }
+  }
+
+  /**
+   * Handles communication with the connected client. The first byte selects the protocol:
+   * {@link BinaryProtocol#MAGIC} starts a binary session, anything else is text.
+   *
+   * @param clientSocket The socket for the connected client.
+   */
+  private void handleClient(Socket clientSocket) {
+    try {
+      BufferedInputStream in = new BufferedInputStream(
+          metrics.countingInput(clientSocket.getInputStream()));
+      in.mark(1);
+      int first = in.read();
+      if (first == -1) {
+        return;
+      }
+      if ((byte) first == BinaryProtocol.MAGIC) {
+        handleBinaryClient(clientSocket, in);
+      } else {
+        in.reset();
+        handleTextClient(clientSocket, in);
       }
     } catch (IOException e) {
-      logger.log("ERROR", "Client handling error: " + e.getMessage());
+      if (!stopped.get()) {
+        metrics.recordError(ServerMetrics.IO);
+        logger.log("ERROR", "Client handling error: " + e.getMessage());
+      }
     }
   }
 
   /**
-   * Processes the client's request and returns a response.
+   * Serves a text-protocol client. Request lines are cut from a byte buffer and executed
+   * by a {@link CommandEngine} owned by the connection. Requests are answered in order,
+   * and responses are flushed once no further request is buffered, so a client that
+   * pipelines many commands receives their responses in batches. BULKLOAD and DUMP read or
+   * write a {@link Snapshot} image on the connection instead, and WATCH turns it into a
+   * stream of events.
    *
-   * @param request The client's request.
-   * @param clientAddress The address of the connected client.
-   * @return The server's response to the request.
+   * @param clientSocket The socket for the connected client.
+   * @param in The client's buffered input stream.
+   * @throws IOException If an I/O error occurs.
    */
-  private String handleRequest(String request, String clientAddress) {
-    if (request == null || request.trim().isEmpty()) {
-      logger.log("WARNING", "Received empty request from " + clientAddress);
-      return "ERROR: Empty request";
+  private void handleTextClient(Socket clientSocket, InputStream in) throws IOException {
+    String clientAddress = clientSocket.getInetAddress().toString();
+    CommandEngine engine = new CommandEngine(store, logger, metrics, true);
+    OutputStream out = new BufferedOutputStream(
+        metrics.countingOutput(clientSocket.getOutputStream()), BUFFER_SIZE);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    ByteBuffer response = ByteBuffer.allocate(BUFFER_SIZE);
+    int lineStart = 0;
+    int filled = 0;
+    int scanned = 0;
+
+    while (true) {
+      int newline = scanned;
+      while (newline < filled && buffer[newline] != '\n') {
+        newline++;
+      }
+      if (newline < filled) {
+        int lineEnd = newline > lineStart && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+        int stream = CommandEngine.streamCommand(buffer, lineStart, lineEnd - lineStart);
+        if (stream == ServerMetrics.WATCH) {
+          String request = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+          if (watch(clientSocket, request, in, out, clientAddress)) {
+            break;
+          }
+          lineStart = scanned = newline + 1;
+          continue;
+        }
+        if (stream == ServerMetrics.DUMP) {
+          dump(out, clientAddress);
+          break;
+        }
+        if (stream == ServerMetrics.BULKLOAD) {
+          // The image starts with whatever followed the request line in the buffer
+          ByteArrayInputStream buffered = new ByteArrayInputStream(buffer, newline + 1, filled - newline - 1);
+          // SequenceInputStream closes a stream it reads to the end, which would close the
+          // socket before a failure could be answered
+          InputStream unclosed = new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+          };
+          if (!bulkLoad(new SequenceInputStream(buffered, unclosed), out, clientAddress)) {
+            break;
+          }
+          lineStart = scanned = filled - buffered.available();
+          continue;
+        }
+        response = engine.execute(buffer, lineStart, lineEnd - lineStart, response, clientAddress);
+        if (!response.hasRemaining()) {
+          response = CommandEngine.grow(response, response.capacity() * 2);
+        }
+        response.put((byte) '\n');
+        out.write(response.array(), 0, response.position());
+        response.clear();
+        if (logger.isLoggable("INFO")) {
+          logger.log("INFO", "Processed request: "
+              + new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+        }
+        lineStart = scanned = newline + 1;
+        continue;
+      }
+
+      // No complete line is buffered: answer pipelined requests before waiting for more
+      if (in.available() == 0) {
+        out.flush();
+      }
+      if (lineStart > 0) {
+        System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+        filled -= lineStart;
+        lineStart = 0;
+      }
+      scanned = filled;
+      if (filled == buffer.length) {
+        if (buffer.length >= maxRequestBytes) {
+          logger.log("WARNING", "Request too large from " + clientAddress);
+          metrics.recordError(ServerMetrics.TOO_LARGE);
+          break;
+        }
+        buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxRequestBytes));
+      }
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read < 0) {
+        break;
+      }
+      filled += read;
     }
+    out.flush();
+  }
 
-    String[] tokens = request.trim().split("\\s+", 3);
-    String command = tokens[0].toUpperCase();
+  /**
+   * Runs BULKLOAD: loads the snapshot image that follows the request line, in batches,
+   * without logging or answering each pair. The connection is read only as fast as the
+   * store takes the pairs, so TCP flow control holds the sender back. A
+   * {@code BULKLOAD_PROGRESS: <n> keys} line is sent every million keys, then
+   * {@code BULKLOAD_SUCCESS: <n> keys}. After {@code BULKLOAD_FAILURE} the position in the
+   * stream is lost, so the connection is closed; pairs loaded before the failure stay.
+   *
+   * @param in The stream, positioned after the request line.
+   * @param out The client's output stream.
+   * @param clientAddress The address of the client.
+   * @return True if the image was loaded and the connection can continue.
+   */
+  private boolean bulkLoad(InputStream in, OutputStream out, String clientAddress) {
+    long start = metrics.startTimer();
+    long begin = System.nanoTime();
+    long[] reported = {0};
+    logger.log("INFO", "Bulk load started by " + clientAddress);
+    try {
+      long count;
+      try {
+        count = Snapshot.read(in, store, maxBulkLength, loaded -> {
+          if (loaded - reported[0] >= BULK_PROGRESS_KEYS) {
+            reported[0] = loaded;
+            try {
+              writeLine(out, "BULKLOAD_PROGRESS: " + loaded + " keys");
+              out.flush();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      writeLine(out, "BULKLOAD_SUCCESS: " + count + " keys");
+      metrics.record(ServerMetrics.BULKLOAD, start, ServerMetrics.NO_ERROR);
+      logger.log("INFO", "Bulk loaded " + count + " keys from " + clientAddress + " in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+      return true;
+    } catch (IOException e) {
+      metrics.record(ServerMetrics.BULKLOAD, start, ServerMetrics.BAD_REQUEST);
+      logger.log("WARNING", "Bulk load from " + clientAddress + " failed: " + e.getMessage());
+      try {
+        writeLine(out, "BULKLOAD_FAILURE: " + e.getMessage());
+      } catch (IOException ignored) {
+        // The client is gone
+      }
+      return false;
+    }
+  }
 
+  /**
+   * Runs DUMP: writes every pair as a snapshot image, then ends the connection, so the
+   * client can read the image to the end of the stream. The engines hand out their pairs
+   * a segment at a time outside their locks, so a client that reads slowly holds up only
+   * its own dump.
+   *
+   * @param out The client's output stream.
+   * @param clientAddress The address of the client.
+   * @throws IOException If the image cannot be sent.
+   */
+  private void dump(OutputStream out, String clientAddress) throws IOException {
+    long start = metrics.startTimer();
+    long begin = System.nanoTime();
+    out.flush();
+    long count = Snapshot.write(channel(out), 0, store);
+    out.flush();
+    metrics.record(ServerMetrics.DUMP, start, ServerMetrics.NO_ERROR);
+    logger.log("INFO", "Dumped " + count + " keys to " + clientAddress + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+  }
+
+  /**
+   * Runs WATCH: watches the keys named on the request line, and the key prefixes given
+   * with a trailing '*', answers {@code WATCH_SUCCESS: <n> patterns}, then pushes
+   * {@code WATCH_EVENT: PUT <key> <value>} and {@code WATCH_EVENT: DELETE <key>} lines
+   * until the client disconnects. Events that are pending together are flushed together,
+   * with each key's latest change only. A watcher more than "watch-max-pending-keys" keys
+   * behind is sent {@code WATCH_OVERFLOW} and disconnected; if its handler is stuck
+   * writing to it, the socket is closed after a grace period. Requests sent after WATCH
+   * are ignored.
+   *
+   * @param clientSocket The socket for the connected client.
+   * @param request The request line.
+   * @param in The client's input stream, positioned after the request line.
+   * @param out The client's output stream.
+   * @param clientAddress The address of the client.
+   * @return False if the request was invalid and the connection can continue.
+   * @throws IOException If the events cannot be sent.
+   */
+  private boolean watch(Socket clientSocket, String request, InputStream in, OutputStream out,
+      String clientAddress) throws IOException {
+    long start = metrics.startTimer();
+    String[] patterns = request.trim().split("\\s+");
+    if (patterns.length < 2) {
+      writeLine(out, "ERROR: Invalid WATCH command");
+      metrics.record(ServerMetrics.WATCH, start, ServerMetrics.BAD_REQUEST);
+      return false;
+    }
+    List<String> keys = new ArrayList<>();
+    List<String> prefixes = new ArrayList<>();
+    for (int i = 1; i < patterns.length; i++) {
+      String pattern = patterns[i];
+      if (pattern.endsWith("*")) {
+        prefixes.add(pattern.substring(0, pattern.length() - 1));
+      } else {
+        keys.add(pattern);
+      }
+    }
+    Runnable drop = () -> Thread.startVirtualThread(() -> {
+      try {
+        Thread.sleep(WATCH_DROP_GRACE_MS);
+      } catch (InterruptedException e) {
+        // Close now
+      }
+      closeQuietly(clientSocket);
+    });
+    WatchableKeyValueStore.Watch watch = store.watch(keys, prefixes, watchMaxPendingKeys, drop);
     try {
-      switch (command) {
-        case "PUT":
-          if (tokens.length != 3) return "ERROR: Invalid PUT command";
-          String putResult = store.put(tokens[1], tokens[2]);
-          return "PUT_SUCCESS";
-        case "GET":
-          if (tokens.length != 2) return "ERROR: Invalid GET command";
-          String value = store.get(tokens[1]);
-          return value != null ? "GET_SUCCESS: " + value : "GET_FAILURE: Key not found";
-        case "DELETE":
-          if (tokens.length != 2) return "ERROR: Invalid DELETE command";
-          String removed = store.delete(tokens[1]);
-          return removed != null ? "DELETE_SUCCESS" : "DELETE_FAILURE: Key not found";
-        default:
-          return "ERROR: Unknown command";
-      }
-    } catch (Exception e) {
-      logger.log("ERROR", "Error handling request from " + clientAddress + ": " + e.getMessage());
-      return "ERROR: Exception occurred while processing request";
+      metrics.record(ServerMetrics.WATCH, start, ServerMetrics.NO_ERROR);
+      logger.log("INFO", "Watch started by " + clientAddress + ": " + request.trim());
+      writeLine(out, "WATCH_SUCCESS: " + (patterns.length - 1) + " patterns");
+      out.flush();
+      // Only the end of the input matters now: it ends the watch
+      Thread.startVirtualThread(() -> {
+        try {
+          while (in.skip(BUFFER_SIZE) > 0 || in.read() >= 0) {
+            // Discard
+          }
+        } catch (IOException e) {
+          // Closed
+        }
+        watch.close();
+      });
+      Map<String, String> events;
+      while ((events = watch.take()) != null) {
+        for (Map.Entry<String, String> event : events.entrySet()) {
+          writeLine(out, event.getValue() == null
+              ? "WATCH_EVENT: DELETE " + event.getKey()
+              : "WATCH_EVENT: PUT " + event.getKey() + " " + event.getValue());
+        }
+        out.flush();
+      }
+      if (watch.overflowed()) {
+        logger.log("WARNING", "Dropped watcher " + clientAddress + ": over "
+            + watchMaxPendingKeys + " keys pending");
+        writeLine(out, "WATCH_OVERFLOW: Over " + watchMaxPendingKeys + " keys changed before being read");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      watch.close();
     }
+    return true;
   }
 
   /**
-   * Shuts down the TCP server and closes the server socket.
+   * Wraps a stream as a channel that does not close it. Unlike the channel from
+   * {@link java.nio.channels.Channels#newChannel}, whose writes hold a monitor, blocking on
+   * a slow client does not pin the virtual thread to its carrier.
+   */
+  private static WritableByteChannel channel(OutputStream out) {
+    return new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer source) throws IOException {
+        int length = source.remaining();
+        if (source.hasArray()) {
+          out.write(source.array(), source.arrayOffset() + source.position(), length);
+          source.position(source.limit());
+        } else {
+          byte[] bytes = new byte[length];
+          source.get(bytes);
+          out.write(bytes);
+        }
+        return length;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  private static void writeLine(OutputStream out, String line) throws IOException {
+    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Serves a binary-protocol client, reusing one request and one response frame for the
+   * whole connection. Flushing follows the same batching rule as the text protocol.
+   *
+   * @param clientSocket The socket for the connected client.
+   * @param input The client's buffered input stream, positioned after the magic byte.
+   * @throws IOException If an I/O error occurs or a frame is malformed.
+   */
+  private void handleBinaryClient(Socket clientSocket, InputStream input) throws IOException {
+    String clientAddress = clientSocket.getInetAddress().toString();
+    DataInputStream in = new DataInputStream(input);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(metrics.countingOutput(clientSocket.getOutputStream())));
+    Frame request = new Frame();
+    Frame response = new Frame();
+
+    while (request.readRequest(in)) {
+      binaryHandler.handleRequest(request, response, clientAddress);
+      response.writeResponse(out);
+      if (logger.isLoggable("INFO")) {
+        logger.log("INFO", "Processed binary request: opcode " + request.getType());
+      }
+
+      if (in.available() == 0) {
+        out.flush();
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns the server's request, connection and traffic metrics.
+   *
+   * @return The metrics.
+   */
+  public ServerMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Shuts down the TCP server: stops accepting, closes in-flight connections
+   * and waits briefly for their handlers to finish.
    */
   @Override
   public void shutdown() {
+    if (!stopped.compareAndSet(false, true)) {
+      return;
+    }
     try {
       if (serverSocket != null && !serverSocket.isClosed()) {
         serverSocket.close();
       }
-      logger.close();
     } catch (IOException e) {
       logger.log("ERROR", "Error closing server socket: " + e.getMessage());
     }
+
+    // Closing the sockets unblocks handlers waiting in readLine()
+    for (Socket clientSocket : activeConnections) {
+      closeQuietly(clientSocket);
+    }
+    connectionExecutor.shutdown();
+    try {
+      if (!connectionExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        logger.log("WARNING", "Timed out waiting for client handlers to finish");
+        connectionExecutor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      connectionExecutor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    metrics.close();
+    logger.close();
+  }
+
+  /**
+   * Closes a client socket, ignoring errors.
+   *
+   * @param socket The socket to close.
+   */
+  private void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Already closed or broken; nothing else to release
+    }
   }
 }
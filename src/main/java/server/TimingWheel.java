@@ -0,0 +1,173 @@
+package server;
+
+import common.LoggerInterface;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel that fires timers on a background thread, in the style of the
+ * Linux kernel timer wheel.
+ *
+ * <p>There are four levels of 64 slots. Level 0 has one slot per tick; each slot of
+ * level {@code n} covers 64<sup>n</sup> ticks. A timer is placed in the lowest level whose
+ * range reaches its deadline, and whenever the current tick enters a new slot of a higher
+ * level, that slot's timers are moved down a level. Scheduling is O(1) and each tick
+ * touches only the timers due in it (plus the occasional cascade), no matter how many
+ * timers are pending. Deadlines beyond the top level's range (about 46 hours at 10 ms
+ * ticks) wait in its last slot and are placed again when they cascade.
+ *
+ * <p>Timers cannot be cancelled; the callback is expected to ignore timers that no longer
+ * apply. Other threads hand timers over through a lock-free queue, so only the wheel's own
+ * thread touches the slots.
+ */
+final class TimingWheel {
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+  private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+  /**
+   * A scheduled deadline for one key.
+   */
+  static final class Timer {
+    final String key;
+    final long deadlineMillis;
+    private long deadlineTick;
+    private Timer next;
+
+    Timer(String key, long deadlineMillis) {
+      this.key = key;
+      this.deadlineMillis = deadlineMillis;
+    }
+  }
+
+  private final long tickMillis;
+  private final long startMillis;
+  private final Consumer<Timer> onExpire;
+  private final LoggerInterface logger;
+  private final ConcurrentLinkedQueue<Timer> pending = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean closed;
+
+  // Wheel-thread state
+  private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+  private long currentTick;
+
+  /**
+   * Starts a timing wheel.
+   *
+   * @param tickMillis The resolution of the wheel.
+   * @param onExpire Called on the wheel thread with each timer once its deadline passes.
+   * @param logger The logger for callbacks that fail.
+   */
+  TimingWheel(long tickMillis, Consumer<Timer> onExpire, LoggerInterface logger) {
+    this.tickMillis = tickMillis;
+    this.startMillis = System.currentTimeMillis();
+    this.onExpire = onExpire;
+    this.logger = logger;
+    this.thread = new Thread(this::run, "timing-wheel");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Schedules a timer. Thread-safe.
+   *
+   * @param timer The timer to fire at its deadline.
+   */
+  void schedule(Timer timer) {
+    pending.add(timer);
+  }
+
+  /**
+   * Stops the wheel thread; pending timers are discarded.
+   */
+  void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      long nowTick = (System.currentTimeMillis() - startMillis) / tickMillis;
+      drainPending();
+      // Catch up one tick at a time if the thread was descheduled
+      while (currentTick < nowTick && !closed) {
+        advance();
+      }
+      long nextTickMillis = startMillis + (currentTick + 1) * tickMillis;
+      long sleepMillis = nextTickMillis - System.currentTimeMillis();
+      if (sleepMillis > 0) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sleepMillis));
+      }
+    }
+  }
+
+  private void drainPending() {
+    Timer timer;
+    while ((timer = pending.poll()) != null) {
+      // Round up so a timer never fires before its deadline
+      long tick = (timer.deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+      timer.deadlineTick = Math.max(tick, currentTick + 1);
+      place(timer);
+    }
+  }
+
+  private void place(Timer timer) {
+    long delta = Math.min(timer.deadlineTick - currentTick, MAX_DELTA);
+    long target = currentTick + delta;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    int slot = (int) (target >>> (SLOT_BITS * level)) & SLOT_MASK;
+    timer.next = slots[level][slot];
+    slots[level][slot] = timer;
+  }
+
+  /**
+   * Moves to the next tick: cascades any higher-level slot the tick enters, then fires
+   * the timers of the tick's level 0 slot.
+   */
+  private void advance() {
+    currentTick++;
+    for (int level = LEVELS - 1; level >= 1; level--) {
+      if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        Timer timer = slots[level][slot];
+        slots[level][slot] = null;
+        while (timer != null) {
+          Timer next = timer.next;
+          place(timer);
+          timer = next;
+        }
+      }
+    }
+
+    int slot = (int) currentTick & SLOT_MASK;
+    Timer timer = slots[0][slot];
+    slots[0][slot] = null;
+    while (timer != null) {
+      Timer next = timer.next;
+      timer.next = null;
+      if (timer.deadlineTick <= currentTick) {
+        try {
+          onExpire.accept(timer);
+        } catch (RuntimeException e) {
+          logger.log("ERROR", "Expiring " + timer.key + " failed: " + e.getMessage());
+        }
+      } else {
+        place(timer);
+      }
+      timer = next;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package server;
+
+/**
+ * W-TinyLFU: new keys enter a small admission window (1% of the budget); when the window
+ * overflows, its oldest key may only displace the main region's sampled victim if it has
+ * been accessed more often recently. Frequencies come from a count-min sketch whose
+ * counters are halved periodically, so one-hit wonders and scans cannot flush a hot
+ * working set the way they do under LRU.
+ *
+ * <p>Both regions pick their oldest entry by sampling, as in {@link SampledLruPolicy},
+ * rather than keeping exact LRU lists.
+ */
+class TinyLfuPolicy implements EvictionPolicy {
+  /** Estimated bytes per entry, used only to size the sketch. */
+  private static final int SKETCH_BYTES_PER_ENTRY = 256;
+
+  private final int samples;
+  private final long windowBytes;
+  private final FrequencySketch sketch;
+
+  /**
+   * Constructs the policy.
+   *
+   * @param samples How many keys to compare when choosing a region's oldest entry.
+   * @param maxBytes The memory budget of the store.
+   */
+  TinyLfuPolicy(int samples, long maxBytes) {
+    this.samples = samples;
+    this.windowBytes = Math.max(1, maxBytes / 100);
+    this.sketch = new FrequencySketch(maxBytes / SKETCH_BYTES_PER_ENTRY);
+  }
+
+  @Override
+  public int admissionRegion() {
+    return BoundedKeyValueStore.WINDOW;
+  }
+
+  @Override
+  public void recordAccess(String key) {
+    sketch.increment(key.hashCode());
+  }
+
+  @Override
+  public void enforce(BoundedKeyValueStore store) {
+    while (true) {
+      boolean overBudget = store.usedBytes() > store.maxBytes();
+      boolean windowFull = store.regionBytes(BoundedKeyValueStore.WINDOW) > windowBytes;
+      if (!overBudget && !windowFull) {
+        return;
+      }
+      BoundedKeyValueStore.Entry candidate = windowFull
+          ? store.sampleOldest(BoundedKeyValueStore.WINDOW, samples) : null;
+      if (!overBudget) {
+        // Room left in the main region: the window's oldest moves there unopposed
+        if (candidate == null) {
+          return;
+        }
+        store.promote(candidate);
+        continue;
+      }
+
+      BoundedKeyValueStore.Entry victim = store.sampleOldest(BoundedKeyValueStore.MAIN, samples);
+      if (candidate == null) {
+        if (victim == null) {
+          victim = store.sampleOldest(BoundedKeyValueStore.WINDOW, samples);
+          if (victim == null) {
+            return;
+          }
+        }
+        store.evict(victim);
+      } else if (victim == null) {
+        store.promote(candidate);
+      } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+        store.evict(victim);
+        store.promote(candidate);
+      } else {
+        store.evict(candidate);
+      }
+    }
+  }
+
+  /**
+   * Count-min sketch of 4-bit counters, four rows deep, sixteen counters per long.
+   * Updates are plain reads and writes: an increment lost to a concurrent one only makes
+   * an estimate slightly low, which is cheaper than making every read synchronize.
+   */
+  static final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97cb3127, 0xb1a29f3d, 0xc3a5c85c, 0x8ebc6af1};
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Constructs a sketch sized for the expected number of distinct keys.
+     *
+     * @param expectedEntries The number of keys the store is expected to hold.
+     */
+    FrequencySketch(long expectedEntries) {
+      int length = (int) Math.min(1 << 26, Math.max(64, Long.highestOneBit(expectedEntries - 1) << 1));
+      this.table = new long[length];
+      this.tableMask = length - 1;
+      this.sampleSize = 10 * length;
+    }
+
+    /**
+     * Returns the estimated recent access count of a key, at most 15.
+     *
+     * @param hash The key's hash code.
+     * @return The smallest of the key's four counters.
+     */
+    int frequency(int hash) {
+      int frequency = 15;
+      for (int row = 0; row < 4; row++) {
+        int h = rehash(hash, row);
+        frequency = Math.min(frequency, (int) (table[h & tableMask] >>> counterShift(h)) & 0xF);
+      }
+      return frequency;
+    }
+
+    /**
+     * Counts one access of a key, halving every counter once enough accesses have been
+     * counted, so the sketch reflects recent popularity.
+     *
+     * @param hash The key's hash code.
+     */
+    void increment(int hash) {
+      boolean added = false;
+      for (int row = 0; row < 4; row++) {
+        int h = rehash(hash, row);
+        int index = h & tableMask;
+        int shift = counterShift(h);
+        if (((table[index] >>> shift) & 0xF) < 15) {
+          table[index] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        reset();
+      }
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+    }
+
+    private static int rehash(int hash, int row) {
+      int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+      return h ^ (h >>> 15);
+    }
+
+    private static int counterShift(int h) {
+      // The top bits pick the counter; the bottom bits pick the long
+      return (h >>> 28) << 2;
+    }
+  }
+}
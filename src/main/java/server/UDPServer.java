@@ -1,18 +1,84 @@
 package server;
 
+import common.BinaryProtocol;
+import common.BinaryProtocol.Frame;
 import common.LoggerInterface;
-import common.Logger;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * UDP server that handles client requests and performs key-value operations.
+ * Datagrams starting with {@link BinaryProtocol#MAGIC} carry one binary frame;
+ * all others are UTF-8 text commands.
+ *
+ * <p>A pool of worker threads receives from one {@link DatagramChannel}. Each worker owns
+ * its direct receive and send buffers, its binary frames and its {@link CommandEngine}, which
+ * writes text responses straight into the send buffer.
+ *
+ * <p>A text request may be tagged {@code #<id> <command>}; its response is then tagged
+ * {@code #<id> <response>}. Binary frames carry an id in their header, where 0 means
+ * untagged. Responses to tagged requests are kept in a {@link ResponseCache}, so a
+ * retransmitted request is answered again without being executed twice.
  */
 public class UDPServer implements ServerInterface {
+  /** Default largest request or response datagram, in bytes. */
+  public static final int MAX_PACKET_SIZE = 1024;
+  /** Largest payload of a UDP datagram over IPv4. */
+  public static final int MAX_DATAGRAM_SIZE = 65507;
+  /** Smallest accepted packet size limit, which leaves room for a request id and an error. */
+  public static final int MIN_PACKET_SIZE = 64;
+  /** Default size requested for the socket receive buffer, in bytes. */
+  public static final int DEFAULT_RECEIVE_BUFFER = 4 << 20;
+  /** Default number of clients whose recent responses are cached. */
+  public static final int DEFAULT_CACHE_CLIENTS = 1024;
+  /**
+   * Default number of responses cached per client, which matches the id window of
+   * {@code client.KeyValueClient}; a client must keep its outstanding ids within this many
+   * of each other for every retransmission to be recognized.
+   */
+  public static final int DEFAULT_CACHE_ENTRIES = 256;
+  /** Default budget of the response cache, in bytes. */
+  public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+  private static final long UNTAGGED = -1;
+  // Keeps binary ids apart from text ids, which have at most 18 digits
+  private static final long BINARY_ID = 1L << 62;
+  private static final int MAX_ID_DIGITS = 18;
+  private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+  private static final byte[] REQUEST_TOO_LARGE =
+      "ERROR: Request too large".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] MALFORMED_REQUEST_ID =
+      "ERROR: Malformed request id".getBytes(StandardCharsets.US_ASCII);
+
   private final int port;
   private final KeyValueStore store;
   private final LoggerInterface logger;
-  private DatagramSocket socket;
+  private final BinaryRequestHandler binaryHandler;
+  private final ServerMetrics metrics;
+  private final int maxPacketSize;
+  private final int receiveBufferSize;
+  private final ResponseCache responseCache;
+  private final Thread[] workers;
+  private final AtomicBoolean stopped = new AtomicBoolean(false);
+  private final LongAdder receivedPackets = new LongAdder();
+  private final LongAdder oversizedPackets = new LongAdder();
+  private final LongAdder unsentResponses = new LongAdder();
+  private final LongAdder retransmittedRequests = new LongAdder();
+  // The kernel's drop count read just before the channel closed, or -1 while it is open
+  private volatile long kernelDropsAtClose = -1;
+  private volatile DatagramChannel channel;
 
   /**
    * Constructs a UDP server on the specified port.
@@ -20,97 +86,466 @@ public class UDPServer implements ServerInterface {
    * @param port The port on which the server will run.
    */
   public UDPServer(int port) {
+    this(port, new ConcurrentKeyValueStore(), new ServerConfig());
+  }
+
+  /**
+   * Constructs a UDP server on the specified port that serves the given store.
+   * Reads the "udp-workers", "udp-rcvbuf", "udp-max-packet", "udp-cache-clients",
+   * "udp-cache-entries" and "udp-cache-bytes" options, where a cache size of 0 disables the
+   * response cache, and the {@link ServerMetrics} options. On starting, the server adds its
+   * packet counters to the metrics totals as udp_received, udp_oversized, udp_dropped and
+   * udp_retransmitted.
+   *
+   * @param port The port on which the server will run.
+   * @param store The key-value store to operate on.
+   * @param config The server configuration.
+   */
+  public UDPServer(int port, KeyValueStore store, ServerConfig config) {
+    int workerCount = config.getInt("udp-workers", Runtime.getRuntime().availableProcessors());
+    if (workerCount <= 0) {
+      throw new IllegalArgumentException("udp-workers must be positive: " + workerCount);
+    }
+    int maxPacket = config.getInt("udp-max-packet", MAX_PACKET_SIZE);
+    if (maxPacket < MIN_PACKET_SIZE || maxPacket > MAX_DATAGRAM_SIZE) {
+      throw new IllegalArgumentException("udp-max-packet must be between " + MIN_PACKET_SIZE + " and "
+          + MAX_DATAGRAM_SIZE + ": " + maxPacket);
+    }
     this.port = port;
-    this.store = new KeyValueStore();
-    this.logger = new Logger("UDPServerLog.log");
+    this.store = store;
+    this.logger = config.createLogger("UDPServerLog.log");
+    this.metrics = new ServerMetrics(store, config, logger);
+    this.binaryHandler = new BinaryRequestHandler(store, logger, metrics);
+    this.maxPacketSize = maxPacket;
+    this.receiveBufferSize = (int) Math.min(Integer.MAX_VALUE,
+        config.getBytes("udp-rcvbuf", DEFAULT_RECEIVE_BUFFER));
+    int cacheClients = config.getInt("udp-cache-clients", DEFAULT_CACHE_CLIENTS);
+    int cacheEntries = config.getInt("udp-cache-entries", DEFAULT_CACHE_ENTRIES);
+    long cacheBytes = config.getBytes("udp-cache-bytes", DEFAULT_CACHE_BYTES);
+    this.responseCache = cacheClients > 0 && cacheEntries > 0 && cacheBytes > 0
+        ? new ResponseCache(cacheClients, cacheEntries, cacheBytes) : null;
+    this.workers = new Thread[workerCount];
   }
 
   /**
-   * Starts the UDP server and listens for client requests.
+   * Opens the channel, starts the workers and waits until the server is shut down.
    */
   @Override
   public void execute() {
     try {
-      socket = new DatagramSocket(port);
-      logger.log("INFO", "UDPServer running on port " + port);
-      byte[] buffer = new byte[1024];
+      channel = DatagramChannel.open();
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+      channel.bind(new InetSocketAddress(port));
+      metrics.addTotal("udp_received", this::receivedPackets);
+      metrics.addTotal("udp_oversized", this::oversizedPackets);
+      metrics.addTotal("udp_dropped", this::droppedPackets);
+      metrics.addTotal("udp_retransmitted", this::retransmittedRequests);
+      metrics.start();
+      logger.log("INFO", "UDPServer running on port " + port + " with " + workers.length
+          + " workers, receive buffer " + channel.getOption(StandardSocketOptions.SO_RCVBUF)
+          + " bytes");
+
+      for (int i = 0; i < workers.length; i++) {
+        Worker worker = new Worker();
+        workers[i] = new Thread(worker::run, "udp-worker-" + i);
+        workers[i].start();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (IOException e) {
+      if (!stopped.get()) {
+        logger.log("ERROR", "Server error: " + e.getMessage());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      shutdown();
+    }
+  }
 
-      while (true) {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-        socket.receive(packet);
-        String request = new String(packet.getData(), 0, packet.getLength());
+  /**
+   * Returns the server's request and traffic metrics. UDP has no connections, so the
+   * connection counts stay at 0.
+   *
+   * @return The metrics.
+   */
+  public ServerMetrics metrics() {
+    return metrics;
+  }
 
-        logger.log("INFO", "Received request from " + packet.getAddress() + ": " + request);
+  /**
+   * Returns the number of datagrams received.
+   *
+   * @return The received datagram count.
+   */
+  public long receivedPackets() {
+    return receivedPackets.sum();
+  }
 
-        String response = handleRequest(request, packet.getAddress().toString());
-        byte[] responseData = response.getBytes();
+  /**
+   * Returns the number of requests rejected for exceeding the packet size limit.
+   *
+   * @return The oversized request count.
+   */
+  public long oversizedPackets() {
+    return oversizedPackets.sum();
+  }
 
-        // Handle response size exceeding buffer
-        if (responseData.length > buffer.length) {
-          response = "ERROR: Response too large";
-          responseData = response.getBytes();
-        }
+  /**
+   * Returns the number of retransmitted requests, answered from the response cache or
+   * ignored while the original was still executing.
+   *
+   * @return The retransmitted request count.
+   */
+  public long retransmittedRequests() {
+    return retransmittedRequests.sum();
+  }
 
-        DatagramPacket responsePacket = new DatagramPacket(
-            responseData, responseData.length, packet.getAddress(), packet.getPort());
-        socket.send(responsePacket);
+  /**
+   * Returns the number of datagrams lost: requests the kernel dropped because the receive
+   * buffer was full, plus responses that could not be sent.
+   *
+   * @return The dropped datagram count.
+   */
+  public long droppedPackets() {
+    return kernelDrops() + unsentResponses.sum();
+  }
 
-        logger.log("INFO", "Sent response to " + packet.getAddress() + ": " + response);
+  /**
+   * Reads the receive-buffer overflow count of this server's socket from the kernel's UDP
+   * tables. The JDK does not expose the count, so this is Linux-only and reports 0 elsewhere.
+   *
+   * @return The number of datagrams the kernel dropped for this socket.
+   */
+  private long kernelDrops() {
+    if (kernelDropsAtClose >= 0) {
+      return kernelDropsAtClose;
+    }
+    String localPort = String.format(":%04X ", port);
+    long drops = 0;
+    for (String table : new String[] {"/proc/net/udp", "/proc/net/udp6"}) {
+      try {
+        List<String> lines = Files.readAllLines(Path.of(table));
+        for (int i = 1; i < lines.size(); i++) {
+          String line = lines.get(i);
+          // Columns: sl local_address rem_address st ... drops; match the local port only
+          String[] columns = line.trim().split("\\s+");
+          if (columns.length > 12 && (columns[1] + " ").endsWith(localPort)) {
+            drops += Long.parseLong(columns[columns.length - 1]);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // Not Linux, or the table is unreadable
       }
-    } catch (Exception e) {
-      logger.log("ERROR", "Server error: " + e.getMessage());
-    } finally {
-      shutdown();
     }
+    return drops;
   }
 
   /**
-   * Handles the client's request and returns the appropriate response.
-   *
-   * @param request The client's request.
-   * @param clientAddress The address of the connected client.
-   * @return The server's response to the request.
+   * Receives and answers datagrams until the channel is closed. Each worker owns its
+   * buffers and frames; only the channel and the store are shared.
    */
-  private String handleRequest(String request, String clientAddress) {
-    if (request == null || request.trim().isEmpty()) {
-      logger.log("WARNING", "Received empty or malformed request from " + clientAddress);
-      return "ERROR: Empty or malformed request";
+  private final class Worker {
+    // One spare byte reveals requests that were cut off at the size limit
+    private final ByteBuffer input = ByteBuffer.allocateDirect(maxPacketSize + 1);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(maxPacketSize);
+    private final byte[] requestBytes = new byte[maxPacketSize];
+    private final CommandEngine engine = new CommandEngine(store, logger, metrics, false);
+    private final Frame binaryRequest = new Frame();
+    private final Frame binaryResponse = new Frame();
+    // The id of the datagram being handled, and whether its response cache slot is
+    // reserved and awaits the response
+    private long currentId;
+    private boolean reserved;
+
+    void run() {
+      while (!stopped.get()) {
+        SocketAddress client;
+        try {
+          input.clear();
+          client = channel.receive(input);
+        } catch (ClosedChannelException e) {
+          return;
+        } catch (IOException e) {
+          logger.log("ERROR", "Receive error: " + e.getMessage());
+          continue;
+        }
+        receivedPackets.increment();
+        input.flip();
+        metrics.bytesIn(input.remaining());
+
+        currentId = UNTAGGED;
+        reserved = false;
+        boolean binary = input.hasRemaining() && input.get(0) == BinaryProtocol.MAGIC;
+        try {
+          if (binary) {
+            handleBinaryPacket(client);
+          } else {
+            handleTextPacket(client);
+          }
+        } catch (ClosedChannelException e) {
+          return;
+        } catch (IOException e) {
+          unsentResponses.increment();
+          logger.log("ERROR", "Failed to send response to " + client + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+          metrics.recordError(ServerMetrics.INTERNAL);
+          logger.log("ERROR", "Error handling datagram from " + client + ": " + e);
+          sendInternalError(client, binary);
+        } finally {
+          // A retry must not wait forever for a response that will never be stored
+          if (reserved) {
+            responseCache.release(client, currentId);
+          }
+        }
+      }
+    }
+
+    /**
+     * Answers a datagram whose handling failed with an error, which is cached like any
+     * response so that its retries get the same answer. Failures here are only counted.
+     */
+    private void sendInternalError(SocketAddress client, boolean binary) {
+      try {
+        if (binary) {
+          output.clear();
+          binaryResponse.reset(BinaryProtocol.STATUS_ERROR, currentId == UNTAGGED ? 0 : (int) currentId)
+              .setValue("Exception occurred while processing request");
+          binaryResponse.writeResponse(output);
+        } else {
+          writeTag(currentId).put(CommandEngine.INTERNAL_ERROR);
+        }
+        complete(client, currentId);
+        send(client);
+      } catch (IOException | RuntimeException e) {
+        unsentResponses.increment();
+        logger.log("ERROR", "Failed to send error response to " + client + ": " + e);
+      }
     }
 
-    String[] tokens = request.trim().split("\\s+", 3);
-    String command = tokens[0].toUpperCase();
+    /**
+     * Stores the response in the output buffer for a request whose cache slot is reserved.
+     */
+    private void complete(SocketAddress client, long requestId) {
+      if (reserved) {
+        responseCache.complete(client, requestId, output.duplicate().flip());
+        reserved = false;
+      }
+    }
 
-    try {
-      switch (command) {
-        case "PUT":
-          if (tokens.length != 3) return "ERROR: Invalid PUT command";
-          store.put(tokens[1], tokens[2]);
-          return "PUT_SUCCESS";
-        case "GET":
-          if (tokens.length != 2) return "ERROR: Invalid GET command";
-          String value = store.get(tokens[1]);
-          return value != null ? "GET_SUCCESS: " + value : "GET_FAILURE: Key not found";
-        case "DELETE":
-          if (tokens.length != 2) return "ERROR: Invalid DELETE command";
-          String removed = store.delete(tokens[1]);
-          return removed != null ? "DELETE_SUCCESS" : "DELETE_FAILURE: Key not found";
-        default:
-          return "ERROR: Unknown command";
-      }
-    } catch (Exception e) {
-      logger.log("ERROR", "Error handling request from " + clientAddress + ": " + e.getMessage());
-      return "ERROR: Exception occurred while processing request";
+    /**
+     * Answers a text datagram with a text response datagram.
+     *
+     * @param client The sender of the datagram in the input buffer.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleTextPacket(SocketAddress client) throws IOException {
+      String clientAddress = client.toString();
+      long requestId = UNTAGGED;
+      if (input.remaining() > maxPacketSize) {
+        oversizedPackets.increment();
+        metrics.recordError(ServerMetrics.TOO_LARGE);
+        logger.log("WARNING", "Oversized request from " + clientAddress);
+        writeTag(requestId).put(REQUEST_TOO_LARGE);
+      } else if (input.hasRemaining() && input.get(input.position()) == '#'
+          && (currentId = requestId = readRequestId()) == UNTAGGED) {
+        metrics.recordError(ServerMetrics.BAD_REQUEST);
+        logger.log("WARNING", "Malformed request id from " + clientAddress);
+        writeTag(requestId).put(MALFORMED_REQUEST_ID);
+      } else if (requestId != UNTAGGED && replayed(client, requestId)) {
+        return;
+      } else {
+        int length = input.remaining();
+        input.get(requestBytes, 0, length);
+        if (logger.isLoggable("INFO")) {
+          logger.log("INFO", "Received request from " + clientAddress + ": "
+              + new String(requestBytes, 0, length, StandardCharsets.UTF_8));
+        }
+        engine.execute(requestBytes, 0, length, writeTag(requestId), clientAddress);
+      }
+
+      complete(client, requestId);
+      send(client);
+
+      if (logger.isLoggable("INFO")) {
+        logger.log("INFO", "Sent response to " + clientAddress + ": "
+            + StandardCharsets.UTF_8.decode(output.rewind()));
+      }
+    }
+
+    /**
+     * Reads a {@code #<id> } tag from the start of the input buffer.
+     *
+     * @return The request id, or {@link #UNTAGGED} if the tag is malformed.
+     */
+    private long readRequestId() {
+      input.get();
+      long requestId = 0;
+      int digits = 0;
+      while (input.hasRemaining()) {
+        byte b = input.get();
+        if (b == ' ' && digits > 0) {
+          return requestId;
+        }
+        if (b < '0' || b > '9' || ++digits > MAX_ID_DIGITS) {
+          break;
+        }
+        requestId = requestId * 10 + (b - '0');
+      }
+      return UNTAGGED;
+    }
+
+    /**
+     * Answers a retransmitted request from the response cache, or claims a new request.
+     *
+     * @param client The client address.
+     * @param requestId The request id, with {@link #BINARY_ID} set for binary requests.
+     * @return True if the request was seen before and needs no further handling.
+     * @throws IOException If the cached response cannot be sent.
+     */
+    private boolean replayed(SocketAddress client, long requestId) throws IOException {
+      if (responseCache == null) {
+        return false;
+      }
+      byte[] cached = responseCache.begin(client, requestId);
+      if (cached == null) {
+        reserved = true;
+        return false;
+      }
+      retransmittedRequests.increment();
+      // A retry of a request still executing is dropped; the client will ask again
+      if (cached != ResponseCache.IN_PROGRESS) {
+        output.clear();
+        output.put(cached);
+        send(client);
+      }
+      return true;
+    }
+
+    /**
+     * Clears the output buffer and writes the {@code #<id> } tag of a tagged request.
+     *
+     * @param requestId The request id, or {@link #UNTAGGED}.
+     * @return The output buffer, positioned for the response text.
+     */
+    private ByteBuffer writeTag(long requestId) {
+      output.clear();
+      if (requestId != UNTAGGED) {
+        output.put((byte) '#');
+        int start = output.position();
+        long digits = requestId;
+        do {
+          output.put((byte) ('0' + digits % 10));
+          digits /= 10;
+        } while (digits > 0);
+        for (int i = start, j = output.position() - 1; i < j; i++, j--) {
+          byte b = output.get(i);
+          output.put(i, output.get(j));
+          output.put(j, b);
+        }
+        output.put((byte) ' ');
+      }
+      return output;
+    }
+
+    /**
+     * Answers a binary-protocol datagram with a binary response datagram.
+     *
+     * @param client The sender of the datagram in the input buffer.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleBinaryPacket(SocketAddress client) throws IOException {
+      String clientAddress = client.toString();
+      long requestId = UNTAGGED;
+      int error = ServerMetrics.BAD_REQUEST;
+      try {
+        if (input.remaining() > maxPacketSize) {
+          oversizedPackets.increment();
+          error = ServerMetrics.TOO_LARGE;
+          throw new ProtocolException("Request too large");
+        }
+        input.position(1);
+        binaryRequest.readRequest(input);
+        requestId = binaryRequest.getRequestId() != 0
+            ? BINARY_ID | (binaryRequest.getRequestId() & 0xffffffffL) : UNTAGGED;
+        currentId = requestId;
+        if (requestId != UNTAGGED && replayed(client, requestId)) {
+          return;
+        }
+        binaryHandler.handleRequest(binaryRequest, binaryResponse, clientAddress);
+      } catch (ProtocolException e) {
+        metrics.recordError(error);
+        logger.log("WARNING", "Malformed binary request from " + clientAddress + ": " + e.getMessage());
+        binaryResponse.reset(BinaryProtocol.STATUS_ERROR, 0).setValue(e.getMessage());
+      }
+
+      output.clear();
+      try {
+        binaryResponse.writeResponse(output);
+      } catch (BufferOverflowException e) {
+        metrics.recordError(ServerMetrics.TOO_LARGE);
+        output.clear();
+        binaryResponse.reset(BinaryProtocol.STATUS_ERROR, binaryResponse.getRequestId())
+            .setValue("Response too large");
+        binaryResponse.writeResponse(output);
+      }
+      complete(client, requestId);
+      send(client);
+      if (logger.isLoggable("INFO")) {
+        logger.log("INFO", "Processed binary request from " + clientAddress + ": opcode "
+            + binaryRequest.getType());
+      }
+    }
+
+    /**
+     * Sends the output buffer to a client.
+     *
+     * @param client The destination.
+     * @throws IOException If the datagram cannot be sent.
+     */
+    private void send(SocketAddress client) throws IOException {
+      output.flip();
+      int sent = channel.send(output, client);
+      if (sent == 0) {
+        unsentResponses.increment();
+      }
+      metrics.bytesOut(sent);
     }
   }
 
   /**
-   * Shuts down the UDP server and closes the socket.
+   * Shuts down the UDP server: closes the channel, which stops the workers, and logs the
+   * packet counters.
    */
   @Override
   public void shutdown() {
-    if (socket != null && !socket.isClosed()) {
-      socket.close();
+    if (!stopped.compareAndSet(false, true)) {
+      return;
+    }
+    // The kernel forgets the drop count once the socket is closed
+    kernelDropsAtClose = kernelDrops();
+    String counters = receivedPackets() + " packets received, " + oversizedPackets()
+        + " oversized, " + droppedPackets() + " dropped, " + retransmittedRequests()
+        + " retransmitted";
+    try {
+      if (channel != null && channel.isOpen()) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      logger.log("ERROR", "Error closing channel: " + e.getMessage());
+    }
+    for (Thread worker : workers) {
+      if (worker != null && worker != Thread.currentThread()) {
+        try {
+          worker.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
     }
+    metrics.close();
+    logger.log("INFO", "UDPServer stopped: " + counters);
     logger.close();
   }
 }
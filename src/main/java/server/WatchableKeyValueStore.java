@@ -0,0 +1,398 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that reports changed keys to watchers, for the {@code WATCH} command. A watch
+ * names exact keys and key prefixes; every write through this store that changes a
+ * matching key, by storing a different value or deleting it, queues an event on the watch.
+ *
+ * <p>Each watch has its own queue of pending events, holding at most one event per key:
+ * a key changed again before its event is taken keeps its place in the queue and only its
+ * latest value, so a hot key costs a watcher one event per delivery, not one per write.
+ * Writers never wait for a watcher. A watch whose queue already holds its limit of keys
+ * when another key changes is closed as overflowed instead, and its connection dropped.
+ *
+ * <p>A write finds its watchers with one lookup for the key and one per distinct prefix
+ * length, whatever the number of watches; with no watches it only reads a volatile field.
+ * While there are watches, writes take a lock stripe chosen by the key around the write
+ * and its events, so events for a key are queued in the order the writes were applied.
+ * Keys removed by expiry or eviction in the wrapped store are not reported.
+ */
+public class WatchableKeyValueStore implements KeyValueStore {
+  /** Default number of keys a watch may have pending before it is dropped. */
+  public static final int DEFAULT_MAX_PENDING_KEYS = 1024;
+  private static final int STRIPES = 64;
+
+  private final KeyValueStore store;
+  private final Object[] stripes = new Object[STRIPES];
+  // Copy-on-write arrays of the watches on each key and each prefix, changed under `this`
+  private final Map<String, Watch[]> keyWatches = new ConcurrentHashMap<>();
+  private final Map<String, Watch[]> prefixWatches = new ConcurrentHashMap<>();
+  // Distinct lengths of the watched prefixes, ascending
+  private volatile int[] prefixLengths = new int[0];
+  private volatile int watchCount;
+
+  /**
+   * Constructs a watchable view of a store.
+   *
+   * @param store The store to report changes to.
+   */
+  public WatchableKeyValueStore(KeyValueStore store) {
+    this.store = store;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Starts a watch. Writes that start after this returns are reported.
+   *
+   * @param keys The keys to watch.
+   * @param prefixes The key prefixes to watch; "" matches every key.
+   * @param maxPendingKeys The most keys the watch may have pending.
+   * @param onOverflow Run once by the writer that overflows the watch; must not block.
+   * @return The watch, which must be closed when no longer needed.
+   * @throws IllegalArgumentException If the limit is not positive.
+   */
+  public Watch watch(Collection<String> keys, Collection<String> prefixes, int maxPendingKeys,
+      Runnable onOverflow) {
+    if (maxPendingKeys <= 0) {
+      throw new IllegalArgumentException("Pending key limit must be positive: " + maxPendingKeys);
+    }
+    Watch watch = new Watch(keys, prefixes, maxPendingKeys, onOverflow);
+    synchronized (this) {
+      for (String key : watch.keys) {
+        keyWatches.merge(key, new Watch[] {watch}, WatchableKeyValueStore::concat);
+      }
+      for (String prefix : watch.prefixes) {
+        prefixWatches.merge(prefix, new Watch[] {watch}, WatchableKeyValueStore::concat);
+      }
+      updatePrefixLengths();
+      watchCount++;
+    }
+    return watch;
+  }
+
+  /**
+   * Returns the number of open watches.
+   *
+   * @return The watch count.
+   */
+  public int watchCount() {
+    return watchCount;
+  }
+
+  @Override
+  public String put(String key, String value) {
+    if (watchCount == 0) {
+      return store.put(key, value);
+    }
+    synchronized (stripe(key)) {
+      String previous = store.put(key, value);
+      if (!value.equals(previous)) {
+        changed(key, value);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public String get(String key) {
+    return store.get(key);
+  }
+
+  @Override
+  public String delete(String key) {
+    if (watchCount == 0) {
+      return store.delete(key);
+    }
+    synchronized (stripe(key)) {
+      String removed = store.delete(key);
+      if (removed != null) {
+        changed(key, null);
+      }
+      return removed;
+    }
+  }
+
+  @Override
+  public String update(String key, UnaryOperator<String> function) {
+    if (watchCount == 0) {
+      return store.update(key, function);
+    }
+    String[] next = new String[1];
+    synchronized (stripe(key)) {
+      String previous = store.update(key, value -> next[0] = function.apply(value));
+      if (next[0] == null ? previous != null : !next[0].equals(previous)) {
+        changed(key, next[0]);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) {
+    return store.getAll(keys);
+  }
+
+  @Override
+  public Map<String, String> putAll(Map<String, String> entries) {
+    if (watchCount == 0) {
+      return store.putAll(entries);
+    }
+    // One pair at a time, so that each change is queued under its key's stripe
+    Map<String, String> previous = new LinkedHashMap<>();
+    entries.forEach((key, value) -> previous.put(key, put(key, value)));
+    return previous;
+  }
+
+  @Override
+  public Map<String, String> deleteAll(Collection<String> keys) {
+    if (watchCount == 0) {
+      return store.deleteAll(keys);
+    }
+    Map<String, String> removed = new LinkedHashMap<>();
+    for (String key : keys) {
+      String value = delete(key);
+      if (value != null || !removed.containsKey(key)) {
+        removed.put(key, value);
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public String putExpiring(String key, String value, long expiresAtMillis) {
+    if (watchCount == 0) {
+      return store.putExpiring(key, value, expiresAtMillis);
+    }
+    if (expiresAtMillis <= System.currentTimeMillis()) {
+      return delete(key);
+    }
+    synchronized (stripe(key)) {
+      String previous = store.putExpiring(key, value, expiresAtMillis);
+      if (!value.equals(previous)) {
+        changed(key, value);
+      }
+      return previous;
+    }
+  }
+
+  @Override
+  public long expiresAt(String key) {
+    return store.expiresAt(key);
+  }
+
+  @Override
+  public boolean persist(String key) {
+    return store.persist(key);
+  }
+
+  @Override
+  public List<String> scan(String from, String to, int limit) {
+    return store.scan(from, to, limit);
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> action) {
+    store.forEach(action);
+  }
+
+  @Override
+  public long size() {
+    return store.size();
+  }
+
+  @Override
+  public long memoryBytes() {
+    return store.memoryBytes();
+  }
+
+  @Override
+  public void close() {
+    store.close();
+  }
+
+  /**
+   * Queues an event on every watch matching the key. Called under the key's stripe.
+   *
+   * @param value The new value, or null if the key was deleted.
+   */
+  private void changed(String key, String value) {
+    Watch[] watches = keyWatches.get(key);
+    if (watches != null) {
+      for (Watch watch : watches) {
+        watch.offer(key, value);
+      }
+    }
+    for (int length : prefixLengths) {
+      if (length > key.length()) {
+        break;
+      }
+      watches = prefixWatches.get(key.substring(0, length));
+      if (watches != null) {
+        for (Watch watch : watches) {
+          watch.offer(key, value);
+        }
+      }
+    }
+  }
+
+  private synchronized void remove(Watch watch) {
+    for (String key : watch.keys) {
+      keyWatches.computeIfPresent(key, (k, watches) -> without(watches, watch));
+    }
+    for (String prefix : watch.prefixes) {
+      prefixWatches.computeIfPresent(prefix, (k, watches) -> without(watches, watch));
+    }
+    updatePrefixLengths();
+    watchCount--;
+  }
+
+  private void updatePrefixLengths() {
+    TreeSet<Integer> lengths = new TreeSet<>();
+    for (String prefix : prefixWatches.keySet()) {
+      lengths.add(prefix.length());
+    }
+    prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static Watch[] concat(Watch[] watches, Watch[] added) {
+    Watch[] result = Arrays.copyOf(watches, watches.length + added.length);
+    System.arraycopy(added, 0, result, watches.length, added.length);
+    return result;
+  }
+
+  /**
+   * Returns the array without the watch, or null, which removes the map entry, if it
+   * would be empty.
+   */
+  private static Watch[] without(Watch[] watches, Watch watch) {
+    Watch[] result = Arrays.stream(watches).filter(w -> w != watch).toArray(Watch[]::new);
+    return result.length == 0 ? null : result;
+  }
+
+  private Object stripe(String key) {
+    return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+  }
+
+  /**
+   * One watcher's subscription and its queue of pending events. Writers add to the queue
+   * and one consumer takes from it with {@link #take}; neither waits on the other for
+   * longer than a map operation. Uses a {@link ReentrantLock} rather than a monitor so that
+   * a virtual thread waiting in {@link #take} does not hold on to its carrier thread.
+   */
+  public final class Watch implements AutoCloseable {
+    private final List<String> keys;
+    private final List<String> prefixes;
+    private final int maxPendingKeys;
+    private final Runnable onOverflow;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Key to its latest value, or null for a delete, in the order keys first changed
+    private LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+    private boolean closed;
+    private boolean overflowed;
+    private boolean registered = true;
+
+    private Watch(Collection<String> keys, Collection<String> prefixes, int maxPendingKeys,
+        Runnable onOverflow) {
+      this.keys = List.copyOf(keys);
+      this.prefixes = List.copyOf(prefixes);
+      this.maxPendingKeys = maxPendingKeys;
+      this.onOverflow = onOverflow;
+    }
+
+    /**
+     * Waits for events and takes all of them.
+     *
+     * @return Each changed key in the order it first changed, mapped to its latest value
+     *     or to null if it was deleted; null once the watch is closed.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public Map<String, String> take() throws InterruptedException {
+      lock.lock();
+      try {
+        while (pending.isEmpty() && !closed) {
+          changed.await();
+        }
+        if (closed) {
+          return null;
+        }
+        Map<String, String> events = pending;
+        pending = new LinkedHashMap<>();
+        return events;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Tells whether the watch was closed because its queue overflowed.
+     *
+     * @return True if events were dropped.
+     */
+    public boolean overflowed() {
+      lock.lock();
+      try {
+        return overflowed;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Stops the watch, wakes its consumer and unregisters it. Idempotent.
+     */
+    @Override
+    public void close() {
+      boolean unregister;
+      lock.lock();
+      try {
+        closed = true;
+        pending.clear();
+        changed.signal();
+        unregister = registered;
+        registered = false;
+      } finally {
+        lock.unlock();
+      }
+      if (unregister) {
+        remove(this);
+      }
+    }
+
+    private void offer(String key, String value) {
+      lock.lock();
+      try {
+        if (closed) {
+          return;
+        }
+        if (pending.size() < maxPendingKeys || pending.containsKey(key)) {
+          pending.put(key, value);
+          changed.signal();
+          return;
+        }
+        // Unregistering would make the writer wait for the registry; close() does it
+        overflowed = true;
+        closed = true;
+        pending.clear();
+        changed.signal();
+      } finally {
+        lock.unlock();
+      }
+      onOverflow.run();
+    }
+  }
+}
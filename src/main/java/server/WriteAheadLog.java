@@ -0,0 +1,414 @@
+package server;
+
+import common.LoggerInterface;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of store mutations with group commit.
+ *
+ * <p>Each record is {@code length(4) crc32c(4) payload}, where the payload is
+ * {@code op(1) keyLength(4) key valueLength(4) value} with UTF-8 key and value; deletes
+ * omit the value, and expiring puts append {@code expiresAtMillis(8)}.
+ * Writers copy their record into a shared pending buffer and get a sequence number;
+ * a single flusher thread swaps the buffer out, writes it with one channel write, and,
+ * depending on the {@link SyncMode}, forces it to disk, so any number of writers that
+ * arrive during one fsync share the next one.
+ */
+public class WriteAheadLog {
+  /** When appended records are forced to stable storage. */
+  public enum SyncMode {
+    /** fsync before a write is acknowledged; concurrent writers share each fsync. */
+    ALWAYS,
+    /** Acknowledge once written to the OS; fsync every sync interval. */
+    INTERVAL,
+    /** Acknowledge once written to the OS; leave fsync to the OS. */
+    OS
+  }
+
+  static final byte OP_PUT = 1;
+  static final byte OP_DELETE = 2;
+  static final byte OP_PUT_EXPIRING = 3;
+  private static final int HEADER_BYTES = 8;
+  // The op byte and the key length
+  private static final int MIN_RECORD_BYTES = 1 + 4;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final SyncMode syncMode;
+  private final long syncIntervalNanos;
+  private final LoggerInterface logger;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition pendingAvailable = lock.newCondition();
+  private final Condition progress = lock.newCondition();
+  private final Thread flusher;
+
+  // Guarded by lock
+  private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+  private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+  private long appendedSeq;
+  private long appendedBytes;
+  private long writtenSeq;
+  private long syncedSeq;
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Opens (or creates) the log file for appending. Records already in the file should be
+   * read with {@link #replay} before the log is opened.
+   *
+   * @param path The log file.
+   * @param syncMode When records are forced to disk.
+   * @param syncIntervalMs The fsync period for {@link SyncMode#INTERVAL}.
+   * @param logger The logger for write and close failures.
+   * @throws IOException If the file cannot be opened.
+   */
+  public WriteAheadLog(Path path, SyncMode syncMode, long syncIntervalMs, LoggerInterface logger)
+      throws IOException {
+    this.path = path;
+    this.logger = logger;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    this.syncMode = syncMode;
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+    this.flusher = new Thread(this::flushLoop, "wal-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Returns the log file.
+   *
+   * @return The path of the log file.
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns how many bytes of records this log has accepted since it was opened.
+   *
+   * @return The appended size in bytes.
+   */
+  public long appendedBytes() {
+    lock.lock();
+    try {
+      return appendedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Callback for records read back during {@link #replay}.
+   */
+  public interface RecordVisitor {
+    /**
+     * Receives one logged mutation.
+     *
+     * @param op {@link #OP_PUT}, {@link #OP_DELETE} or {@link #OP_PUT_EXPIRING}.
+     * @param key The key.
+     * @param value The value for a put, or null otherwise.
+     * @param expiresAtMillis The expiry time of an expiring put, or 0 otherwise.
+     */
+    void visit(byte op, String key, String value, long expiresAtMillis);
+  }
+
+  /**
+   * Reads every intact record of a log file in order. A torn or corrupt tail, left by a
+   * crash in the middle of a write, is cut off so new records follow the last good one.
+   *
+   * @param path The log file; a missing file has no records.
+   * @param visitor Receives each record.
+   * @return The number of records read.
+   * @throws IOException If the file cannot be read.
+   */
+  public static long replay(Path path, RecordVisitor visitor) throws IOException {
+    if (!path.toFile().exists()) {
+      return 0;
+    }
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      ByteBuffer payload = ByteBuffer.allocate(1024);
+      CRC32C crc = new CRC32C();
+      long position = 0;
+      long records = 0;
+      long size = in.size();
+
+      while (position + HEADER_BYTES <= size) {
+        header.clear();
+        readFully(in, header, position);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        // A zero-filled tail reads as an empty record, whose CRC32C is 0 and so passes
+        if (length < MIN_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+          break;
+        }
+        if (payload.capacity() < length) {
+          payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+        }
+        payload.clear().limit(length);
+        readFully(in, payload, position + HEADER_BYTES);
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+
+        payload.flip();
+        byte op;
+        String key;
+        String value;
+        long expiresAtMillis;
+        try {
+          op = payload.get();
+          key = readString(payload);
+          boolean hasValue = op == OP_PUT || op == OP_PUT_EXPIRING;
+          value = hasValue ? readString(payload) : null;
+          expiresAtMillis = op == OP_PUT_EXPIRING ? payload.getLong() : 0;
+        } catch (BufferUnderflowException e) {
+          // Lengths that disagree with the record are corruption, handled like a bad checksum
+          break;
+        }
+        visitor.visit(op, key, value, expiresAtMillis);
+        position += HEADER_BYTES + length;
+        records++;
+      }
+
+      if (position < size) {
+        in.truncate(position);
+        in.force(true);
+      }
+      return records;
+    }
+  }
+
+  /**
+   * Appends a mutation record. The record is not yet durable; pass the returned sequence
+   * number to {@link #awaitDurable} before acknowledging the write.
+   *
+   * @param op {@link #OP_PUT} or {@link #OP_DELETE}.
+   * @param key The key.
+   * @param value The value for a put, or null otherwise.
+   * @return The record's sequence number.
+   * @throws UncheckedIOException If the log has failed or been closed.
+   */
+  public long append(byte op, String key, String value) {
+    return append(op, key, value, 0);
+  }
+
+  /**
+   * Appends a mutation record, including an expiry time for {@link #OP_PUT_EXPIRING}.
+   *
+   * @param op The record type.
+   * @param key The key.
+   * @param value The value for a put, or null otherwise.
+   * @param expiresAtMillis The expiry time of an expiring put, in epoch milliseconds.
+   * @return The record's sequence number.
+   * @throws UncheckedIOException If the log has failed or been closed.
+   */
+  public long append(byte op, String key, String value, long expiresAtMillis) {
+    byte[] record = encode(op, key, value, expiresAtMillis);
+    lock.lock();
+    try {
+      checkUsable();
+      if (pending.remaining() < record.length) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+            pending.position() + record.length));
+        pending.flip();
+        pending = larger.put(pending);
+      }
+      pending.put(record);
+      appendedBytes += record.length;
+      appendedSeq++;
+      pendingAvailable.signal();
+      return appendedSeq;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until a record is as durable as the sync mode promises: forced to disk for
+   * {@link SyncMode#ALWAYS}, handed to the OS otherwise.
+   *
+   * @param seq The sequence number returned by {@link #append}.
+   * @throws UncheckedIOException If writing the log failed.
+   */
+  public void awaitDurable(long seq) {
+    lock.lock();
+    try {
+      while ((syncMode == SyncMode.ALWAYS ? syncedSeq : writtenSeq) < seq) {
+        if (failure != null) {
+          throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        progress.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes and forces everything appended so far, then closes the file.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pendingAvailable.signal();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      flusher.join();
+      channel.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      logger.log("ERROR", "Failed to close write-ahead log " + path + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Flusher-thread loop: swaps out the pending buffer, writes it, and forces the file when
+   * the sync mode asks for it.
+   */
+  private void flushLoop() {
+    long lastSync = System.nanoTime();
+    while (true) {
+      long batchSeq;
+      boolean finalFlush;
+      lock.lock();
+      try {
+        while (pending.position() == 0 && !closed && !intervalSyncDue(lastSync)) {
+          if (syncMode == SyncMode.INTERVAL && syncedSeq < writtenSeq) {
+            pendingAvailable.awaitNanos(syncIntervalNanos - (System.nanoTime() - lastSync));
+          } else {
+            pendingAvailable.awaitUninterruptibly();
+          }
+        }
+        ByteBuffer swap = writing;
+        writing = pending;
+        pending = swap;
+        batchSeq = appendedSeq;
+        finalFlush = closed;
+      } catch (InterruptedException e) {
+        continue;
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        writing.flip();
+        while (writing.hasRemaining()) {
+          channel.write(writing);
+        }
+        writing.clear();
+        boolean sync = syncMode == SyncMode.ALWAYS || finalFlush
+            || (syncMode == SyncMode.INTERVAL && intervalSyncDue(lastSync));
+        if (sync) {
+          channel.force(false);
+          lastSync = System.nanoTime();
+        }
+        publish(batchSeq, sync);
+      } catch (IOException e) {
+        fail(e);
+        return;
+      }
+      if (finalFlush) {
+        return;
+      }
+    }
+  }
+
+  private boolean intervalSyncDue(long lastSync) {
+    return syncMode == SyncMode.INTERVAL && syncedSeq < writtenSeq
+        && System.nanoTime() - lastSync >= syncIntervalNanos;
+  }
+
+  private void publish(long seq, boolean synced) {
+    lock.lock();
+    try {
+      writtenSeq = seq;
+      if (synced) {
+        syncedSeq = seq;
+      }
+      progress.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fail(IOException e) {
+    lock.lock();
+    try {
+      failure = e;
+      progress.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    logger.log("ERROR", "Write-ahead log " + path + " failed: " + e.getMessage());
+  }
+
+  private void checkUsable() {
+    if (failure != null) {
+      throw new UncheckedIOException("Write-ahead log failed", failure);
+    }
+    if (closed) {
+      throw new UncheckedIOException(new IOException("Write-ahead log is closed"));
+    }
+  }
+
+  private static byte[] encode(byte op, String key, String value, long expiresAtMillis) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    boolean expiring = op == OP_PUT_EXPIRING;
+    int length = 1 + 4 + keyBytes.length + (valueBytes != null ? 4 + valueBytes.length : 0)
+        + (expiring ? 8 : 0);
+
+    ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+    record.putInt(length).putInt(0).put(op).putInt(keyBytes.length).put(keyBytes);
+    if (valueBytes != null) {
+      record.putInt(valueBytes.length).put(valueBytes);
+    }
+    if (expiring) {
+      record.putLong(expiresAtMillis);
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(record.array(), HEADER_BYTES, length);
+    record.putInt(4, (int) crc.getValue());
+    return record.array();
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String text = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return text;
+  }
+
+  private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of log");
+      }
+    }
+  }
+}
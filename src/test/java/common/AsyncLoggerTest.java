@@ -0,0 +1,41 @@
+package common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Closing the asynchronous logger: everything queued reaches the file, and nothing is
+ * accepted afterwards.
+ */
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+class AsyncLoggerTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void closeWritesEverythingQueued() throws IOException {
+    Path file = dir.resolve("test.log");
+    AsyncLogger logger = new AsyncLogger(file.toString(), "INFO", 64,
+        AsyncLogger.OverflowPolicy.BLOCK, false);
+    for (int i = 0; i < 10_000; i++) {
+      logger.log("INFO", "line " + i);
+    }
+    logger.log("DEBUG", "below the level");
+    logger.close();
+    logger.log("INFO", "after close");
+
+    List<String> lines = Files.readAllLines(file);
+    assertEquals(10_000, lines.size());
+    assertTrue(lines.get(0).endsWith(" [INFO] - line 0"), lines.get(0));
+    assertTrue(lines.get(9_999).endsWith(" [INFO] - line 9999"), lines.get(9_999));
+  }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import common.LoggerInterface;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The atomic commands as the text protocol runs them, in particular both forms of CAS.
+ */
+class AtomicCommandsTest {
+  private static final LoggerInterface QUIET = new LoggerInterface() {
+    @Override
+    public void log(String level, String message) {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  private final KeyValueStore store = new ConcurrentKeyValueStore();
+  private final CommandEngine engine = new CommandEngine(store, QUIET,
+      new ServerMetrics(store, new ServerConfig(), QUIET), true);
+
+  @Test
+  void casComparesASingleToken() {
+    assertEquals("CAS_FAILURE: Key not found", run("CAS counter 5 6"));
+    store.put("counter", "5");
+    assertEquals("CAS_SUCCESS", run("CAS counter 5 6"));
+    assertEquals("CAS_FAILURE: Value changed", run("CAS counter 5 7"));
+    assertEquals("6", store.get("counter"));
+    assertEquals("ERROR: Invalid CAS command", run("CAS counter 6"));
+  }
+
+  /**
+   * A length-prefixed expected value may contain spaces, and braces without a length are
+   * still an ordinary token.
+   */
+  @Test
+  void casComparesALengthPrefixedValue() {
+    store.put("greeting", "hi there");
+    assertEquals("CAS_FAILURE: Value changed", run("CAS greeting {2} hi there hello"));
+    assertEquals("CAS_SUCCESS", run("CAS greeting {8} hi there hello world"));
+    assertEquals("hello world", store.get("greeting"));
+
+    store.put("braces", "{x}");
+    assertEquals("CAS_SUCCESS", run("CAS braces {x} {y}"));
+    assertEquals("{y}", store.get("braces"));
+  }
+
+  /**
+   * The length counts UTF-8 bytes, not characters.
+   */
+  @Test
+  void casLengthCountsBytes() {
+    store.put("word", "café au lait");
+    assertEquals("CAS_SUCCESS", run("CAS word {13} café au lait thé"));
+    assertEquals("thé", store.get("word"));
+  }
+
+  @Test
+  void casRejectsMalformedLengthPrefixedValue() {
+    store.put("greeting", "hi there");
+    assertEquals("ERROR: Invalid CAS command", run("CAS greeting {8} hi there"));
+    assertEquals("ERROR: Invalid CAS command", run("CAS greeting {20} hi there hello"));
+    assertEquals("ERROR: Invalid CAS command", run("CAS greeting {3} hi there hello"));
+    assertEquals("hi there", store.get("greeting"));
+  }
+
+  private String run(String request) {
+    byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer output = engine.execute(bytes, 0, bytes.length, ByteBuffer.allocate(256), "test");
+    return new String(output.array(), 0, output.position(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,136 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import common.LoggerInterface;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Restarts of the durable store: every acknowledged write is back after reopening, whether
+ * it was recovered from the log segments, from a snapshot, or from both.
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class DurableKeyValueStoreTest {
+  private static final LoggerInterface QUIET = new LoggerInterface() {
+    @Override
+    public void log(String level, String message) {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void reopenReplaysTheLog() throws IOException {
+    KeyValueStore store = open();
+    store.put("a", "1");
+    store.put("b", "2");
+    store.update("a", value -> value + "0");
+    store.delete("b");
+    store.close();
+
+    store = open();
+    try {
+      assertEquals("10", store.get("a"));
+      assertNull(store.get("b"));
+      assertEquals(1, store.size());
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Writes before and after a snapshot: reopening loads the snapshot, replays only the
+   * newer segment, and the segments the snapshot covers are gone.
+   */
+  @Test
+  void reopenAfterSnapshot() throws IOException {
+    long expiresAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+    DurableKeyValueStore store = open();
+    for (int i = 0; i < 1000; i++) {
+      store.put("key" + i, "before" + i);
+    }
+    store.putExpiring("expiring", "soon", expiresAt);
+    store.delete("key0");
+    assertEquals(1000, store.snapshot());
+    store.put("key1", "after");
+    store.delete("key2");
+    store.put("new", "after");
+    store.close();
+
+    assertTrue(Files.exists(dir.resolve("kv.wal.snapshot")));
+    assertFalse(Files.exists(dir.resolve("kv.wal.0")), "Segment covered by the snapshot");
+    store = open();
+    try {
+      assertNull(store.get("key0"));
+      assertEquals("after", store.get("key1"));
+      assertNull(store.get("key2"));
+      assertEquals("before3", store.get("key3"));
+      assertEquals("after", store.get("new"));
+      assertEquals("soon", store.get("expiring"));
+      assertEquals(expiresAt, store.expiresAt("expiring"));
+      assertEquals(1000, store.size());
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * A crash that tore the last record loses only that record; the store reopens and keeps
+   * logging, and the writes after the tear survive the next restart too.
+   */
+  @Test
+  void reopenAfterTornSegment() throws IOException {
+    KeyValueStore store = open();
+    store.put("a", "1");
+    store.put("b", "2");
+    store.close();
+    Path segment = dir.resolve("kv.wal.0");
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    store = open();
+    assertEquals("1", store.get("a"));
+    assertNull(store.get("b"));
+    store.put("c", "3");
+    store.close();
+
+    store = open();
+    try {
+      assertEquals("1", store.get("a"));
+      assertNull(store.get("b"));
+      assertEquals("3", store.get("c"));
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Opens the store on the test directory's log, with background snapshots off so the
+   * tests decide when they happen.
+   */
+  private DurableKeyValueStore open() throws IOException {
+    ServerConfig config = new ServerConfig()
+        .set("wal", dir.resolve("kv.wal").toString())
+        .set("snapshot-wal-bytes", "0")
+        .set("snapshot-interval-s", "0");
+    return DurableKeyValueStore.open(
+        new ExpiringKeyValueStore(new ConcurrentKeyValueStore(), 10, QUIET), config, QUIET);
+  }
+}
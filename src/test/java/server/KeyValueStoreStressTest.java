@@ -0,0 +1,208 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Multi-threaded stress tests of single-key linearizability for every store engine. Each
+ * test races threads on a few keys and checks properties that hold only if every put,
+ * get, delete and update takes effect atomically at one point in a total order, and
+ * returns the value it replaced.
+ */
+@Timeout(value = 120, unit = TimeUnit.SECONDS)
+class KeyValueStoreStressTest {
+  private static final int THREADS = 8;
+
+  /**
+   * Writers overwrite one key with unique values. In a linearizable order every value is
+   * replaced by exactly one later put, so each value but the last comes back exactly once
+   * as a previous value, the last is what the key holds, and only the first put sees null.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  void putReturnsEachOverwrittenValueOnce(String engine) throws Exception {
+    int writes = 20_000;
+    KeyValueStore store = create(engine);
+    try {
+      List<List<String>> returned = race(thread -> {
+        List<String> previous = new ArrayList<>(writes);
+        for (int i = 0; i < writes; i++) {
+          previous.add(store.put("hot", thread + "-" + i));
+        }
+        return previous;
+      });
+      Set<String> seen = new HashSet<>();
+      int nulls = 0;
+      for (List<String> previous : returned) {
+        for (String value : previous) {
+          if (value == null) {
+            nulls++;
+          } else {
+            assertTrue(seen.add(value), "Returned twice: " + value);
+          }
+        }
+      }
+      assertEquals(1, nulls);
+      assertTrue(seen.add(store.get("hot")), "Final value was also returned as replaced");
+      assertEquals(THREADS * writes, seen.size());
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Threads delete the same keys at the same time; each value must be removed, and
+   * returned, by exactly one of them.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  void deleteRemovesEachValueOnce(String engine) throws Exception {
+    int keys = 10_000;
+    KeyValueStore store = create(engine);
+    try {
+      for (int i = 0; i < keys; i++) {
+        store.put("key" + i, "value" + i);
+      }
+      List<List<Integer>> removed = race(thread -> {
+        List<Integer> mine = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+          String value = store.delete("key" + i);
+          if (value != null) {
+            assertEquals("value" + i, value);
+            mine.add(i);
+          }
+        }
+        return mine;
+      });
+      Set<Integer> seen = new HashSet<>();
+      for (List<Integer> mine : removed) {
+        for (int key : mine) {
+          assertTrue(seen.add(key), "Removed twice: key" + key);
+        }
+      }
+      assertEquals(keys, seen.size());
+      assertEquals(0, store.size());
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Concurrent read-modify-write updates of one counter lose no increments.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  void updatesAreAtomic(String engine) throws Exception {
+    int increments = 10_000;
+    KeyValueStore store = create(engine);
+    try {
+      race(thread -> {
+        for (int i = 0; i < increments; i++) {
+          store.update("counter",
+              value -> Long.toString(value == null ? 1 : Long.parseLong(value) + 1));
+        }
+        return null;
+      });
+      assertEquals(Long.toString((long) THREADS * increments), store.get("counter"));
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * One writer counts up on a key, putting values of changing length, while readers read
+   * it. A read must return a whole value that was written, never a mix of two, and once a
+   * reader has seen a value, it must not see an older one: a read that starts after
+   * another read finished returns the same or a later write.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"concurrent", "synchronized", "offheap", "compact", "sharded"})
+  void readsSeeWholeValuesInWriteOrder(String engine) throws Exception {
+    int writes = 50_000;
+    KeyValueStore store = create(engine);
+    try {
+      store.put("register", value(0));
+      AtomicBoolean done = new AtomicBoolean();
+      AtomicInteger reads = new AtomicInteger();
+      race(thread -> {
+        if (thread == 0) {
+          for (int i = 1; i <= writes; i++) {
+            store.put("register", value(i));
+          }
+          done.set(true);
+          return null;
+        }
+        int last = 0;
+        while (!done.get()) {
+          String value = store.get("register");
+          int written = Integer.parseInt(value.substring(0, value.indexOf(':')));
+          assertEquals(value(written), value, "Torn read");
+          assertTrue(written >= last, "Read " + written + " after " + last);
+          last = written;
+          reads.incrementAndGet();
+        }
+        return null;
+      });
+      assertEquals(value(writes), store.get("register"));
+      assertTrue(reads.get() > 0);
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * Returns a value for write n whose length varies with n and whose body repeats one
+   * character, so a mix of two values is detected.
+   */
+  private static String value(int n) {
+    return n + ":" + String.valueOf((char) ('a' + n % 26)).repeat(1 + n % 100);
+  }
+
+  private static KeyValueStore create(String engine) {
+    // The sharded engine defaults to one shard per core; make sure there are several
+    return KeyValueStore.create(new ServerConfig().set("store", engine).set("shards", "4"));
+  }
+
+  /**
+   * Runs the task on {@link #THREADS} threads that start together, and returns each
+   * thread's result, rethrowing the first failure.
+   */
+  private static <T> List<T> race(IntFunction<T> task) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<T>> futures = new ArrayList<>();
+    ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        int thread = t;
+        futures.add(threads.submit(() -> {
+          start.await();
+          return task.apply(thread);
+        }));
+      }
+      start.countDown();
+      List<T> results = new ArrayList<>();
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Retransmissions answered from the UDP response cache, and the limits on what it keeps.
+ */
+class ResponseCacheTest {
+  private static final int ENTRIES = 16;
+
+  @Test
+  void retransmissionIsAnsweredFromCache() {
+    ResponseCache cache = new ResponseCache(1024, ENTRIES, 1 << 20);
+    InetSocketAddress client = client(0);
+    assertNull(cache.begin(client, 7));
+    assertSame(ResponseCache.IN_PROGRESS, cache.begin(client, 7));
+    cache.complete(client, 7, ByteBuffer.wrap(response(7)));
+    assertArrayEquals(response(7), cache.begin(client, 7));
+
+    assertNull(cache.begin(client, 8));
+    cache.release(client, 8);
+    assertNull(cache.begin(client, 8), "A released request runs again");
+  }
+
+  /**
+   * Many clients with large responses: the cache stays within its byte budget well before
+   * reaching its client limit, the most recently active client keeps every response, and
+   * the first clients are forgotten.
+   */
+  @Test
+  void byteBudgetForgetsLeastRecentlyActiveClients() {
+    int responseBytes = 1000;
+    long budget = 64 * 4096;
+    ResponseCache cache = new ResponseCache(1 << 20, ENTRIES, budget);
+    int clients = 1000;
+    for (int c = 0; c < clients; c++) {
+      for (long id = 0; id < 3; id++) {
+        assertNull(cache.begin(client(c), id));
+        cache.complete(client(c), id, ByteBuffer.wrap(new byte[responseBytes]));
+      }
+      assertTrue(cache.cachedBytes() <= budget, cache.cachedBytes() + " bytes cached");
+    }
+
+    for (long id = 0; id < 3; id++) {
+      assertEquals(responseBytes, cache.begin(client(clients - 1), id).length);
+    }
+    assertNull(cache.begin(client(0), 0), "First client still remembered");
+  }
+
+  /**
+   * Responses replaced in a client's slots by later ids are no longer counted.
+   */
+  @Test
+  void replacedResponsesAreNotCounted() {
+    ResponseCache cache = new ResponseCache(1024, ENTRIES, 1 << 20);
+    InetSocketAddress client = client(0);
+    for (long id = 0; id < 10 * ENTRIES; id++) {
+      cache.begin(client, id);
+      cache.complete(client, id, ByteBuffer.wrap(response(id)));
+    }
+    long oneWindow = cache.cachedBytes();
+    for (long id = 10 * ENTRIES; id < 20 * ENTRIES; id++) {
+      cache.begin(client, id);
+      cache.complete(client, id, ByteBuffer.wrap(response(id)));
+    }
+    assertEquals(oneWindow, cache.cachedBytes());
+  }
+
+  private static InetSocketAddress client(int n) {
+    return new InetSocketAddress("127.0.0.1", 10_000 + n);
+  }
+
+  private static byte[] response(long id) {
+    return ("#" + id + " PUT_SUCCESS").getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import common.LoggerInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that the STATS responses fit the datagrams the UDP server sends.
+ */
+class ServerMetricsTest {
+  private static final LoggerInterface QUIET = new LoggerInterface() {
+    @Override
+    public void log(String level, String message) {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  /**
+   * Uses every command, with latencies of many digits, and pages through STATS COMMANDS:
+   * each page fits the response limit, and together they name every command once.
+   */
+  @ParameterizedTest
+  @ValueSource(ints = {256, 512, UDPServer.MAX_PACKET_SIZE, 65507})
+  void commandPagesFitAndCoverEveryCommand(int maxResponseBytes) {
+    ServerMetrics metrics = busyMetrics();
+    List<String> seen = new ArrayList<>();
+    String request = "STATS COMMANDS";
+    while (request != null) {
+      String page = metrics.handleStats(request.split(" "), maxResponseBytes);
+      assertTrue(page.getBytes(StandardCharsets.UTF_8).length <= maxResponseBytes,
+          page.length() + " bytes: " + page);
+      assertTrue(page.startsWith("STATS_SUCCESS: "), page);
+      String body = page.substring("STATS_SUCCESS: ".length());
+      request = null;
+      int cursor = body.indexOf(" | CURSOR ");
+      if (cursor >= 0) {
+        request = "STATS COMMANDS CURSOR " + body.substring(cursor + " | CURSOR ".length());
+        body = body.substring(0, cursor);
+      }
+      for (String command : body.split(" \\| ")) {
+        seen.add(command.substring(0, command.indexOf(' ')));
+      }
+    }
+    assertEquals(List.of("PUT", "GET", "DELETE", "TTL", "PERSIST", "MGET", "MPUT", "MDELETE",
+        "SCAN", "STATS", "INCR", "DECR", "APPEND", "PUTIFABSENT", "CAS", "BULKLOAD", "DUMP",
+        "WATCH", "OTHER"), seen);
+  }
+
+  /**
+   * The totals, with the counters the UDP server adds at a trillion each, fit in the
+   * default datagram.
+   */
+  @Test
+  void totalsFitTheDefaultPacket() {
+    ServerMetrics metrics = busyMetrics();
+    for (String name : new String[] {"udp_received", "udp_oversized", "udp_dropped",
+        "udp_retransmitted"}) {
+      metrics.addTotal(name, () -> 1_000_000_000_000L);
+    }
+    String response = metrics.handleStats(new String[] {"STATS"}, UDPServer.MAX_PACKET_SIZE);
+    assertTrue(response.endsWith(" udp_retransmitted=1000000000000"), response);
+    assertTrue(response.length() <= UDPServer.MAX_PACKET_SIZE, response);
+  }
+
+  @Test
+  void unknownCursorIsInvalid() {
+    assertEquals("ERROR: Invalid STATS command",
+        busyMetrics().handleStats("STATS COMMANDS CURSOR NOPE".split(" "), 1024));
+  }
+
+  /**
+   * Returns metrics in which every command has been counted, failed and timed at a
+   * latency of about a day, so the figures are as wide as they get in practice.
+   */
+  private static ServerMetrics busyMetrics() {
+    ServerMetrics metrics = new ServerMetrics(new ConcurrentKeyValueStore(),
+        new ServerConfig().set("metrics-latency-sample", "1"), QUIET);
+    long dayNanos = 86_400_000_000_000L;
+    for (int command = ServerMetrics.PUT; command <= ServerMetrics.OTHER; command++) {
+      for (int i = 0; i < 50; i++) {
+        metrics.record(command, System.nanoTime() - dayNanos + i, ServerMetrics.BAD_REQUEST);
+      }
+    }
+    return metrics;
+  }
+}
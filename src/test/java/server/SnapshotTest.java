@@ -0,0 +1,150 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Round trips and hostile images for the snapshot format, read from streams as BULKLOAD
+ * does and from mapped files as a restart does.
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class SnapshotTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void streamRoundTrip() throws IOException {
+    KeyValueStore source = new ConcurrentKeyValueStore();
+    for (int i = 0; i < 5000; i++) {
+      source.put("key" + i, "value " + i);
+    }
+    source.put("large", "x".repeat(3 << 20));
+    ByteArrayOutputStream image = new ByteArrayOutputStream();
+    assertEquals(5001, Snapshot.write(Channels.newChannel(image), 0, source));
+
+    KeyValueStore target = new ConcurrentKeyValueStore();
+    long count = Snapshot.read(new ByteArrayInputStream(image.toByteArray()), target,
+        Snapshot.DEFAULT_MAX_STREAM_LENGTH, loaded -> { });
+    assertEquals(5001, count);
+    assertEquals(5001, target.size());
+    assertEquals("value 42", target.get("key42"));
+    assertEquals(3 << 20, target.get("large").length());
+  }
+
+  /**
+   * Key lengths near the int limit, which once made the reader allocate gigabytes, ask for
+   * more than the heap can give, or wrap around when the following bytes are added.
+   */
+  @ParameterizedTest
+  @ValueSource(ints = {0x7ffffff0, 0x7ffffffc, 0x7ffffffe, Integer.MAX_VALUE, -2})
+  void hostileKeyLengthIsCorrupt(int keyLength) {
+    IOException e = assertThrows(IOException.class, () -> Snapshot.read(
+        new ByteArrayInputStream(header().putInt(keyLength).array()),
+        new ConcurrentKeyValueStore(), Snapshot.DEFAULT_MAX_STREAM_LENGTH, loaded -> { }));
+    assertEquals("Snapshot is corrupt: stream", e.getMessage());
+  }
+
+  @Test
+  void hostileValueLengthIsCorrupt() {
+    byte[] image = header().putInt(1).put((byte) 'k').putInt(0x7ffffff8).array();
+    IOException e = assertThrows(IOException.class, () -> Snapshot.read(
+        new ByteArrayInputStream(image), new ConcurrentKeyValueStore(), 1 << 20, loaded -> { }));
+    assertEquals("Snapshot is corrupt: stream", e.getMessage());
+  }
+
+  @Test
+  void lengthOverTheLimitIsCorrupt() {
+    byte[] image = header().putInt(1025).array();
+    IOException e = assertThrows(IOException.class, () -> Snapshot.read(
+        new ByteArrayInputStream(image), new ConcurrentKeyValueStore(), 1024, loaded -> { }));
+    assertEquals("Snapshot is corrupt: stream", e.getMessage());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0x7ffffff0, 0x7ffffffc, 0x7ffffffe, 64})
+  void mappedLengthPastTheFileIsCorrupt(int keyLength) throws IOException {
+    Path file = dir.resolve("hostile.snap");
+    Files.write(file, header().putInt(keyLength).array());
+    IOException e = assertThrows(IOException.class,
+        () -> Snapshot.load(file, new ConcurrentKeyValueStore()));
+    assertTrue(e.getMessage().startsWith("Snapshot is corrupt: "), e.getMessage());
+  }
+
+  /**
+   * Sends the 25-byte hostile request over TCP: the client gets a failure answer instead of
+   * the server running out of memory, and the server keeps serving.
+   */
+  @Test
+  void bulkLoadRejectsHostileHeader() throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    TCPServer server = new TCPServer(port, new ConcurrentKeyValueStore(),
+        new ServerConfig().set("log-level", "ERROR").set("log-console", "false"));
+    Thread serverThread = new Thread(server::execute, "tcp-server");
+    serverThread.start();
+    try {
+      try (Socket socket = connect(port)) {
+        OutputStream out = socket.getOutputStream();
+        out.write("BULKLOAD\n".getBytes(StandardCharsets.US_ASCII));
+        out.write(header().putInt(0x7ffffff0).array());
+        out.flush();
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("BULKLOAD_FAILURE: Snapshot is corrupt: stream", in.readLine());
+      }
+      try (Socket socket = connect(port)) {
+        socket.getOutputStream().write("PUT a 1\n".getBytes(StandardCharsets.US_ASCII));
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("PUT_SUCCESS", in.readLine());
+      }
+    } finally {
+      server.shutdown();
+      serverThread.join(10_000);
+    }
+  }
+
+  /**
+   * Returns a buffer holding a valid header, with room for a few more fields.
+   */
+  private static ByteBuffer header() {
+    return ByteBuffer.allocate(32).put("KVSNAP02".getBytes(StandardCharsets.US_ASCII)).putLong(0);
+  }
+
+  private static Socket connect(int port) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      try {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(30_000);
+        return socket;
+      } catch (IOException e) {
+        assertTrue(System.nanoTime() < deadline, "Server did not start: " + e);
+        Thread.sleep(20);
+      }
+    }
+  }
+}
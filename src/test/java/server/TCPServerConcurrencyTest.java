@@ -0,0 +1,172 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Drives hundreds of concurrent clients against one {@link TCPServer} and its shared
+ * store, checking every response and the store afterwards.
+ */
+@Timeout(value = 120, unit = TimeUnit.SECONDS)
+class TCPServerConcurrencyTest {
+  private static final int CLIENTS = 300;
+  private static final int OPERATIONS = 100;
+
+  private TCPServer server;
+  private Thread serverThread;
+
+  @AfterEach
+  void stopServer() throws InterruptedException {
+    if (server != null) {
+      server.shutdown();
+      serverThread.join(10_000);
+    }
+  }
+
+  @Test
+  void concurrentClientsSeeTheirOwnWrites() throws Exception {
+    KeyValueStore store = new ConcurrentKeyValueStore();
+    int port = startServer(store, new ServerConfig());
+    // Hold every client connected until all are, so they really run at the same time
+    CountDownLatch connected = new CountDownLatch(CLIENTS);
+    List<Future<Integer>> results = new ArrayList<>();
+    long begin = System.nanoTime();
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int c = 0; c < CLIENTS; c++) {
+        int client = c;
+        results.add(clients.submit(() -> runClient(port, client, connected)));
+      }
+      int mismatches = 0;
+      for (Future<Integer> result : results) {
+        mismatches += result.get();
+      }
+      assertEquals(0, mismatches);
+    }
+    long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+    System.out.println(CLIENTS + " clients ran " + CLIENTS * OPERATIONS * 4 + " requests in "
+        + millis + " ms (" + CLIENTS * OPERATIONS * 4L * 1000 / millis + " requests/s)");
+
+    for (int c = 0; c < CLIENTS; c++) {
+      assertEquals(Integer.toString(OPERATIONS - 1), store.get("kept" + c));
+      assertNull(store.get("key" + c + "-0"));
+    }
+    assertEquals(CLIENTS, store.size());
+  }
+
+  @Test
+  void connectionsBeyondTheLimitAreRejected() throws Exception {
+    int port = startServer(new ConcurrentKeyValueStore(), new ServerConfig().set("max-connections", "2"));
+    try (Client first = new Client(port)) {
+      // The connection that found the server started may still hold a slot
+      while (!first.request("STATS").contains(" connections_active=1 ")) {
+        Thread.sleep(20);
+      }
+      try (Client second = new Client(port)) {
+        assertEquals("PUT_SUCCESS", second.request("PUT b 2"));
+        try (Client third = new Client(port)) {
+          assertEquals("ERROR: Too many connections", third.in.readLine());
+          assertNull(third.in.readLine());
+        }
+        assertEquals("GET_SUCCESS: 2", first.request("GET b"));
+      }
+    }
+  }
+
+  /**
+   * Writes, reads back and deletes keys of its own, and overwrites one key many times.
+   *
+   * @return The number of unexpected responses.
+   */
+  private static int runClient(int port, int client, CountDownLatch connected) throws IOException,
+      InterruptedException {
+    try (Client connection = new Client(port)) {
+      connected.countDown();
+      connected.await();
+      int mismatches = 0;
+      for (int i = 0; i < OPERATIONS; i++) {
+        String key = "key" + client + "-" + i;
+        String value = client + "." + i;
+        mismatches += expect(connection, "PUT " + key + " " + value, "PUT_SUCCESS");
+        mismatches += expect(connection, "GET " + key, "GET_SUCCESS: " + value);
+        mismatches += expect(connection, "DELETE " + key, "DELETE_SUCCESS");
+        mismatches += expect(connection, "PUT kept" + client + " " + i, "PUT_SUCCESS");
+      }
+      return mismatches;
+    }
+  }
+
+  private static int expect(Client connection, String command, String expected) throws IOException {
+    String response = connection.request(command);
+    if (expected.equals(response)) {
+      return 0;
+    }
+    System.err.println(command + ": expected " + expected + ", got " + response);
+    return 1;
+  }
+
+  private int startServer(KeyValueStore store, ServerConfig config) throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    config.set("log-level", "ERROR").set("log-console", "false");
+    server = new TCPServer(port, store, config);
+    serverThread = new Thread(server::execute, "tcp-server");
+    serverThread.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      try {
+        new Socket("127.0.0.1", port).close();
+        return port;
+      } catch (IOException e) {
+        assertTrue(System.nanoTime() < deadline, "Server did not start: " + e);
+        Thread.sleep(20);
+      }
+    }
+  }
+
+  /**
+   * One text-protocol connection.
+   */
+  private static final class Client implements AutoCloseable {
+    final Socket socket;
+    final PrintWriter out;
+    final BufferedReader in;
+
+    Client(int port) throws IOException {
+      socket = new Socket("127.0.0.1", port);
+      socket.setSoTimeout(30_000);
+      out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    String request(String command) throws IOException {
+      out.println(command);
+      return in.readLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import common.LoggerInterface;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Replay of write-ahead logs whose tail a crash left torn, zero-filled or corrupt: the
+ * intact records are read back, the rest is cut off, and appending resumes after them.
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class WriteAheadLogTest {
+  private static final LoggerInterface QUIET = new LoggerInterface() {
+    @Override
+    public void log(String level, String message) {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void replaysEveryRecordInOrder() throws IOException {
+    Path file = dir.resolve("log.0");
+    write(file, "a=1", "b=2", "-a", "c=3");
+    assertEquals(List.of("a=1", "b=2", "-a", "c=3"), replay(file));
+  }
+
+  /**
+   * A file system may extend the file before the data reaches it, leaving zeros after the
+   * last record. A zero header would pass the checksum as an empty record; it must end the
+   * log instead.
+   */
+  @Test
+  void zeroFilledTailIsCutOff() throws IOException {
+    Path file = dir.resolve("log.0");
+    write(file, "a=1", "b=2");
+    long intact = Files.size(file);
+    Files.write(file, new byte[4096], StandardOpenOption.APPEND);
+
+    assertEquals(List.of("a=1", "b=2"), replay(file));
+    assertEquals(intact, Files.size(file));
+  }
+
+  /**
+   * A record whose checksum matches but whose key length points past the record is corrupt,
+   * not a reason to read past it.
+   */
+  @ParameterizedTest
+  @ValueSource(ints = {1000, Integer.MAX_VALUE, -1})
+  void checksummedRecordWithBogusKeyLengthIsCutOff(int keyLength) throws IOException {
+    Path file = dir.resolve("log.0");
+    write(file, "a=1", "b=2");
+    long intact = Files.size(file);
+    ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 1 + 4 + 1)
+        .put(WriteAheadLog.OP_PUT).putInt(keyLength).put((byte) 'k').putInt(1).put((byte) 'v');
+    CRC32C crc = new CRC32C();
+    crc.update(payload.array());
+    ByteBuffer record = ByteBuffer.allocate(8 + payload.capacity())
+        .putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array());
+    Files.write(file, record.array(), StandardOpenOption.APPEND);
+
+    assertEquals(List.of("a=1", "b=2"), replay(file));
+    assertEquals(intact, Files.size(file));
+  }
+
+  /**
+   * Cuts the last record short by each number of bytes from one to all of it: the records
+   * before it survive, and a log reopened on the file appends after them.
+   */
+  @ParameterizedTest
+  @ValueSource(ints = {1, 4, 8, 9, 18, 27})
+  void truncatedTailIsCutOff(int missingBytes) throws IOException {
+    Path file = dir.resolve("log.0");
+    write(file, "a=1", "b=2");
+    long intact = Files.size(file);
+    write(file, "key2=value2");
+    assertEquals(27, Files.size(file) - intact, "Size of the last record");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(file) - missingBytes);
+    }
+
+    assertEquals(List.of("a=1", "b=2"), replay(file));
+    assertEquals(intact, Files.size(file));
+    write(file, "c=3");
+    assertEquals(List.of("a=1", "b=2", "c=3"), replay(file));
+  }
+
+  @Test
+  void missingFileHasNoRecords() throws IOException {
+    assertEquals(List.of(), replay(dir.resolve("absent.0")));
+  }
+
+  /**
+   * Appends records to the log file and closes it. Each record is "key=value" for a put or
+   * "-key" for a delete.
+   */
+  private static void write(Path file, String... records) throws IOException {
+    WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.SyncMode.ALWAYS, 1000, QUIET);
+    try {
+      long seq = 0;
+      for (String record : records) {
+        int equals = record.indexOf('=');
+        seq = equals < 0
+            ? log.append(WriteAheadLog.OP_DELETE, record.substring(1), null)
+            : log.append(WriteAheadLog.OP_PUT, record.substring(0, equals),
+                record.substring(equals + 1));
+      }
+      log.awaitDurable(seq);
+    } finally {
+      log.close();
+    }
+  }
+
+  /**
+   * Replays the log file, returning its records in the form {@link #write} takes.
+   */
+  private static List<String> replay(Path file) throws IOException {
+    List<String> records = new ArrayList<>();
+    long count = WriteAheadLog.replay(file, (op, key, value, expiresAtMillis) ->
+        records.add(op == WriteAheadLog.OP_DELETE ? "-" + key : key + "=" + value));
+    assertEquals(records.size(), count);
+    return records;
+  }
+}